@@ -1,5 +1,7 @@
 package org.usfirst.frc.team1787.robot;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import org.opencv.core.Mat;
@@ -12,15 +14,23 @@ import org.usfirst.frc.team1787.robot.subsystems.Intake;
 import org.usfirst.frc.team1787.robot.subsystems.Shooter;
 import org.usfirst.frc.team1787.robot.subsystems.Turret;
 import org.usfirst.frc.team1787.robot.subsystems.Winch;
+import org.usfirst.frc.team1787.robot.utils.LoopProfiler;
+import org.usfirst.frc.team1787.robot.utils.SignalLogger;
+import org.usfirst.frc.team1787.robot.utils.TelemetryPublisher;
+import org.usfirst.frc.team1787.robot.utils.TuningParameters;
 import org.usfirst.frc.team1787.robot.vision.CameraController;
+import org.usfirst.frc.team1787.robot.vision.ContourDescriptor;
+import org.usfirst.frc.team1787.robot.vision.CoprocessorTargetClient;
+import org.usfirst.frc.team1787.robot.vision.DashboardStreamer;
 import org.usfirst.frc.team1787.robot.vision.ImageProcessor;
+import org.usfirst.frc.team1787.robot.vision.MatTracker;
+import org.usfirst.frc.team1787.robot.vision.VisionWorker;
 
 import edu.wpi.first.wpilibj.Joystick;
-import edu.wpi.first.wpilibj.Preferences;
+import edu.wpi.first.wpilibj.PIDController;
 import edu.wpi.first.wpilibj.TimedRobot;
 import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.internal.HardwareTimer;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 
 /**
  * The VM is configured to automatically run this class, and to call the
@@ -71,10 +81,13 @@ public class Robot extends TimedRobot {
 	private int tuningMode = 0;
 	private boolean tuningModeActive = false;
 
-	// the frame published to the SmartDash stream
-	private Mat outputFrame = new Mat();
-	// where to get the image to publish to the SmartDash
-	private int selectedStreamingSource = 0;
+
+	// the HSV bounds being tuned (tuningMode 2), filled in when they're edited instead of making new Scalars
+	private Scalar tuningLowerBounds = new Scalar(0, 0, 0);
+	private Scalar tuningUpperBounds = new Scalar(180, 255, 255);
+
+	// contours that pass the filters while tuning them (tuningMode 3)
+	private ArrayList<MatOfPoint> passingContours = new ArrayList<MatOfPoint>();
 
 	// Instances of Subsystems
 	private DriveTrain driveTrain = DriveTrain.getInstance();
@@ -83,8 +96,44 @@ public class Robot extends TimedRobot {
 	private Winch winch = Winch.getInstance();
 	private CameraController camController = CameraController.getInstance();
 	private ImageProcessor imgProcessor = ImageProcessor.getInstance();
+	private VisionWorker visionWorker = VisionWorker.getInstance();
+	private DashboardStreamer dashboardStreamer = DashboardStreamer.getInstance();
 	private AutoMethods auto = AutoMethods.getInstance();
 
+	/*
+	 * Everything that's published to the dashboard goes through the TelemetryPublisher, which only
+	 * sends values that changed, this many times a second (instead of every loop).
+	 */
+	private final double TELEMETRY_FLUSH_RATE_HZ = 10;
+	private TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
+
+	// Every subsystem's signals are also logged to a file every loop (see SignalLogger)
+	private SignalLogger signalLog = SignalLogger.getInstance();
+
+	/*
+	 * Each loop is timed section by section, to catch loops that take longer than the period
+	 * (see LoopProfiler). The report is printed every time the robot is disabled.
+	 */
+	private final double LOOP_PERIOD_SECONDS = 0.02;
+	private final int DRIVE_SECTION = 0;
+	private final int INTAKE_SECTION = 1;
+	private final int WINCH_SECTION = 2;
+	private final int TUNING_SECTION = 3;
+	private final int SHOOTER_SECTION = 4;
+	private final int CAMERA_STREAMING_SECTION = 5;
+	private final int VISION_SECTION = 6;
+	private final int TELEMETRY_SECTION = 7;
+	private final int SIGNAL_LOG_SECTION = 8;
+	private LoopProfiler loopProfiler = new LoopProfiler(new String[] {"Drive", "Intake", "Winch", "Tuning", "Shooter",
+			"Camera Streaming", "Vision", "Telemetry", "Signal Log"}, LOOP_PERIOD_SECONDS);
+
+	/*
+	 * When true, vision is run on a coprocessor (see the VisionCoprocessor tool) instead of the RIO,
+	 * and the targets it finds are received over UDP. The turretCam gets plugged into the coprocessor.
+	 */
+	private final boolean USE_VISION_COPROCESSOR = false;
+	private CoprocessorTargetClient coprocessorClient;
+
 	/*
 	 * These subsystems are normally controlled collectively through the Shooter
 	 * class, but they are included here individually to tune PID loops for each
@@ -93,8 +142,41 @@ public class Robot extends TimedRobot {
 	private Flywheel flywheel = Flywheel.getInstance();
 	private Turret turret = Turret.getInstance();
 
-	// Preferences (interface used to get values from the SmartDash)
-	Preferences prefs = Preferences.getInstance();
+	/*
+	 * Values being tuned from the SmartDash. They're read from the Preferences once, and then
+	 * kept up to date by NetworkTables listeners (see TuningParameters), so reading them in
+	 * runTuningCode() is just reading a field. Each group is only pushed to its subsystem when
+	 * something in it is edited. The parameters are added in robotInit() (see addTuningParameters()),
+	 * once the HSV bounds file has been loaded, since their defaults are what the robot is already using.
+	 */
+	private TuningParameters tuning = TuningParameters.getInstance();
+
+	private TuningParameters.Group turretTuning = tuning.newGroup();
+	private TuningParameters.Parameter turretP;
+	private TuningParameters.Parameter turretI;
+	private TuningParameters.Parameter turretD;
+	private TuningParameters.Parameter turretErrorTolerance;
+
+	private TuningParameters.Group flywheelTuning = tuning.newGroup();
+	private TuningParameters.Parameter flywheelP;
+	private TuningParameters.Parameter flywheelI;
+	private TuningParameters.Parameter flywheelD;
+	private TuningParameters.Parameter flywheelErrorTolerance;
+	// (the setpoint is still given to the PID controller every loop, since it's just a field read now)
+	private TuningParameters.Parameter flywheelSetpoint;
+
+	private TuningParameters.Group hsvTuning = tuning.newGroup();
+	private TuningParameters.Parameter hMin;
+	private TuningParameters.Parameter sMin;
+	private TuningParameters.Parameter vMin;
+	private TuningParameters.Parameter hMax;
+	private TuningParameters.Parameter sMax;
+	private TuningParameters.Parameter vMax;
+
+	private TuningParameters.Group contourTuning = tuning.newGroup();
+	private TuningParameters.Parameter minArea;
+	private TuningParameters.Parameter minShapeScore;
+	private TuningParameters.Parameter maxShapeScore;
 
 	// Timer for testing
 	Timer myTimer;
@@ -112,7 +194,7 @@ public class Robot extends TimedRobot {
 	@Override
 	public void robotInit() {
 		// Default Period is 0.02 seconds per loop.
-		this.setPeriod(0.02);
+		this.setPeriod(LOOP_PERIOD_SECONDS);
 
 		/*
 		 * TODO: 4) finish going through all talon config features 5) practice working
@@ -133,6 +215,76 @@ public class Robot extends TimedRobot {
 		 */
 		Timer.SetImplementation(new HardwareTimer());
 		myTimer = new Timer();
+
+		telemetry.setFlushRate(TELEMETRY_FLUSH_RATE_HZ);
+
+		// (every subsystem has been made by now, so all of their signals have been added to the log)
+		try {
+			signalLog.open(new File(SignalLogger.LOG_FILE_PATH));
+		} catch (IOException e) {
+			System.out.println("Couldn't open the signal log, nothing will be logged: " + e);
+		}
+
+		// use the HSV bounds from the HsvSweepTuner, if they've been copied to the robot
+		imgProcessor.loadHSVBounds(new File(ImageProcessor.HSV_BOUNDS_FILE_PATH));
+		// same goes for the turretCam's lens calibration from the CameraCalibrator
+		CameraController.loadTurretCamModel(new File(CameraController.TURRET_CAM_MODEL_FILE_PATH));
+		addTuningParameters();
+
+		// while the robot and turret are standing still, frames that look the same as the last one aren't processed again
+		imgProcessor.setStationaryCheck(() -> driveTrain.isStationary() && turret.isStationary());
+		imgProcessor.setStaticFrameSkipEnabled(true);
+
+		if (USE_VISION_COPROCESSOR) {
+			try {
+				coprocessorClient = CoprocessorTargetClient.overUdp(CoprocessorTargetClient.DEFAULT_PORT);
+				coprocessorClient.start();
+				shooter.setTargetSource(coprocessorClient);
+			} catch (IOException e) {
+				System.out.println("Couldn't listen for the vision coprocessor, running vision on the RIO: " + e);
+				coprocessorClient = null;
+			}
+		}
+
+		// Vision runs on its own thread so that waiting on the turretCam never stalls the main loop
+		if (coprocessorClient == null) {
+			visionWorker.start();
+		}
+		// So does streaming video to the dashboard, so encoding frames doesn't take time away from control
+		dashboardStreamer.start();
+	}
+
+	/**
+	 * Adds everything that can be tuned from the SmartDash. Each default is what the subsystem is using right now,
+	 * so deleting a value from the Preferences puts things back the way they were (the turret and flywheel
+	 * error tolerances have no getters, but both start out at 0).
+	 */
+	private void addTuningParameters() {
+		PIDController turretController = turret.getPIDController();
+		turretP = turretTuning.addParameter("turretP", turretController.getP());
+		turretI = turretTuning.addParameter("turretI", turretController.getI());
+		turretD = turretTuning.addParameter("turretD", turretController.getD());
+		turretErrorTolerance = turretTuning.addParameter("turretErrorTolerance", 0);
+
+		PIDController flywheelController = flywheel.getPIDController();
+		flywheelP = flywheelTuning.addParameter("flywheelP", flywheelController.getP());
+		flywheelI = flywheelTuning.addParameter("flywheelI", flywheelController.getI());
+		flywheelD = flywheelTuning.addParameter("flywheelD", flywheelController.getD());
+		flywheelErrorTolerance = flywheelTuning.addParameter("flywheelErrorTolerance", 0);
+		flywheelSetpoint = flywheelTuning.addParameter("flywheelSetpoint", 0);
+
+		Scalar lowerBounds = imgProcessor.getHSVLowerBounds();
+		Scalar upperBounds = imgProcessor.getHSVUpperBounds();
+		hMin = hsvTuning.addParameter("hMin", lowerBounds.val[0]);
+		sMin = hsvTuning.addParameter("sMin", lowerBounds.val[1]);
+		vMin = hsvTuning.addParameter("vMin", lowerBounds.val[2]);
+		hMax = hsvTuning.addParameter("hMax", upperBounds.val[0]);
+		sMax = hsvTuning.addParameter("sMax", upperBounds.val[1]);
+		vMax = hsvTuning.addParameter("vMax", upperBounds.val[2]);
+
+		minArea = contourTuning.addParameter("minArea", imgProcessor.getMinArea());
+		minShapeScore = contourTuning.addParameter("minShapeScore", imgProcessor.getMinShapeScore());
+		maxShapeScore = contourTuning.addParameter("maxShapeScore", imgProcessor.getMaxShapeScore());
 	}
 
 	/*
@@ -151,11 +303,34 @@ public class Robot extends TimedRobot {
 	 * different mode is entered.
 	 */
 
+	/**
+	 * Runs after the current mode's periodic() function, every loop no matter what mode the robot is in.
+	 */
+	@Override
+	public void robotPeriodic() {
+		// Send whatever was published this loop (if it's time to)
+		loopProfiler.publishDataToSmartDash();
+		telemetry.publishDataToSmartDash();
+		telemetry.flushIfDue();
+		loopProfiler.endSection(TELEMETRY_SECTION);
+
+		driveTrain.logData();
+		pickupArm.logData();
+		winch.logData();
+		shooter.logData();
+		signalLog.writeRecord(Timer.getFPGATimestamp());
+		loopProfiler.endSection(SIGNAL_LOG_SECTION);
+
+		loopProfiler.endLoop();
+	}
+
 	public void teleopInit() {
 
 	}
 
 	public void teleopPeriodic() {
+		loopProfiler.startLoop();
+
 		// Driving
 		driveTrain.arcadeDrive(-rightStick.getY(), rightStick.getX());
 
@@ -168,6 +343,7 @@ public class Robot extends TimedRobot {
 		}
 
 		driveTrain.publishDataToSmartDash();
+		loopProfiler.endSection(DRIVE_SECTION);
 
 		// Pickup Arm
 		if (rightStick.getRawButton(DEPLOY_ARM_BUTTON)) {
@@ -187,6 +363,7 @@ public class Robot extends TimedRobot {
 		else {
 			pickupArm.spinIntake(0);
 		}
+		loopProfiler.endSection(INTAKE_SECTION);
 
 		// Winch
 		if (rightStick.getRawButton(WINCH_CLIMB_BUTTON)) {
@@ -195,18 +372,23 @@ public class Robot extends TimedRobot {
 		else {
 			winch.spin(0);
 		}
+		loopProfiler.endSection(WINCH_SECTION);
 
 		// Tuning Mode
 		if (leftStick.getRawButtonPressed(TOGGLE_TUNING_MODE_ENABLED_BUTTON)) {
 			tuningModeActive = !tuningModeActive;
 			shooter.stop();
 		}
-		SmartDashboard.putBoolean("Tuning Mode Active", tuningModeActive);
+		telemetry.putBoolean("Tuning Mode Active", tuningModeActive);
 
 		if (tuningModeActive) {
 			runTuningCode();
+			loopProfiler.endSection(TUNING_SECTION);
 			return;
 		}
+		visionWorker.setEnabled(true);
+		dashboardStreamer.setEnabled(true);
+		loopProfiler.endSection(TUNING_SECTION);
 
 		// Shooter
 		if (leftStick.getRawButtonPressed(TOGGLE_SHOOTER_CONTROL_BUTTON)) {
@@ -229,32 +411,26 @@ public class Robot extends TimedRobot {
 		}
 
 		shooter.publishDataToSmartDash();
+		loopProfiler.endSection(SHOOTER_SECTION);
 
-		// Cameras (note that most img processing code is already called by
-		// shooter.fullAutoShooting())
+		// Cameras (note that img processing is run by the VisionWorker thread, 
+		// and frames are pushed to the dashboard by the DashboardStreamer thread)
 		if (rightStick.getRawButtonPressed(TOGGLE_ACTIVE_CAMERA_BUTTON)) {
-			selectedStreamingSource = (selectedStreamingSource + 1) % 4;
+			dashboardStreamer.selectNextSource();
 		}
+		dashboardStreamer.publishDataToSmartDash();
+		loopProfiler.endSection(CAMERA_STREAMING_SECTION);
 
-		if (selectedStreamingSource == 0) {
-			camController.getGearCamFrame(outputFrame);
-			SmartDashboard.putString("Selected Streaming Source", "gearCam");
-		}
-		else if (selectedStreamingSource == 1) {
-			camController.getTurretCamFrame(outputFrame);
-			SmartDashboard.putString("Selected Streaming Source", "turretCam");
+		if (coprocessorClient != null) {
+			coprocessorClient.publishDataToSmartDash();
 		}
-		else if (selectedStreamingSource == 2) {
-			outputFrame = imgProcessor.getOriginalFrame();
-			SmartDashboard.putString("Selected Streaming Source", "Processed Img (overlay)");
-		}
-		else if (selectedStreamingSource == 3) {
-			outputFrame = imgProcessor.getProcessedFrame();
-			SmartDashboard.putString("Selected Streaming Source", "Processed Img (no overlay)");
+		else {
+			imgProcessor.publishDataToSmartDash();
+			visionWorker.publishDataToSmartDash();
 		}
-		camController.pushFrameToDash(outputFrame);
-
-		imgProcessor.publishDataToSmartDash();
+		// (how much native memory the OpenCV Mats are holding, to catch leaks before they run the RIO out of memory)
+		MatTracker.publishDataToSmartDash();
+		loopProfiler.endSection(VISION_SECTION);
 	}
 
 	public void autonomousInit() {
@@ -262,15 +438,34 @@ public class Robot extends TimedRobot {
 	}
 
 	public void autonomousPeriodic() {
-
+		loopProfiler.startLoop();
 	}
 
 	public void disabledInit() {
 		shooter.stop();
+		// make sure the log of the match that just ended is actually on the disk, in case the robot is turned off
+		signalLog.flushToDisk();
+
+		// how the loop did while the robot was on (or while it was disabled before that)
+		if (loopProfiler.getLoops() > 0) {
+			loopProfiler.printReport(System.out);
+			loopProfiler.reset();
+		}
 	}
 
 	public void disabledPeriodic() {
+		loopProfiler.startLoop();
+	}
 
+	/**
+	 * Turns tuning mode on or off and picks what's being tuned, the same as the buttons on the left stick do.
+	 * (for tools that run the loop without a driver station, i.e. AllocationBudgetCheck --robot)
+	 * @param active true to run the tuning code instead of the shooter code.
+	 * @param mode What to tune (see runTuningCode()).
+	 */
+	public void setTuningMode(boolean active, int mode) {
+		tuningModeActive = active;
+		tuningMode = mode;
 	}
 
 	public void runTuningCode() {
@@ -284,87 +479,102 @@ public class Robot extends TimedRobot {
 			tuningMode = (tuningMode + 1) % 4;
 		}
 
+		/*
+		 * When tuning the vision pipeline (modes 2 & 3), the main thread runs the
+		 * ImageProcessor directly and pushes its own frames to the dashboard, so the
+		 * VisionWorker and the DashboardStreamer are paused to stay out of the way.
+		 * (pausing the VisionWorker waits for its current frame to finish, so it can't
+		 * grab from the turretCam or overwrite the frames in between the calls below)
+		 */
+		visionWorker.setEnabled(tuningMode != 2 && tuningMode != 3);
+		dashboardStreamer.setEnabled(tuningMode != 2 && tuningMode != 3);
+
 		/*
 		 * tuningMode = 0 = turret PID tuning tuningMode = 1 = flywheel PID tuning
 		 * tuningMode = 2 = HSV filter tuning tuningMode = 3 = contour filter tuning
 		 */
 		if (tuningMode == 0) {
-			if (!shooter.pidIsEnabled()) {
-				double turretP = prefs.getDouble("turretP", 0);
-				double turretI = prefs.getDouble("turretI", 0);
-				double turretD = prefs.getDouble("turretD", 0);
-				turret.getPIDController().setPID(turretP, turretI, turretD);
+			if (turretTuning.takeChanges()) {
+				turret.getPIDController().setPID(turretP.get(), turretI.get(), turretD.get());
 
 				// turret error is in [degrees]
-				double turretErrorTolerance = prefs.getDouble("turretErrorTolerance", 0);
-				turret.getPIDController().setAbsoluteTolerance(turretErrorTolerance);
-
+				turret.getPIDController().setAbsoluteTolerance(turretErrorTolerance.get());
+			}
+			if (!shooter.pidIsEnabled()) {
 				turret.getPIDController().enable();
 			}
 			shooter.trackTarget();
 
 		}
 		else if (tuningMode == 1) {
-			if (!shooter.pidIsEnabled()) {
-				double flywheelP = prefs.getDouble("flywheelP", 0);
-				double flywheelI = prefs.getDouble("flywheelI", 0);
-				double flywheelD = prefs.getDouble("flywheelD", 0);
-				flywheel.getPIDController().setPID(flywheelP, flywheelI, flywheelD);
+			if (flywheelTuning.takeChanges()) {
+				flywheel.getPIDController().setPID(flywheelP.get(), flywheelI.get(), flywheelD.get());
 
 				// flywheel error is in [revolutions/second]
-				double flywheelErrorTolerance = prefs.getDouble("flywheelErrorTolerance", 0);
-				flywheel.getPIDController().setAbsoluteTolerance(flywheelErrorTolerance);
-
+				flywheel.getPIDController().setAbsoluteTolerance(flywheelErrorTolerance.get());
+			}
+			if (!shooter.pidIsEnabled()) {
 				flywheel.getPIDController().enable();
 			}
-			double flywheelSetpoint = prefs.getDouble("flywheelSetpoint", 0);
-			flywheel.getPIDController().setSetpoint(flywheelSetpoint);
+			flywheel.getPIDController().setSetpoint(flywheelSetpoint.get());
 
 		}
 		else if (tuningMode == 2) {
 			shooter.manualControl(leftStick);
 
-			double hMin = prefs.getDouble("hMin", 0);
-			double sMin = prefs.getDouble("sMin", 0);
-			double vMin = prefs.getDouble("vMin", 0);
-			Scalar minRange = new Scalar(hMin, sMin, vMin);
+			// new bounds are also given to the ImageProcessor, so the pipeline (and tuningMode 3) uses them
+			if (hsvTuning.takeChanges()) {
+				tuningLowerBounds.val[0] = hMin.get();
+				tuningLowerBounds.val[1] = sMin.get();
+				tuningLowerBounds.val[2] = vMin.get();
 
-			double hMax = prefs.getDouble("hMax", 180);
-			double sMax = prefs.getDouble("sMax", 255);
-			double vMax = prefs.getDouble("vMax", 255);
-			Scalar maxRange = new Scalar(hMax, sMax, vMax);
+				tuningUpperBounds.val[0] = hMax.get();
+				tuningUpperBounds.val[1] = sMax.get();
+				tuningUpperBounds.val[2] = vMax.get();
 
-			Mat result = imgProcessor.getHSVFilter(minRange, maxRange);
+				imgProcessor.setHSVBounds(tuningLowerBounds, tuningUpperBounds);
+			}
+
+			// (until something is edited, that's just the bounds the pipeline was already using)
+			Mat result = imgProcessor.getHSVFilter(imgProcessor.getHSVLowerBounds(), imgProcessor.getHSVUpperBounds());
 			camController.pushFrameToDash(result);
 
 		}
 		else if (tuningMode == 3) {
 			shooter.manualControl(leftStick);
 
-			double minArea = prefs.getDouble("minArea", 0);
-			double minShapeScore = prefs.getDouble("minShapeScore", 0);
-			double maxShapeScore = prefs.getDouble("maxShapeScore", 2);
+			if (contourTuning.takeChanges()) {
+				imgProcessor.setContourFilters(minArea.get(), minShapeScore.get(), maxShapeScore.get());
+			}
 
-			Scalar minHsvRange = imgProcessor.DEFAULT_HSV_LOWER_BOUNDS;
-			Scalar maxHsvRange = imgProcessor.DEFAULT_HSV_UPPER_BOUNDS;
+			Scalar minHsvRange = imgProcessor.getHSVLowerBounds();
+			Scalar maxHsvRange = imgProcessor.getHSVUpperBounds();
 			Mat result = imgProcessor.getHSVFilter(minHsvRange, maxHsvRange);
 
+			/*
+			 * The list from findContours() is reused by the ImageProcessor, so the contours
+			 * that pass are copied into a separate list instead of removing the ones that fail.
+			 */
 			ArrayList<MatOfPoint> contours = imgProcessor.findContours(result);
-			for (int i = contours.size() - 1; i >= 0; i--) {
-				boolean passesAreaTest = imgProcessor.passesAreaTest(contours.get(i), minArea);
-				boolean passesShapeTest = imgProcessor.passesShapeTest(contours.get(i), minShapeScore, maxShapeScore);
-				if (!(passesAreaTest && passesShapeTest)) {
-					contours.remove(i);
+			ArrayList<ContourDescriptor> descriptors = imgProcessor.measureContours(contours);
+			passingContours.clear();
+			for (int i = 0; i < descriptors.size(); i++) {
+				boolean passesAreaTest = imgProcessor.passesAreaTest(descriptors.get(i), imgProcessor.getMinArea());
+				boolean passesShapeTest = imgProcessor.passesShapeTest(descriptors.get(i),
+						imgProcessor.getMinShapeScore(), imgProcessor.getMaxShapeScore());
+				if (passesAreaTest && passesShapeTest) {
+					passingContours.add(descriptors.get(i).getContour());
 				}
 			}
 
-			result = imgProcessor.drawContours(true, contours);
+			result = imgProcessor.drawContours(true, passingContours);
 			camController.pushFrameToDash(result);
 		}
 
 		// Publish all data to smart dash
 		shooter.publishDataToSmartDash();
 		imgProcessor.publishDataToSmartDash();
+		visionWorker.publishDataToSmartDash();
 	}
 
 	public void testInit() {
@@ -372,6 +582,6 @@ public class Robot extends TimedRobot {
 	}
 
 	public void testPeriodic() {
-
+		loopProfiler.startLoop();
 	}
 }
\ No newline at end of file
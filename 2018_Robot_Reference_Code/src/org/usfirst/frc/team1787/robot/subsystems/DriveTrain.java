@@ -1,12 +1,13 @@
 package org.usfirst.frc.team1787.robot.subsystems;
 
+import org.usfirst.frc.team1787.robot.utils.SignalLogger;
+import org.usfirst.frc.team1787.robot.utils.TelemetryPublisher;
 import org.usfirst.frc.team1787.robot.utils.UnitConverter;
 
 import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
 
 import edu.wpi.first.wpilibj.Encoder;
 import edu.wpi.first.wpilibj.Solenoid;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 
 public class DriveTrain {
   
@@ -30,6 +31,8 @@ public class DriveTrain {
   
   // determined through testing
   private final double METERS_PER_PULSE = UnitConverter.inchesToMeters(0.01249846);
+  // slower than this (on both sides) counts as standing still (see isStationary())
+  private final double STATIONARY_SPEED_METERS_PER_SECOND = 0.02;
 
   // Gear Shifter (pneumatic shifter controlled by a solenoid)
   private final int SOLENOID_ID = 0;
@@ -40,6 +43,14 @@ public class DriveTrain {
   public final boolean HIGH_GEAR = false;
   public final boolean LOW_GEAR = true;
   
+  // Signal Log (see SignalLogger)
+  private SignalLogger signalLog = SignalLogger.getInstance();
+  private final int leftOutputSignal = signalLog.addSignal("Drive Left Output", SignalLogger.TYPE_FLOAT);
+  private final int rightOutputSignal = signalLog.addSignal("Drive Right Output", SignalLogger.TYPE_FLOAT);
+  private final int leftRateSignal = signalLog.addSignal("Drive Left Encoder Rate (m/s)", SignalLogger.TYPE_FLOAT);
+  private final int rightRateSignal = signalLog.addSignal("Drive Right Encoder Rate (m/s)", SignalLogger.TYPE_FLOAT);
+  private final int highGearSignal = signalLog.addSignal("Drive High Gear", SignalLogger.TYPE_BOOLEAN);
+  
   // Singleton Instance
   private static DriveTrain instance;
 
@@ -123,6 +134,15 @@ public class DriveTrain {
     return (leftEncoder.getRate() + rightEncoder.getRate()) / 2.0;
   }
   
+  /**
+   * @return true if neither side of the drivetrain is moving.
+   * Both sides are checked, since turning in place gives an average velocity of 0.
+   */
+  public boolean isStationary() {
+    return Math.abs(leftEncoder.getRate()) < STATIONARY_SPEED_METERS_PER_SECOND
+           && Math.abs(rightEncoder.getRate()) < STATIONARY_SPEED_METERS_PER_SECOND;
+  }
+  
   /* --------------------------------
    * Gear Shifter Functions
    * --------------------------------
@@ -149,27 +169,37 @@ public class DriveTrain {
    */
 
   public void publishDataToSmartDash() {
+    TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
     // Talons
-	SmartDashboard.putData("Drive Train Output (Left)", leftMasterMotor);
-	SmartDashboard.putData("Drive Train Output (Right)", rightMasterMotor);
+	telemetry.putData("Drive Train Output (Left)", leftMasterMotor);
+	telemetry.putData("Drive Train Output (Right)", rightMasterMotor);
 	
 	// Encoders
-    SmartDashboard.putNumber("Average Velocity (meters per second)", getAvgVelocity());
+    telemetry.putNumber("Average Velocity (meters per second)", getAvgVelocity());
     
-    SmartDashboard.putData("Left Drive Encoder", leftEncoder);
-    SmartDashboard.putNumber("Left Drive Encoder Ticks", leftEncoder.get());
+    telemetry.putData("Left Drive Encoder", leftEncoder);
+    telemetry.putNumber("Left Drive Encoder Ticks", leftEncoder.get());
     
-    SmartDashboard.putData("Right Drive Encoder", rightEncoder);
-    SmartDashboard.putNumber("Right Drive Encoder Ticks", rightEncoder.get());
+    telemetry.putData("Right Drive Encoder", rightEncoder);
+    telemetry.putNumber("Right Drive Encoder Ticks", rightEncoder.get());
     
     // Gear Shifter
     if (gearShifter.get() == HIGH_GEAR) {
-      SmartDashboard.putString("Current Gear", "High Gear");
+      telemetry.putString("Current Gear", "High Gear");
     } else {
-      SmartDashboard.putString("Current Gear", "Low Gear");
+      telemetry.putString("Current Gear", "Low Gear");
     }
   }
   
+  /** Records the drive motors, encoder rates, and gear in the signal log (called every loop, see Robot.robotPeriodic()). */
+  public void logData() {
+    signalLog.record(leftOutputSignal, leftMasterMotor.get());
+    signalLog.record(rightOutputSignal, rightMasterMotor.get());
+    signalLog.record(leftRateSignal, leftEncoder.getRate());
+    signalLog.record(rightRateSignal, rightEncoder.getRate());
+    signalLog.record(highGearSignal, gearShifter.get() == HIGH_GEAR);
+  }
+  
   public static DriveTrain getInstance() {
     if (instance == null) {
       instance = new DriveTrain();
@@ -1,8 +1,9 @@
 package org.usfirst.frc.team1787.robot.subsystems;
 
-import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
+import org.usfirst.frc.team1787.robot.utils.SignalLogger;
+import org.usfirst.frc.team1787.robot.utils.TelemetryPublisher;
 
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
 
 public class Feeder {
   
@@ -12,6 +13,10 @@ public class Feeder {
   
   public final double DEFAULT_FEEDER_SPEED = 0.42;
   
+  // Signal Log (see SignalLogger)
+  private SignalLogger signalLog = SignalLogger.getInstance();
+  private final int outputSignal = signalLog.addSignal("Feeder Motor Output", SignalLogger.TYPE_FLOAT);
+  
   // Singleton Instance
   private static Feeder instance;
 
@@ -33,7 +38,12 @@ public class Feeder {
   }
   
   public void publishDataToSmartDash() {
-	SmartDashboard.putData("Feeder Motor Output", feederMotor);
+    TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
+	telemetry.putData("Feeder Motor Output", feederMotor);
+  }
+  
+  public void logData() {
+    signalLog.record(outputSignal, feederMotor.get());
   }
   
   public static Feeder getInstance() {
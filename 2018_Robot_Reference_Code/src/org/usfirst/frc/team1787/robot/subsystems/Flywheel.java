@@ -1,5 +1,7 @@
 package org.usfirst.frc.team1787.robot.subsystems;
 
+import org.usfirst.frc.team1787.robot.utils.SignalLogger;
+import org.usfirst.frc.team1787.robot.utils.TelemetryPublisher;
 import org.usfirst.frc.team1787.robot.utils.UnitConverter;
 
 import com.ctre.phoenix.motorcontrol.NeutralMode;
@@ -8,7 +10,6 @@ import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
 import edu.wpi.first.wpilibj.Encoder;
 import edu.wpi.first.wpilibj.PIDController;
 import edu.wpi.first.wpilibj.PIDSourceType;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 
 public class Flywheel {
   
@@ -39,6 +40,13 @@ public class Flywheel {
   private final double EXIT_ANGLE_DEGREES = 1; // <- PLACEHOLDER
   private final double EXIT_ANGLE_RADIANS = Math.toRadians(EXIT_ANGLE_DEGREES);
   
+  // Signal Log (see SignalLogger)
+  private SignalLogger signalLog = SignalLogger.getInstance();
+  private final int outputSignal = signalLog.addSignal("Flywheel Motor Output", SignalLogger.TYPE_FLOAT);
+  private final int rateSignal = signalLog.addSignal("Flywheel Encoder Rate (rev/s)", SignalLogger.TYPE_FLOAT);
+  private final int pidErrorSignal = signalLog.addSignal("Flywheel PID Error", SignalLogger.TYPE_FLOAT);
+  private final int pidSetpointSignal = signalLog.addSignal("Flywheel PID Setpoint", SignalLogger.TYPE_FLOAT);
+  
   // Singleton Instance
   private static Flywheel instance;
   
@@ -117,17 +125,25 @@ public class Flywheel {
   }
 
   public void publishDataToSmartDash() {
+    TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
 	// Talon
-	SmartDashboard.putData("Flywheel Motor Output", flywheelMotor);
+	telemetry.putData("Flywheel Motor Output", flywheelMotor);
 	
 	// Encoder
-	SmartDashboard.putData("Flywheel Encoder", flywheelEncoder);
-	SmartDashboard.putNumber("Flywheel Encoder Ticks", flywheelEncoder.getRaw());
+	telemetry.putData("Flywheel Encoder", flywheelEncoder);
+	telemetry.putNumber("Flywheel Encoder Ticks", flywheelEncoder.getRaw());
 	
 	// PID Controller
-	SmartDashboard.putData("Flywheel PID Controller", flywheelController);
-    SmartDashboard.putNumber("Flywheel PID Error", flywheelController.getError());
-    SmartDashboard.putBoolean("Flywheel PID On Target", flywheelController.onTarget());
+	telemetry.putData("Flywheel PID Controller", flywheelController);
+    telemetry.putNumber("Flywheel PID Error", flywheelController.getError());
+    telemetry.putBoolean("Flywheel PID On Target", flywheelController.onTarget());
+  }
+  
+  public void logData() {
+    signalLog.record(outputSignal, flywheelMotor.get());
+    signalLog.record(rateSignal, flywheelEncoder.getRate());
+    signalLog.record(pidErrorSignal, flywheelController.getError());
+    signalLog.record(pidSetpointSignal, flywheelController.getSetpoint());
   }
   
   public static Flywheel getInstance() {
@@ -136,4 +152,4 @@ public class Flywheel {
 	}
     return instance;
   }
-}
\ No newline at end of file
+}
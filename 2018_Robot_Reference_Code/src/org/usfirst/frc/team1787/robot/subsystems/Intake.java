@@ -1,9 +1,11 @@
 package org.usfirst.frc.team1787.robot.subsystems;
 
+import org.usfirst.frc.team1787.robot.utils.SignalLogger;
+import org.usfirst.frc.team1787.robot.utils.TelemetryPublisher;
+
 import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
 
 import edu.wpi.first.wpilibj.DoubleSolenoid;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 
 public class Intake {
 
@@ -22,6 +24,11 @@ public class Intake {
   
   public final double DEFAULT_INTAKE_SPEED = 0.8;
   
+  // Signal Log (see SignalLogger)
+  private SignalLogger signalLog = SignalLogger.getInstance();
+  private final int outputSignal = signalLog.addSignal("Intake Motor Output", SignalLogger.TYPE_FLOAT);
+  private final int deployedSignal = signalLog.addSignal("Intake Deployed", SignalLogger.TYPE_BOOLEAN);
+  
   // Singleton Instance
   private static Intake instance;
 
@@ -51,11 +58,17 @@ public class Intake {
   }
   
   public void publishDataToSmartDash() {
+    TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
 	// Talon
-	SmartDashboard.putData("Intake Motor Output", intakeMotor);
+	telemetry.putData("Intake Motor Output", intakeMotor);
 	
 	// Solenoid
-	SmartDashboard.putBoolean("Intake Deployed", intakeSolenoid.get() == this.DEPLOY);
+	telemetry.putBoolean("Intake Deployed", intakeSolenoid.get() == this.DEPLOY);
+  }
+  
+  public void logData() {
+    signalLog.record(outputSignal, intakeMotor.get());
+    signalLog.record(deployedSignal, intakeSolenoid.get() == DEPLOY);
   }
   
   public static Intake getInstance() {
@@ -1,9 +1,13 @@
 package org.usfirst.frc.team1787.robot.subsystems;
 
+import org.usfirst.frc.team1787.robot.utils.SignalLogger;
 import org.usfirst.frc.team1787.robot.vision.ImageProcessor;
 import org.usfirst.frc.team1787.robot.vision.Target;
+import org.usfirst.frc.team1787.robot.vision.TargetEstimator;
+import org.usfirst.frc.team1787.robot.vision.TargetSource;
 
 import edu.wpi.first.wpilibj.Joystick;
+import edu.wpi.first.wpilibj.Timer;
 
 /**
  * The shooter class is composed of the turret, the flywheel, and the feeder.
@@ -17,7 +21,20 @@ public class Shooter {
   private Feeder feeder = Feeder.getInstance();
   
   // Vision
-  private ImageProcessor imgProcessor = ImageProcessor.getInstance();
+  // where targets come from: the ImageProcessor on the RIO, or a coprocessor (see setTargetSource())
+  private TargetSource targetSource = ImageProcessor.getInstance();
+  private Target target = new Target(); // (the targetSource copies the latest target into this every loop)
+  private TargetEstimator targetEstimator = new TargetEstimator();
+  // don't shoot unless the estimate is backed up by a few recent frames.
+  private final double MIN_CONFIDENCE_TO_SHOOT = 0.6;
+  
+  // Signal Log (see SignalLogger)
+  private SignalLogger signalLog = SignalLogger.getInstance();
+  private final int targetFoundSignal = signalLog.addSignal("Target Found", SignalLogger.TYPE_BOOLEAN);
+  private final int targetErrorXSignal = signalLog.addSignal("Target Error X (degrees)", SignalLogger.TYPE_FLOAT);
+  private final int targetErrorYSignal = signalLog.addSignal("Target Error Y (degrees)", SignalLogger.TYPE_FLOAT);
+  private final int targetDistanceSignal = signalLog.addSignal("Target Distance (m)", SignalLogger.TYPE_FLOAT);
+  private final int targetAgeSignal = signalLog.addSignal("Target Age (s)", SignalLogger.TYPE_FLOAT);
   
   // Singleton Instance
   private static Shooter instance;
@@ -38,10 +55,15 @@ public class Shooter {
   
   public void fullAutoShooting() {
     trackTarget();
-    double horizontalDistanceToTarget = imgProcessor.getCurrentTarget().getHorizontalDistance();
-    double verticalDistanceToTarget = Target.TURRET_TO_TARGET_VERTICAL_DISTANCE;
-    flywheel.setCalculatedSetpoint(horizontalDistanceToTarget, verticalDistanceToTarget);
-    if (turret.getPIDController().onTarget() && flywheel.getPIDController().onTarget()) {
+    double now = Timer.getFPGATimestamp();
+    // (when the target is lost, the flywheel holds its last speed instead of being sized for a distance of 0)
+    if (targetEstimator.isTracking()) {
+      double horizontalDistanceToTarget = targetEstimator.getDistance(now);
+      double verticalDistanceToTarget = Target.TURRET_TO_TARGET_VERTICAL_DISTANCE;
+      flywheel.setCalculatedSetpoint(horizontalDistanceToTarget, verticalDistanceToTarget);
+    }
+    if (targetEstimator.getConfidence(now) >= MIN_CONFIDENCE_TO_SHOOT
+        && turret.getPIDController().onTarget() && flywheel.getPIDController().onTarget()) {
       feeder.spin(feeder.DEFAULT_FEEDER_SPEED);
     } else {
       feeder.stop();
@@ -49,21 +71,45 @@ public class Shooter {
   }
   
   public void trackTarget() {
-    imgProcessor.runVisionProcessing();
-    double currentAngle = turret.getGyro().getAngle();
-    double targetError = imgProcessor.getCurrentTarget().getErrorInDegreesX();
+    /* Note: vision itself is run by the VisionWorker thread (or on the coprocessor),
+     * so this just uses whatever target was found in the most recent frame. */
+    targetSource.getCurrentTarget(target);
+    double now = Timer.getFPGATimestamp();
     
-    /* currentAngle and targetError are added to get the setpoint because 
-     * targetError is relative to where we currently are.
+    /* The target's error is added to the angle the turret was at when the frame was captured
+     * (not the current angle) because the error is relative to where the turret was pointing back then.
      * For example, if the target is 30 degrees to the right, and the turret angle 
-     * currently reads 50 degrees, then the setpoint for the PIDController should be 80,
-     * as that will cause the turret to turn 30 degrees to the right starting from where it currently is. */
-    turret.getPIDController().setSetpoint(currentAngle + targetError);
+     * read 50 degrees when the frame was captured, then the target is at 80 degrees,
+     * no matter how far the turret has turned since then.
+     * (Using the current angle instead made the turret overshoot and oscillate whenever 
+     * it was tracking while already turning, because the frame is 30-100ms old by the time we see it.)
+     * The estimator does that addition, and smooths the result over several frames. */
+    double angleWhenCaptured = turret.getAngleAt(target.getCaptureTimestamp());
+    targetEstimator.update(target, angleWhenCaptured, now);
+    
+    if (targetEstimator.isTracking()) {
+      turret.getPIDController().setSetpoint(targetEstimator.getBearing(now));
+    } else {
+      // nothing to aim at, so just hold still.
+      turret.getPIDController().setSetpoint(turret.getGyro().getAngle());
+    }
+  }
+  
+  /**
+   * Changes where the shooter gets its targets from (i.e. a CoprocessorTargetClient when vision 
+   * is run on a coprocessor). The ImageProcessor is used by default.
+   */
+  public void setTargetSource(TargetSource targetSource) {
+    this.targetSource = targetSource;
+    // targets from the new source have nothing to do with the old ones
+    targetEstimator.reset();
   }
   
   public void zeroSensors() {
     turret.zeroSensors();
     flywheel.zeroSensors();
+    // the estimated bearing was measured from the old zero.
+    targetEstimator.reset();
   }
   
   public void manualControl(double turretMoveValue, double flywheelMoveValue, double feederMoveValue) {
@@ -92,6 +138,21 @@ public class Shooter {
     turret.publishDataToSmartDash();
     flywheel.publishDataToSmartDash();
     feeder.publishDataToSmartDash();
+    targetEstimator.publishDataToSmartDash(Timer.getFPGATimestamp());
+  }
+  
+  /** Records the turret, flywheel, feeder, and whatever target the shooter's aiming at in the signal log. */
+  public void logData() {
+    turret.logData();
+    flywheel.logData();
+    feeder.logData();
+    
+    targetSource.getCurrentTarget(target);
+    signalLog.record(targetFoundSignal, target.isFound());
+    signalLog.record(targetErrorXSignal, target.getErrorInDegreesX());
+    signalLog.record(targetErrorYSignal, target.getErrorInDegreesY());
+    signalLog.record(targetDistanceSignal, target.getHorizontalDistance());
+    signalLog.record(targetAgeSignal, target.getAge());
   }
   
   public static Shooter getInstance() {
@@ -2,9 +2,14 @@ package org.usfirst.frc.team1787.robot.subsystems;
 
 import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
 
+import org.usfirst.frc.team1787.robot.utils.SignalLogger;
+import org.usfirst.frc.team1787.robot.utils.TelemetryPublisher;
+import org.usfirst.frc.team1787.robot.utils.TimestampedHistory;
+
 import edu.wpi.first.wpilibj.AnalogGyro;
+import edu.wpi.first.wpilibj.Notifier;
 import edu.wpi.first.wpilibj.PIDController;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj.Timer;
 
 public class Turret {
   
@@ -15,6 +20,19 @@ public class Turret {
   // Gyro
   private final int GYRO_ANALOG_PORT = 0;
   private AnalogGyro gyro = new AnalogGyro(GYRO_ANALOG_PORT);
+  
+  /* Angle History
+   * Frames from the turretCam are already a bit old by the time vision is done with them,
+   * and the turret may have moved since. To aim correctly, the target's error has to be added
+   * to the angle the turret was at when the frame was captured, not the angle it's at now.
+   * So, the gyro angle is recorded every few milliseconds (on its own thread, so it doesn't depend
+   * on how often teleopPeriodic() runs), and getAngleAt() looks up the angle at any recent time. */
+  private final double ANGLE_HISTORY_PERIOD_SECONDS = 0.005;
+  private final int ANGLE_HISTORY_SIZE = 100; // 100 angles * 5ms = the last 0.5 seconds
+  private TimestampedHistory angleHistory = new TimestampedHistory(ANGLE_HISTORY_SIZE);
+  private Notifier angleRecorder = new Notifier(this::recordAngle);
+  // slower than this counts as standing still (see isStationary())
+  private final double STATIONARY_RATE_DEGREES_PER_SECOND = 0.5;
 
   // PID Controller Gains / Configuration Preferences
   private final double PID_KP = 0;
@@ -25,6 +43,13 @@ public class Turret {
   private PIDController turretController = new PIDController(PID_KP, PID_KI, PID_KD, PID_KF, 
 		  										 gyro, turretMotor, PIDController.kDefaultPeriod);
   
+  // Signal Log (see SignalLogger)
+  private SignalLogger signalLog = SignalLogger.getInstance();
+  private final int outputSignal = signalLog.addSignal("Turret Motor Output", SignalLogger.TYPE_FLOAT);
+  private final int angleSignal = signalLog.addSignal("Turret Gyro Angle", SignalLogger.TYPE_FLOAT);
+  private final int pidErrorSignal = signalLog.addSignal("Turret PID Error", SignalLogger.TYPE_FLOAT);
+  private final int pidSetpointSignal = signalLog.addSignal("Turret PID Setpoint", SignalLogger.TYPE_FLOAT);
+  
   // Singleton Instance
   private static Turret instance;
   
@@ -49,6 +74,27 @@ public class Turret {
 	
 	// config PID controller
     turretController.setAbsoluteTolerance(PID_ERROR_TOLERENCE);
+    
+    // start recording the angle history
+    angleRecorder.startPeriodic(ANGLE_HISTORY_PERIOD_SECONDS);
+  }
+  
+  private void recordAngle() {
+    angleHistory.record(Timer.getFPGATimestamp(), gyro.getAngle());
+  }
+  
+  /**
+   * @param timestamp An FPGA timestamp (in seconds) from the last half second or so.
+   * @return The angle (in degrees) the turret was at at the given time, according to the gyro.
+   * Times older than the history get the oldest angle that's remembered.
+   */
+  public double getAngleAt(double timestamp) {
+    return angleHistory.getValueAt(timestamp, gyro.getAngle());
+  }
+  
+  /** @return true if the turret isn't turning (according to the gyro). */
+  public boolean isStationary() {
+    return Math.abs(gyro.getRate()) < STATIONARY_RATE_DEGREES_PER_SECOND;
   }
   
   public PIDController getPIDController() {
@@ -61,6 +107,8 @@ public class Turret {
   
   public void zeroSensors() {
     gyro.reset();
+    // the old angles were measured from a different zero, so they're no good anymore.
+    angleHistory.clear();
   }
 
   public void manualControl(double moveValue) {
@@ -75,16 +123,24 @@ public class Turret {
   }
 
   public void publishDataToSmartDash() {
+    TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
 	// Talon
-	SmartDashboard.putData("Turret Motor Output", turretMotor);
+	telemetry.putData("Turret Motor Output", turretMotor);
 	
 	// Gyro
-	SmartDashboard.putData("Gyro", gyro);
+	telemetry.putData("Gyro", gyro);
 	
 	// PID controller
-	SmartDashboard.putData("Turret PID Controller", turretController);
-    SmartDashboard.putNumber("Turret PID Error", turretController.getError());
-    SmartDashboard.putBoolean("Turret PID On Target", turretController.onTarget());
+	telemetry.putData("Turret PID Controller", turretController);
+    telemetry.putNumber("Turret PID Error", turretController.getError());
+    telemetry.putBoolean("Turret PID On Target", turretController.onTarget());
+  }
+  
+  public void logData() {
+    signalLog.record(outputSignal, turretMotor.get());
+    signalLog.record(angleSignal, gyro.getAngle());
+    signalLog.record(pidErrorSignal, turretController.getError());
+    signalLog.record(pidSetpointSignal, turretController.getSetpoint());
   }
   
   public static Turret getInstance() {
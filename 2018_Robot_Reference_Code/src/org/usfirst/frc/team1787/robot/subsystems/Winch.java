@@ -1,8 +1,9 @@
 package org.usfirst.frc.team1787.robot.subsystems;
 
-import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
+import org.usfirst.frc.team1787.robot.utils.SignalLogger;
+import org.usfirst.frc.team1787.robot.utils.TelemetryPublisher;
 
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
 
 public class Winch {
   
@@ -15,6 +16,10 @@ public class Winch {
   public final double DEFAULT_CLIMB_SPEED = 1.0;
   public final double DEFAULT_DECEND_SPEED = -0.5;
   
+  // Signal Log (see SignalLogger)
+  private SignalLogger signalLog = SignalLogger.getInstance();
+  private final int outputSignal = signalLog.addSignal("Winch Motor Output", SignalLogger.TYPE_FLOAT);
+  
   // Singleton Instance
   private static Winch instance;
   
@@ -37,8 +42,13 @@ public class Winch {
   }
   
   public void publishDataToSmartDash() {
+    TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
 	// Talons
-	SmartDashboard.putData("Winch Motor Output", winchMasterMotor);
+	telemetry.putData("Winch Motor Output", winchMasterMotor);
+  }
+  
+  public void logData() {
+    signalLog.record(outputSignal, winchMasterMotor.get());
   }
   
   public static Winch getInstance() {
@@ -0,0 +1,289 @@
+package org.usfirst.frc.team1787.robot.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.opencv.core.Core;
+import org.usfirst.frc.team1787.robot.Robot;
+import org.usfirst.frc.team1787.robot.utils.LoopProfiler;
+import org.usfirst.frc.team1787.robot.utils.SignalLogger;
+import org.usfirst.frc.team1787.robot.utils.TelemetryPublisher;
+import org.usfirst.frc.team1787.robot.vision.CoprocessorTargetClient;
+import org.usfirst.frc.team1787.robot.vision.ImageProcessor;
+import org.usfirst.frc.team1787.robot.vision.MatTracker;
+import org.usfirst.frc.team1787.robot.vision.Target;
+import org.usfirst.frc.team1787.robot.vision.TargetEstimator;
+import org.usfirst.frc.team1787.robot.vision.TargetPublisher;
+import org.usfirst.frc.team1787.robot.vision.VisionWorker;
+
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.hal.HAL;
+
+/**
+ * A command line program that makes sure the main loop doesn't allocate anything once it's warmed up.
+ * On the RIO's small heap, every bit of garbage made each loop eventually turns into a garbage collection pause,
+ * which shows up as a hiccup in the control loops (see LoopProfiler). Run it like this:
+ *
+ * java [-Djava.library.path=[folder with the opencv native library]] -cp [classpath]
+ *      org.usfirst.frc.team1787.robot.tools.AllocationBudgetCheck [--robot]
+ *
+ * It runs a simulated loop made of the real code the robot runs every loop that doesn't need the RIO's hardware:
+ * the coprocessor target being received and smoothed (CoprocessorTargetClient, TargetEstimator), everything being
+ * published to the dashboard (TelemetryPublisher, and the publishDataToSmartDash() methods that go through it),
+ * the signal log, and the loop profiler. After WARMUP_LOOPS loops (so every dashboard entry exists, and the code
+ * has been compiled), it counts the bytes this thread allocates during each step of every loop.
+ * The loop runs as fast as it can, but on a simulated clock that moves 20 ms per loop,
+ * so everything that only happens every so often (timeouts, once a second reports, etc.) happens as often as it would on the robot.
+ *
+ * If anything allocates in more than MAX_ONE_OFF_ALLOCATIONS loops, it prints which steps did, and exits with code 1.
+ * (A handful are allowed, since code that hasn't been fully compiled yet can allocate a few hundred bytes once.
+ * On the desktop JVM, the atomics and ByteBuffers box things until they're compiled, and rarely used code,
+ * like keeping one of the LoopProfiler's slowest loops, may never be. That garbage doesn't come back every loop.)
+ *
+ * The NetworkTables flush is only included if the ntcore native library can be loaded (it can on the RIO),
+ * and the ImageProcessor's publishDataToSmartDash() only if the opencv one can.
+ *
+ * --robot also runs the real Robot: robotInit() once, then teleopPeriodic() and robotPeriodic() every loop,
+ * which covers the drive, intake, winch and shooter code, and every subsystem's publishDataToSmartDash() and logData().
+ * Every so often, tuning mode is turned on (see Robot.setTuningMode()), and each of the 4 tuning modes gets a turn,
+ * so runTuningCode() is checked too. That needs the HAL (the motor controllers, encoders, etc.), so it only works
+ * on the RIO itself. Stop the robot program first (the cameras can only be opened by one program at a time),
+ * and leave the robot disabled: with no driver station enabling it, none of the motors actually move.
+ * Tuning modes 2 and 3 wait for a new frame from the turretCam every loop, so this takes several minutes.
+ */
+public class AllocationBudgetCheck {
+
+  private static final int WARMUP_LOOPS = 50000;
+  private static final int CHECKED_LOOPS = 50000;
+  private static final int CALIBRATION_MEASUREMENTS = 1000;
+  private static final double LOOP_PERIOD_SECONDS = 0.02;
+  private static final int MAX_ONE_OFF_ALLOCATIONS = 5;
+
+  private static final int TUNING_PHASE_LOOPS = 500; // how long each tuning mode (and teleop in between) runs for
+
+  private static final String[] STEPS = {"Coprocessor target (both sides)", "Target estimator",
+      "Dashboard publishing", "Signal log", "Loop profiler", "Vision dashboard (ImageProcessor)",
+      "Robot teleop loop", "Robot tuning loop"};
+  private static final int COPROCESSOR_STEP = 0;
+  private static final int ESTIMATOR_STEP = 1;
+  private static final int PUBLISHING_STEP = 2;
+  private static final int SIGNAL_LOG_STEP = 3;
+  private static final int PROFILER_STEP = 4;
+  private static final int VISION_DASHBOARD_STEP = 5;
+  private static final int ROBOT_TELEOP_STEP = 6;
+  private static final int ROBOT_TUNING_STEP = 7;
+
+  // (com.sun.management's ThreadMXBean can count the bytes a thread allocates, the java.lang.management one can't)
+  private static final com.sun.management.ThreadMXBean threadMXBean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  private static final long threadId = Thread.currentThread().getId();
+
+  /** A clock that only moves when it's told to. */
+  private static class SimulatedTimer extends DesktopTimer {
+    private volatile double now = 0;
+
+    @Override
+    public double getFPGATimestamp() {
+      return now;
+    }
+  }
+  private static SimulatedTimer clock = new SimulatedTimer();
+
+  // the simulated robot
+  private static TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
+  private static SignalLogger signalLog = SignalLogger.getInstance();
+  private static LoopProfiler loopProfiler = new LoopProfiler(STEPS, LOOP_PERIOD_SECONDS);
+  private static TargetEstimator estimator = new TargetEstimator();
+  private static TargetPublisher coprocessor;
+  private static CoprocessorTargetClient client;
+  private static Target syntheticTarget = new Target();
+  private static Target target = new Target();
+  private static boolean haveNetworkTables;
+  private static int[] signals = new int[6];
+  private static ImageProcessor imgProcessor; // (null without opencv)
+  private static Robot robot; // (null without --robot)
+
+  // results
+  private static long baselineBytes = 0;
+  private static long[] bytesPerStep = new long[STEPS.length];
+  private static boolean[] stepRan = new boolean[STEPS.length];
+  private static int failures = 0;
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (!threadMXBean.isThreadAllocatedMemorySupported()) {
+      System.out.println("This JVM can't count allocated bytes, so there's nothing to check");
+      return;
+    }
+    boolean runRobot = args.length > 0 && args[0].equals("--robot");
+    Timer.SetImplementation(clock);
+    haveNetworkTables = canLoadNetworkTables();
+    if (canLoadOpenCV()) {
+      imgProcessor = ImageProcessor.getInstance();
+    }
+    if (runRobot) {
+      if (!HAL.initialize(500, 0)) {
+        System.out.println("Couldn't start the HAL (--robot only works on the RIO, with the robot program stopped)");
+        System.exit(1);
+      }
+      robot = new Robot();
+      robot.robotInit();
+    }
+    setUp();
+
+    for (int loop = 0; loop < WARMUP_LOOPS; loop++) {
+      runLoop(loop, false);
+    }
+    calibrate();
+    for (int loop = WARMUP_LOOPS; loop < WARMUP_LOOPS + CHECKED_LOOPS; loop++) {
+      runLoop(loop, true);
+    }
+
+    System.out.printf("Checked %d loops (after %d warmup loops)%s%n", CHECKED_LOOPS, WARMUP_LOOPS,
+                      haveNetworkTables ? "" : ", without the NetworkTables flush (no ntcore native library)");
+    for (int i = 0; i < STEPS.length; i++) {
+      if (stepRan[i]) {
+        System.out.printf("  %-34s %10d bytes allocated%n", STEPS[i], bytesPerStep[i]);
+      } else {
+        System.out.printf("  %-34s    skipped (%s)%n", STEPS[i], 
+                          (i == VISION_DASHBOARD_STEP) ? "no opencv native library" : "run with --robot on the RIO");
+      }
+    }
+    if (failures > MAX_ONE_OFF_ALLOCATIONS) {
+      System.out.println("FAILED: steps allocated memory in " + failures + " loops after warming up");
+      System.exit(1);
+    }
+    if (failures > 0) {
+      System.out.println("PASSED: only " + failures + " one-off allocations (see above)");
+    } else {
+      System.out.println("PASSED: nothing was allocated");
+    }
+    System.exit(0);
+  }
+
+  private static boolean canLoadNetworkTables() {
+    try {
+      NetworkTableInstance.getDefault();
+      return true;
+    } catch (UnsatisfiedLinkError | ExceptionInInitializerError | NoClassDefFoundError e) {
+      return false;
+    }
+  }
+
+  private static boolean canLoadOpenCV() {
+    try {
+      System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+      return true;
+    } catch (UnsatisfiedLinkError e) {
+      return false;
+    }
+  }
+
+  private static void setUp() throws IOException {
+    File sharedFile = File.createTempFile("visionTarget", null);
+    sharedFile.deleteOnExit();
+    coprocessor = TargetPublisher.overSharedFile(sharedFile);
+    client = CoprocessorTargetClient.overSharedFile(sharedFile);
+    client.start();
+
+    File logFile = File.createTempFile("signals", ".bin");
+    logFile.deleteOnExit();
+    new File(logFile.getPath() + ".previous").deleteOnExit();
+    String[] signalNames = {"Target Found", "Target Error X", "Target Distance", "Estimated Bearing",
+                            "Estimated Distance", "Estimate Confidence"};
+    for (int i = 0; i < signals.length; i++) {
+      signals[i] = signalLog.addSignal(signalNames[i], (i == 0) ? SignalLogger.TYPE_BOOLEAN : SignalLogger.TYPE_FLOAT);
+    }
+    signalLog.open(logFile);
+  }
+
+  /**
+   * Finds how many bytes measuring allocations allocates by itself
+   * (nothing on newer JVMs, but Java 8 makes a small array every time).
+   */
+  private static void calibrate() {
+    for (int i = 0; i < CALIBRATION_MEASUREMENTS; i++) {
+      long before = threadMXBean.getThreadAllocatedBytes(threadId);
+      long after = threadMXBean.getThreadAllocatedBytes(threadId);
+      baselineBytes = Math.max(baselineBytes, after - before);
+    }
+  }
+
+  /** Runs one loop of the simulated robot. If check is true, the bytes allocated by each step are counted. */
+  private static void runLoop(int loop, boolean check) {
+    clock.now = loop * LOOP_PERIOD_SECONDS;
+    double now = Timer.getFPGATimestamp();
+    loopProfiler.startLoop();
+
+    // a target that sweeps back and forth, and is lost every so often
+    long before = threadMXBean.getThreadAllocatedBytes(threadId);
+    boolean found = loop % 100 >= 10;
+    syntheticTarget.set(loop, now, found, found ? 10 * Math.sin(loop / 50.0) : 0, 0, found ? 1.5 : 0, 0, 0);
+    coprocessor.publish(syntheticTarget, now);
+    client.getCurrentTarget(target);
+    endStep(COPROCESSOR_STEP, loop, before, check);
+
+    before = threadMXBean.getThreadAllocatedBytes(threadId);
+    estimator.update(target, 0, now);
+    endStep(ESTIMATOR_STEP, loop, before, check);
+
+    before = threadMXBean.getThreadAllocatedBytes(threadId);
+    estimator.publishDataToSmartDash(now);
+    client.publishDataToSmartDash();
+    MatTracker.publishDataToSmartDash();
+    loopProfiler.publishDataToSmartDash();
+    telemetry.putBoolean("Tuning Mode Active", false);
+    telemetry.publishDataToSmartDash();
+    if (haveNetworkTables) {
+      telemetry.flushIfDue();
+    }
+    endStep(PUBLISHING_STEP, loop, before, check);
+
+    before = threadMXBean.getThreadAllocatedBytes(threadId);
+    signalLog.record(signals[0], target.isFound());
+    signalLog.record(signals[1], target.getErrorInDegreesX());
+    signalLog.record(signals[2], target.getHorizontalDistance());
+    signalLog.record(signals[3], estimator.getBearing(now));
+    signalLog.record(signals[4], estimator.getDistance(now));
+    signalLog.record(signals[5], estimator.getConfidence(now));
+    signalLog.writeRecord(now);
+    endStep(SIGNAL_LOG_STEP, loop, before, check);
+
+    if (imgProcessor != null) {
+      before = threadMXBean.getThreadAllocatedBytes(threadId);
+      imgProcessor.publishDataToSmartDash();
+      VisionWorker.getInstance().publishDataToSmartDash();
+      endStep(VISION_DASHBOARD_STEP, loop, before, check);
+    }
+
+    if (robot != null) {
+      // teleop for a while, then each tuning mode for a while, over and over
+      int phase = (loop / TUNING_PHASE_LOOPS) % 5;
+      boolean tuning = phase > 0;
+      robot.setTuningMode(tuning, tuning ? phase - 1 : 0);
+      before = threadMXBean.getThreadAllocatedBytes(threadId);
+      robot.teleopPeriodic();
+      robot.robotPeriodic();
+      endStep(tuning ? ROBOT_TUNING_STEP : ROBOT_TELEOP_STEP, loop, before, check);
+    }
+
+    before = threadMXBean.getThreadAllocatedBytes(threadId);
+    loopProfiler.endLoop();
+    endStep(PROFILER_STEP, loop, before, check);
+  }
+
+  private static void endStep(int step, int loop, long allocatedBefore, boolean check) {
+    long bytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore - baselineBytes;
+    loopProfiler.endSection(step);
+    stepRan[step] = true;
+    if (!check || bytes <= 0) {
+      return;
+    }
+    bytesPerStep[step] += bytes;
+    failures++;
+    if (failures <= 2 * MAX_ONE_OFF_ALLOCATIONS) {
+      System.out.printf("Loop %d: %s allocated %d bytes%n", loop, STEPS[step], bytes);
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package org.usfirst.frc.team1787.robot.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point3;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.usfirst.frc.team1787.robot.vision.CameraController;
+import org.usfirst.frc.team1787.robot.vision.CameraModel;
+import org.usfirst.frc.team1787.robot.vision.Target;
+
+/**
+ * A command line program that measures the turretCam's lens (see CameraModel),
+ * so the vision code doesn't have to rely on the estimate from the data sheet.
+ *
+ * Print out a chessboard, tape it to something flat, and take 15-20 pictures of it with the turretCam
+ * at the same resolution the robot uses, from different angles and distances,
+ * and with the board in different parts of the image (especially the corners, where the lens distorts the most).
+ * This finds the inside corners of the board in each picture, and uses OpenCV's calibrateCamera() to work out
+ * the focal length, center, and distortion of the lens that would put them where they are.
+ *
+ * The result is saved to a file (see CameraModel.save()). Copy it to
+ * CameraController.TURRET_CAM_MODEL_FILE_PATH on the RIO, and the robot will use it when it starts up.
+ * Run it like this:
+ *
+ * java -Djava.library.path=[folder with the opencv native library] -cp [classpath]
+ *      org.usfirst.frc.team1787.robot.tools.CameraCalibrator [folder of chessboard pictures] [options]
+ *
+ * Options:
+ * --board [columns]x[rows] the number of inside corners on the chessboard (default 9x6)
+ * --out [file]             where to save the model (default turretCamModel.properties)
+ */
+public class CameraCalibrator {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.out.println("Usage: CameraCalibrator [folder of chessboard pictures] [--board columnsxrows] [--out file]");
+      return;
+    }
+
+    Size boardSize = new Size(9, 6);
+    File outputFile = new File("turretCamModel.properties");
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("--board")) {
+        String[] parts = args[++i].split("x");
+        boardSize = new Size(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+      } else if (args[i].equals("--out")) {
+        outputFile = new File(args[++i]);
+      } else {
+        System.out.println("Unknown option: " + args[i]);
+        return;
+      }
+    }
+
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+    File[] files = new File(args[0]).listFiles((dir, name) -> name.endsWith(".png") || name.endsWith(".jpg"));
+    if (files == null || files.length == 0) {
+      System.out.println("No .png or .jpg pictures in " + args[0]);
+      return;
+    }
+    Arrays.sort(files);
+
+    // where the corners really are on the board (in squares). The size of the squares doesn't matter for the lens.
+    MatOfPoint3f boardCorners = new MatOfPoint3f();
+    Point3[] corners = new Point3[(int) (boardSize.width * boardSize.height)];
+    for (int row = 0; row < boardSize.height; row++) {
+      for (int column = 0; column < boardSize.width; column++) {
+        corners[(int) (row * boardSize.width + column)] = new Point3(column, row, 0);
+      }
+    }
+    boardCorners.fromArray(corners);
+
+    ArrayList<Mat> objectPoints = new ArrayList<Mat>();
+    ArrayList<Mat> imagePoints = new ArrayList<Mat>();
+    Mat gray = new Mat();
+    Size imageSize = null;
+    TermCriteria subPixelCriteria = new TermCriteria(TermCriteria.EPS + TermCriteria.MAX_ITER, 30, 0.01);
+    for (File file : files) {
+      Mat picture = Imgcodecs.imread(file.getPath());
+      if (picture.empty()) {
+        System.out.println("Skipping " + file.getName() + " (couldn't read it)");
+        continue;
+      }
+      if (imageSize == null) {
+        imageSize = picture.size();
+      } else if (!imageSize.equals(picture.size())) {
+        System.out.println("Skipping " + file.getName() + " (it's a different size than the other pictures)");
+        picture.release();
+        continue;
+      }
+
+      Imgproc.cvtColor(picture, gray, Imgproc.COLOR_BGR2GRAY);
+      MatOfPoint2f foundCorners = new MatOfPoint2f();
+      if (Calib3d.findChessboardCorners(gray, boardSize, foundCorners)) {
+        // the corners are found to the nearest pixel, then refined to a fraction of a pixel.
+        Imgproc.cornerSubPix(gray, foundCorners, new Size(5, 5), new Size(-1, -1), subPixelCriteria);
+        objectPoints.add(boardCorners);
+        imagePoints.add(foundCorners);
+        System.out.println("Found the board in " + file.getName());
+      } else {
+        System.out.println("Couldn't find the board in " + file.getName());
+        foundCorners.release();
+      }
+      picture.release();
+    }
+
+    if (imagePoints.size() < 3) {
+      System.out.println("Found the board in " + imagePoints.size() + " pictures, but at least 3 are needed (15-20 is better).");
+      return;
+    }
+
+    Mat cameraMatrix = new Mat();
+    Mat distortionCoefficients = new Mat();
+    ArrayList<Mat> rotations = new ArrayList<Mat>();
+    ArrayList<Mat> translations = new ArrayList<Mat>();
+    double reprojectionError = Calib3d.calibrateCamera(objectPoints, imagePoints, imageSize, cameraMatrix,
+                                                       distortionCoefficients, rotations, translations);
+
+    double[] distortion = new double[5];
+    for (int i = 0; i < Math.min(distortion.length, distortionCoefficients.total()); i++) {
+      distortion[i] = distortionCoefficients.get(0, i)[0];
+    }
+    CameraModel model = new CameraModel((int) imageSize.width, (int) imageSize.height,
+                                        cameraMatrix.get(0, 0)[0], cameraMatrix.get(1, 1)[0],
+                                        cameraMatrix.get(0, 2)[0], cameraMatrix.get(1, 2)[0],
+                                        distortion, CameraController.TURRET_CAM_ANGLE_FROM_FLOOR_DEGREES,
+                                        Target.CAM_TO_TARGET_VERTICAL_DISTANCE);
+
+    System.out.println();
+    System.out.printf("Used %d of %d pictures%n", imagePoints.size(), files.length);
+    // under about half a pixel is a good calibration. Much more than that means some of the corners were found wrong.
+    System.out.printf("Reprojection error: %.3f pixels%n", reprojectionError);
+    System.out.printf("fx = %.2f, fy = %.2f, cx = %.2f, cy = %.2f%n", cameraMatrix.get(0, 0)[0],
+        cameraMatrix.get(1, 1)[0], cameraMatrix.get(0, 2)[0], cameraMatrix.get(1, 2)[0]);
+    System.out.printf("k1 = %.4f, k2 = %.4f, p1 = %.4f, p2 = %.4f, k3 = %.4f%n",
+        distortion[0], distortion[1], distortion[2], distortion[3], distortion[4]);
+    System.out.printf("Horizontal FOV: %.2f degrees (the estimate from the data sheet was %.2f)%n",
+        model.getHorizontalFOVDegrees(), CameraController.getTurretCamModel().getHorizontalFOVDegrees());
+    if (imageSize.width != CameraController.IMAGE_WIDTH_PIXELS || imageSize.height != CameraController.IMAGE_HEIGHT_PIXELS) {
+      // (CameraModel.load() scales the model to the robot's resolution, or rejects it if the shape is different)
+      System.out.printf("Warning: the pictures are %dx%d, but the robot uses %dx%d. The model will be scaled when the robot "
+          + "loads it, which is only right if the camera shrinks the whole picture instead of cropping it. "
+          + "Re-take them at the robot's resolution to be sure.%n",
+          (int) imageSize.width, (int) imageSize.height,
+          CameraController.IMAGE_WIDTH_PIXELS, CameraController.IMAGE_HEIGHT_PIXELS);
+    }
+
+    model.save(outputFile, String.format("from CameraCalibrator: %d pictures, reprojection error = %.3f pixels",
+                                         imagePoints.size(), reprojectionError));
+    System.out.println();
+    System.out.println("Saved the model to " + outputFile.getPath()
+                       + " (copy it to " + CameraController.TURRET_CAM_MODEL_FILE_PATH + " on the RIO)");
+  }
+}
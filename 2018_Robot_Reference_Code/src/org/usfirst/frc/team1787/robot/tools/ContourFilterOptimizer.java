@@ -0,0 +1,225 @@
+package org.usfirst.frc.team1787.robot.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.imgproc.Imgproc;
+import org.usfirst.frc.team1787.robot.vision.ContourDescriptor;
+import org.usfirst.frc.team1787.robot.vision.ImageProcessor;
+
+/**
+ * A command line program that finds good contour filter parameters (minArea, minShapeScore, and maxShapeScore)
+ * for the vision pipeline, instead of tuning them by eye in tuningMode 3.
+ *
+ * Every frame in a set of labeled frames (see LabeledFrameSet) is HSV filtered and searched for contours
+ * exactly once, and the measurements of every contour are kept. After that, trying a combination of parameters
+ * only means running the filters on those measurements, which is fast enough to try every combination on a grid.
+ * The combinations are scored in parallel on all of the computer's cores.
+ *
+ * Each combination is scored on:
+ * accuracy = how many frames getStrongestCandidate() got right (it picked the target, or picked nothing when there wasn't one)
+ * contours kept = how many contours per frame pass both passesAreaTest() and passesShapeTest()
+ *                 (fewer means the filters are doing more of the work, and less junk shows up while tuning)
+ *
+ * There's usually a trade-off between the two, so instead of a single winner, the "Pareto front" is printed:
+ * every combination that no other combination beats on both accuracy and contours kept.
+ * Run it like this:
+ *
+ * java -Djava.library.path=[folder with the opencv native library] -cp [classpath]
+ *      org.usfirst.frc.team1787.robot.tools.ContourFilterOptimizer [folder of labeled frames] [options]
+ *
+ * Options (each range is [first]:[last]:[step]):
+ * --area [range]      minArea values to try (default 0:300:10)
+ * --min-score [range] minShapeScore values to try (default 0.3:1.2:0.05)
+ * --max-score [range] maxShapeScore values to try (default 1.0:4.0:0.1)
+ * --bounds [file]     HSV bounds to filter with (see HsvSweepTuner). The ImageProcessor's defaults are used otherwise.
+ */
+public class ContourFilterOptimizer {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.out.println("Usage: ContourFilterOptimizer [folder of labeled frames] [--area first:last:step] "
+                         + "[--min-score first:last:step] [--max-score first:last:step] [--bounds file]");
+      return;
+    }
+
+    double[] minAreas = parseRange("0:300:10");
+    double[] minScores = parseRange("0.3:1.2:0.05");
+    double[] maxScores = parseRange("1.0:4.0:0.1");
+    File boundsFile = null;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("--area")) {
+        minAreas = parseRange(args[++i]);
+      } else if (args[i].equals("--min-score")) {
+        minScores = parseRange(args[++i]);
+      } else if (args[i].equals("--max-score")) {
+        maxScores = parseRange(args[++i]);
+      } else if (args[i].equals("--bounds")) {
+        boundsFile = new File(args[++i]);
+      } else {
+        System.out.println("Unknown option: " + args[i]);
+        return;
+      }
+    }
+
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    ImageProcessor imgProcessor = ImageProcessor.getInstance();
+    if (boundsFile != null && !imgProcessor.loadHSVBounds(boundsFile)) {
+      return;
+    }
+
+    LabeledFrameSet frameSet = new LabeledFrameSet(new File(args[0]));
+    System.out.printf("Loaded %d labeled frames (%d with the target in them)%n", frameSet.size(), frameSet.getNumOfTargets());
+
+    ArrayList<ArrayList<ContourDescriptor>> cachedContours = findAndMeasureContours(frameSet, imgProcessor);
+
+    FilterResult[] results = makeCombinations(minAreas, minScores, maxScores);
+    System.out.printf("Trying %d combinations of filter parameters...%n", results.length);
+    long startTime = System.nanoTime();
+    IntStream.range(0, results.length).parallel()
+             .forEach(i -> score(results[i], frameSet, cachedContours, imgProcessor));
+    System.out.printf("Done in %.2f seconds%n%n", (System.nanoTime() - startTime) / 1e9);
+
+    printParetoFront(results);
+  }
+
+  /**
+   * Segments every frame once, using the ImageProcessor's HSV bounds.
+   * @return The measurements of every contour in each frame. The contours themselves are released,
+   * so only the measurements can be used (which is all the filters need).
+   */
+  private static ArrayList<ArrayList<ContourDescriptor>> findAndMeasureContours(LabeledFrameSet frameSet,
+                                                                               ImageProcessor imgProcessor) {
+    ArrayList<ArrayList<ContourDescriptor>> cachedContours = new ArrayList<ArrayList<ContourDescriptor>>();
+    Mat hsvFrame = new Mat();
+    Mat mask = new Mat();
+    Mat hierarchy = new Mat();
+    ArrayList<MatOfPoint> contours = new ArrayList<MatOfPoint>();
+    int totalContours = 0;
+
+    for (int i = 0; i < frameSet.size(); i++) {
+      Imgproc.cvtColor(frameSet.getFrame(i), hsvFrame, Imgproc.COLOR_BGR2HSV);
+      Core.inRange(hsvFrame, imgProcessor.getHSVLowerBounds(), imgProcessor.getHSVUpperBounds(), mask);
+      contours.clear();
+      Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+
+      ArrayList<ContourDescriptor> descriptors = new ArrayList<ContourDescriptor>();
+      for (int c = 0; c < contours.size(); c++) {
+        descriptors.add(new ContourDescriptor().measure(contours.get(c)));
+        contours.get(c).release();
+      }
+      cachedContours.add(descriptors);
+      totalContours += descriptors.size();
+    }
+    System.out.printf("Found %d contours (%.1f per frame)%n", totalContours, totalContours / (double) frameSet.size());
+
+    hsvFrame.release();
+    mask.release();
+    hierarchy.release();
+    return cachedContours;
+  }
+
+  /** Runs the filters on the cached contours of every frame. Only reads the shared data, so it's safe to run in parallel. */
+  private static void score(FilterResult result, LabeledFrameSet frameSet,
+                            ArrayList<ArrayList<ContourDescriptor>> cachedContours, ImageProcessor imgProcessor) {
+    for (int i = 0; i < cachedContours.size(); i++) {
+      ArrayList<ContourDescriptor> descriptors = cachedContours.get(i);
+      for (int c = 0; c < descriptors.size(); c++) {
+        ContourDescriptor descriptor = descriptors.get(c);
+        if (imgProcessor.passesAreaTest(descriptor, result.minArea)
+            && imgProcessor.passesShapeTest(descriptor, result.minScore, result.maxScore)) {
+          result.contoursKept++;
+        }
+      }
+
+      ContourDescriptor chosen = imgProcessor.getStrongestCandidate(descriptors, result.minArea,
+                                                                    result.minScore, result.maxScore);
+      if (frameSet.isCorrect(i, chosen)) {
+        result.correctFrames++;
+      }
+    }
+    result.numOfFrames = cachedContours.size();
+  }
+
+  /** Prints every result that isn't beaten on both accuracy and contours kept by another result. */
+  private static void printParetoFront(FilterResult[] results) {
+    // sorted by fewest contours kept, then best accuracy, then the widest (least picky) parameters
+    Arrays.sort(results, Comparator.comparingLong((FilterResult r) -> r.contoursKept)
+                                   .thenComparing(Comparator.comparingInt((FilterResult r) -> r.correctFrames).reversed())
+                                   .thenComparingDouble(r -> r.minArea)
+                                   .thenComparingDouble(r -> r.minScore)
+                                   .thenComparing(Comparator.comparingDouble((FilterResult r) -> r.maxScore).reversed()));
+
+    System.out.println("Pareto front (accuracy vs. contours kept):");
+    System.out.println("minArea  minShapeScore  maxShapeScore   accuracy  contours kept/frame");
+    int bestCorrectFrames = -1;
+    for (FilterResult r : results) {
+      // going from fewest contours kept to most, a result is only worth listing if it's more accurate than everything before it.
+      if (r.correctFrames > bestCorrectFrames) {
+        bestCorrectFrames = r.correctFrames;
+        System.out.printf("%7.1f  %13.2f  %13.2f   %8.3f  %19.2f%n", r.minArea, r.minScore, r.maxScore,
+            r.getAccuracy(), r.getContoursKeptPerFrame());
+      }
+    }
+  }
+
+  /** Turns "first:last:step" into the list of values {first, first + step, ..., last}. */
+  private static double[] parseRange(String range) {
+    String[] parts = range.split(":");
+    double first = Double.parseDouble(parts[0]);
+    double last = Double.parseDouble(parts[1]);
+    double step = (parts.length > 2) ? Double.parseDouble(parts[2]) : 1;
+    // (the small fudge factor keeps rounding errors from leaving out the last value)
+    int numOfValues = (int) Math.floor((last - first) / step + 1e-9) + 1;
+    double[] values = new double[numOfValues];
+    for (int i = 0; i < numOfValues; i++) {
+      values[i] = first + i * step;
+    }
+    return values;
+  }
+
+  private static FilterResult[] makeCombinations(double[] minAreas, double[] minScores, double[] maxScores) {
+    ArrayList<FilterResult> combinations = new ArrayList<FilterResult>();
+    for (double minArea : minAreas) {
+      for (double minScore : minScores) {
+        for (double maxScore : maxScores) {
+          if (maxScore > minScore) {
+            combinations.add(new FilterResult(minArea, minScore, maxScore));
+          }
+        }
+      }
+    }
+    return combinations.toArray(new FilterResult[combinations.size()]);
+  }
+
+  /** How well one combination of filter parameters did. */
+  private static class FilterResult {
+    final double minArea;
+    final double minScore;
+    final double maxScore;
+    int numOfFrames = 0;
+    int correctFrames = 0;
+    long contoursKept = 0;
+
+    FilterResult(double minArea, double minScore, double maxScore) {
+      this.minArea = minArea;
+      this.minScore = minScore;
+      this.maxScore = maxScore;
+    }
+
+    double getAccuracy() {
+      return (numOfFrames > 0) ? correctFrames / (double) numOfFrames : 0;
+    }
+
+    double getContoursKeptPerFrame() {
+      return (numOfFrames > 0) ? contoursKept / (double) numOfFrames : 0;
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package org.usfirst.frc.team1787.robot.tools;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.usfirst.frc.team1787.robot.vision.CoprocessorTargetClient;
+import org.usfirst.frc.team1787.robot.vision.Target;
+
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * A command line program that plays the robot's side of the coprocessor link: it runs the same
+ * CoprocessorTargetClient the robot does, and prints what it's getting once a second.
+ * Use it with the VisionCoprocessor tool to test the link on one computer, or on a laptop plugged into the
+ * robot's network to check on a real coprocessor (stop the robot program first, since it's using the port).
+ * Run it like this:
+ *
+ * java -cp [classpath] org.usfirst.frc.team1787.robot.tools.CoprocessorMonitor [options]
+ *
+ * Options:
+ * --port [number]  the UDP port to listen on (default 5801)
+ * --shm [file]     read the targets from a shared file instead
+ */
+public class CoprocessorMonitor {
+
+  private static final long PRINT_PERIOD_MILLIS = 1000;
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int port = CoprocessorTargetClient.DEFAULT_PORT;
+    File sharedFile = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--port")) {
+        port = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("--shm")) {
+        sharedFile = new File(args[++i]);
+      } else {
+        System.out.println("Unknown option: " + args[i]);
+        return;
+      }
+    }
+
+    Timer.SetImplementation(new DesktopTimer());
+    CoprocessorTargetClient client;
+    if (sharedFile != null) {
+      client = CoprocessorTargetClient.overSharedFile(sharedFile);
+      System.out.println("Reading targets from " + sharedFile);
+    } else {
+      client = CoprocessorTargetClient.overUdp(port);
+      System.out.println("Listening for targets on port " + port);
+    }
+    client.start();
+
+    int lastPacketsReceived = 0;
+    while (true) {
+      Thread.sleep(PRINT_PERIOD_MILLIS);
+      Target target = client.getCurrentTarget();
+      int packetsReceived = client.getPacketsReceived();
+      System.out.printf("connected = %b, packets/second = %d, lost = %d, rejected = %d | found = %b, "
+          + "errorX = %.2f, errorY = %.2f, distance = %.2f, confidence = %.1f, age = %.1f ms%n",
+          client.isConnected(), packetsReceived - lastPacketsReceived, client.getPacketsLost(),
+          client.getPacketsRejected(), target.isFound(), target.getErrorInDegreesX(), target.getErrorInDegreesY(),
+          target.getHorizontalDistance(), client.getConfidence(), target.getAge() * 1e3);
+      lastPacketsReceived = packetsReceived;
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package org.usfirst.frc.team1787.robot.tools;
+
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Lets WPILib's Timer work on a regular computer, where there's no FPGA to get the time from.
+ * Call Timer.SetImplementation(new DesktopTimer()) before using anything that calls Timer.getFPGATimestamp().
+ * (This does the same job as HardwareTimer does on the RIO.)
+ */
+public class DesktopTimer implements Timer.StaticInterface {
+  
+  private final long startTime = System.nanoTime();
+  
+  @Override
+  public double getFPGATimestamp() {
+    return (System.nanoTime() - startTime) / 1e9;
+  }
+  
+  @Override
+  public double getMatchTime() {
+    // there's never a match going on when running on a computer
+    return -1;
+  }
+  
+  @Override
+  public void delay(double seconds) {
+    try {
+      Thread.sleep((long) (seconds * 1e3));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  @Override
+  public Timer.Interface newTimer() {
+    return new StopwatchTimer();
+  }
+  
+  /** A basic stopwatch, which is all a Timer instance really is. */
+  private class StopwatchTimer implements Timer.Interface {
+    private double accumulatedTime = 0;
+    private double startTime = 0;
+    private boolean running = false;
+    
+    @Override
+    public synchronized double get() {
+      return running ? accumulatedTime + (getFPGATimestamp() - startTime) : accumulatedTime;
+    }
+    
+    @Override
+    public synchronized void reset() {
+      accumulatedTime = 0;
+      startTime = getFPGATimestamp();
+    }
+    
+    @Override
+    public synchronized void start() {
+      startTime = getFPGATimestamp();
+      running = true;
+    }
+    
+    @Override
+    public synchronized void stop() {
+      accumulatedTime = get();
+      running = false;
+    }
+    
+    @Override
+    public synchronized boolean hasPeriodPassed(double period) {
+      if (get() > period) {
+        // advance the start time by the period, so that the timer doesn't drift
+        startTime += period;
+        return true;
+      }
+      return false;
+    }
+  }
+}
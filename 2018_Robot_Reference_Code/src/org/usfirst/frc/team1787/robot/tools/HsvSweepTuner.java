@@ -0,0 +1,298 @@
+package org.usfirst.frc.team1787.robot.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.usfirst.frc.team1787.robot.vision.ContourDescriptor;
+import org.usfirst.frc.team1787.robot.vision.ImageProcessor;
+
+/**
+ * A command line program that finds good HSV bounds for the vision pipeline,
+ * instead of nudging hMin, sMin, etc. by hand in tuningMode 2.
+ *
+ * Every combination of bounds on a grid is tried on a set of labeled frames (see LabeledFrameSet).
+ * For each combination, the frames are filtered, the contours are found, and the ImageProcessor's own
+ * getStrongestCandidate() picks the target, exactly like on the robot. Then the choices are checked against the labels:
+ *
+ * precision = how many of the contours it picked were actually the target
+ * recall = how many of the targets it found
+ * mask cost = how much of each frame passed the filter (every white pixel is more work for findContours())
+ *
+ * The combinations are ranked by F1 score (a mix of precision and recall), and ties go to the one with the lower mask cost.
+ * The combinations are split up between all of the computer's cores with a ForkJoinPool,
+ * and each frame is only converted to HSV once, no matter how many combinations are tried.
+ *
+ * The best bounds are saved to a file (see ImageProcessor.saveHSVBounds()). Copy it to
+ * ImageProcessor.HSV_BOUNDS_FILE_PATH on the RIO, and the robot will use those bounds when it starts up.
+ * Run it like this:
+ *
+ * java -Djava.library.path=[folder with the opencv native library] -cp [classpath]
+ *      org.usfirst.frc.team1787.robot.tools.HsvSweepTuner [folder of labeled frames] [options]
+ *
+ * Options (each range is [first]:[last]:[step], always includes [last], and is used for both the min and the max of that channel):
+ * --h [range]    hue values to try (default 60:105:5)
+ * --s [range]    saturation values to try (default 100:255:25)
+ * --v [range]    value values to try (default 0:255:30)
+ * --top [number] how many of the best combinations to print (default 10)
+ * --out [file]   where to save the best bounds (default hsvBounds.properties)
+ */
+public class HsvSweepTuner {
+
+  // how many combinations each fork-join task checks before it stops splitting itself up
+  private static final int COMBINATIONS_PER_TASK = 8;
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.out.println("Usage: HsvSweepTuner [folder of labeled frames] [--h first:last:step] [--s first:last:step] "
+                         + "[--v first:last:step] [--top number] [--out file]");
+      return;
+    }
+
+    int[] hueValues = parseRange("60:105:5");
+    int[] saturationValues = parseRange("100:255:25");
+    int[] valueValues = parseRange("0:255:30");
+    int numToPrint = 10;
+    File outputFile = new File("hsvBounds.properties");
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("--h")) {
+        hueValues = parseRange(args[++i]);
+      } else if (args[i].equals("--s")) {
+        saturationValues = parseRange(args[++i]);
+      } else if (args[i].equals("--v")) {
+        valueValues = parseRange(args[++i]);
+      } else if (args[i].equals("--top")) {
+        numToPrint = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("--out")) {
+        outputFile = new File(args[++i]);
+      } else {
+        System.out.println("Unknown option: " + args[i]);
+        return;
+      }
+    }
+
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+    LabeledFrameSet frameSet = new LabeledFrameSet(new File(args[0]));
+    System.out.printf("Loaded %d labeled frames (%d with the target in them)%n", frameSet.size(), frameSet.getNumOfTargets());
+
+    // every frame is converted to HSV once, up front. The HSV frames are only ever read after this.
+    Mat[] hsvFrames = new Mat[frameSet.size()];
+    for (int i = 0; i < frameSet.size(); i++) {
+      hsvFrames[i] = new Mat();
+      Imgproc.cvtColor(frameSet.getFrame(i), hsvFrames[i], Imgproc.COLOR_BGR2HSV);
+    }
+
+    SweepResult[] results = makeCombinations(hueValues, saturationValues, valueValues);
+    System.out.printf("Trying %d combinations of bounds on %d cores...%n",
+        results.length, ForkJoinPool.commonPool().getParallelism());
+
+    long startTime = System.nanoTime();
+    ForkJoinPool.commonPool().invoke(new SweepTask(results, 0, results.length, frameSet, hsvFrames));
+    double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+    System.out.printf("Done in %.1f seconds%n%n", elapsedSeconds);
+
+    Arrays.sort(results, Comparator.comparingDouble(SweepResult::getF1Score).reversed()
+                                   .thenComparingDouble(SweepResult::getMaskCost));
+
+    System.out.println("rank   hMin  sMin  vMin   hMax  sMax  vMax   precision  recall     F1  mask(%)  contours/frame");
+    for (int i = 0; i < Math.min(numToPrint, results.length); i++) {
+      SweepResult r = results[i];
+      System.out.printf("%4d   %4d  %4d  %4d   %4d  %4d  %4d   %9.3f  %6.3f  %5.3f  %7.2f  %14.2f%n", i + 1,
+          r.lower[0], r.lower[1], r.lower[2], r.upper[0], r.upper[1], r.upper[2],
+          r.getPrecision(), r.getRecall(), r.getF1Score(), 100 * r.getMaskCost(), r.getContoursPerFrame());
+    }
+
+    if (results.length > 0) {
+      SweepResult best = results[0];
+      ImageProcessor.saveHSVBounds(outputFile, best.getLowerBounds(), best.getUpperBounds(),
+          String.format("from HsvSweepTuner: precision = %.3f, recall = %.3f, on %d frames",
+              best.getPrecision(), best.getRecall(), frameSet.size()));
+      System.out.println();
+      System.out.println("Saved the best bounds to " + outputFile.getPath()
+                         + " (copy it to " + ImageProcessor.HSV_BOUNDS_FILE_PATH + " on the RIO)");
+    }
+  }
+
+  /**
+   * Turns "first:last:step" into the list of values {first, first + step, ..., last}.
+   * last is always in the list, even if the step doesn't land on it (i.e. 100:255:25 ends with 250, 255),
+   * since the last value is usually the top of the channel (255), which is where a lot of the best maxes are.
+   */
+  private static int[] parseRange(String range) {
+    String[] parts = range.split(":");
+    int first = Integer.parseInt(parts[0]);
+    int last = Integer.parseInt(parts[1]);
+    int step = (parts.length > 2) ? Integer.parseInt(parts[2]) : 1;
+    int steps = (last - first) / step;
+    boolean landsOnLast = (first + steps * step == last);
+    int[] values = new int[steps + (landsOnLast ? 1 : 2)];
+    for (int i = 0; i <= steps; i++) {
+      values[i] = first + i * step;
+    }
+    values[values.length - 1] = last;
+    return values;
+  }
+
+  /** @return A (not yet scored) result for every combination of bounds where each min is below its max. */
+  private static SweepResult[] makeCombinations(int[] hueValues, int[] saturationValues, int[] valueValues) {
+    ArrayList<SweepResult> combinations = new ArrayList<SweepResult>();
+    for (int hMin : hueValues) {
+      for (int hMax : hueValues) {
+        if (hMax <= hMin) continue;
+        for (int sMin : saturationValues) {
+          for (int sMax : saturationValues) {
+            if (sMax <= sMin) continue;
+            for (int vMin : valueValues) {
+              for (int vMax : valueValues) {
+                if (vMax <= vMin) continue;
+                combinations.add(new SweepResult(new int[] {hMin, sMin, vMin}, new int[] {hMax, sMax, vMax}));
+              }
+            }
+          }
+        }
+      }
+    }
+    return combinations.toArray(new SweepResult[combinations.size()]);
+  }
+
+  /** Scores a range of the combinations, splitting the range in half (and handing off half) until it's small enough. */
+  private static class SweepTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    // each thread gets its own buffers, which it reuses for every combination it scores.
+    private static final ThreadLocal<Scorer> scorers = ThreadLocal.withInitial(Scorer::new);
+
+    private final SweepResult[] results;
+    private final int start;
+    private final int end;
+    private final LabeledFrameSet frameSet;
+    private final Mat[] hsvFrames;
+
+    SweepTask(SweepResult[] results, int start, int end, LabeledFrameSet frameSet, Mat[] hsvFrames) {
+      this.results = results;
+      this.start = start;
+      this.end = end;
+      this.frameSet = frameSet;
+      this.hsvFrames = hsvFrames;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= COMBINATIONS_PER_TASK) {
+        Scorer scorer = scorers.get();
+        for (int i = start; i < end; i++) {
+          scorer.score(results[i], frameSet, hsvFrames);
+        }
+      } else {
+        int middle = (start + end) / 2;
+        invokeAll(new SweepTask(results, start, middle, frameSet, hsvFrames),
+                  new SweepTask(results, middle, end, frameSet, hsvFrames));
+      }
+    }
+  }
+
+  /** Runs the filter, finds contours, and picks a target, the same way the pipeline does. */
+  private static class Scorer {
+    private ImageProcessor imgProcessor = ImageProcessor.getInstance();
+    private Mat mask = new Mat();
+    private Mat hierarchy = new Mat();
+    private ArrayList<MatOfPoint> contours = new ArrayList<MatOfPoint>();
+    private ArrayList<ContourDescriptor> descriptorPool = new ArrayList<ContourDescriptor>();
+    private ArrayList<ContourDescriptor> descriptors = new ArrayList<ContourDescriptor>();
+
+    void score(SweepResult result, LabeledFrameSet frameSet, Mat[] hsvFrames) {
+      Scalar lowerBounds = result.getLowerBounds();
+      Scalar upperBounds = result.getUpperBounds();
+      for (int i = 0; i < hsvFrames.length; i++) {
+        Core.inRange(hsvFrames[i], lowerBounds, upperBounds, mask);
+        result.whitePixels += Core.countNonZero(mask);
+        result.totalPixels += mask.total();
+
+        for (int c = 0; c < contours.size(); c++) {
+          contours.get(c).release();
+        }
+        contours.clear();
+        Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        result.totalContours += contours.size();
+
+        while (descriptorPool.size() < contours.size()) {
+          descriptorPool.add(new ContourDescriptor());
+        }
+        descriptors.clear();
+        for (int c = 0; c < contours.size(); c++) {
+          descriptors.add(descriptorPool.get(c).measure(contours.get(c)));
+        }
+        ContourDescriptor chosen = imgProcessor.getStrongestCandidate(descriptors);
+
+        boolean hasTarget = (frameSet.getTargetBox(i) != null);
+        if (chosen != null && hasTarget && frameSet.isCorrect(i, chosen)) {
+          result.truePositives++;
+        } else if (chosen != null) {
+          result.falsePositives++;
+        }
+      }
+      result.numOfFrames = hsvFrames.length;
+      result.numOfTargets = frameSet.getNumOfTargets();
+    }
+  }
+
+  /** How well one set of bounds did. */
+  private static class SweepResult {
+    final int[] lower;
+    final int[] upper;
+    int numOfFrames = 0;
+    int numOfTargets = 0;
+    int truePositives = 0;
+    int falsePositives = 0;
+    long whitePixels = 0;
+    long totalPixels = 0;
+    long totalContours = 0;
+
+    SweepResult(int[] lower, int[] upper) {
+      this.lower = lower;
+      this.upper = upper;
+    }
+
+    Scalar getLowerBounds() {
+      return new Scalar(lower[0], lower[1], lower[2]);
+    }
+
+    Scalar getUpperBounds() {
+      return new Scalar(upper[0], upper[1], upper[2]);
+    }
+
+    double getPrecision() {
+      int numChosen = truePositives + falsePositives;
+      return (numChosen > 0) ? truePositives / (double) numChosen : 0;
+    }
+
+    double getRecall() {
+      return (numOfTargets > 0) ? truePositives / (double) numOfTargets : 0;
+    }
+
+    double getF1Score() {
+      double precision = getPrecision();
+      double recall = getRecall();
+      return (precision + recall > 0) ? 2 * precision * recall / (precision + recall) : 0;
+    }
+
+    /** @return The fraction of all pixels that passed the filter. */
+    double getMaskCost() {
+      return (totalPixels > 0) ? whitePixels / (double) totalPixels : 0;
+    }
+
+    double getContoursPerFrame() {
+      return (numOfFrames > 0) ? totalContours / (double) numOfFrames : 0;
+    }
+  }
+}
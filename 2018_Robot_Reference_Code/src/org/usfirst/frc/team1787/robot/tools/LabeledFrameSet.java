@@ -0,0 +1,130 @@
+package org.usfirst.frc.team1787.robot.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.usfirst.frc.team1787.robot.vision.ContourDescriptor;
+
+/**
+ * A set of recorded turretCam frames, where a person has marked where the target is in each one.
+ * This is what the offline tuners (i.e. HsvSweepTuner) use to score how well a set of parameters works.
+ *
+ * The frames are the images in a folder, and the labels are in a file called labels.csv in the same folder.
+ * Each line of labels.csv is:
+ *
+ * [image file name],[x],[y],[width],[height]
+ *
+ * where x, y, width, and height describe the box around the target (in pixels).
+ * If the target isn't in a frame, just leave the box out (i.e. "frame0042.png").
+ * Blank lines and lines starting with # are ignored, as are images that aren't listed in labels.csv.
+ *
+ * All of the frames are loaded into memory at once, so keep the set to a few hundred frames.
+ */
+public class LabeledFrameSet {
+
+  public static final String LABELS_FILE_NAME = "labels.csv";
+
+  private ArrayList<String> names = new ArrayList<String>();
+  private ArrayList<Mat> frames = new ArrayList<Mat>();
+  private ArrayList<Rect> targetBoxes = new ArrayList<Rect>(); // null when the target isn't in the frame
+  private int numOfTargets = 0;
+
+  /**
+   * Loads every labeled frame in the given folder.
+   * @throws IOException if labels.csv can't be read, or lists an image that can't be read.
+   */
+  public LabeledFrameSet(File folder) throws IOException {
+    File labelsFile = new File(folder, LABELS_FILE_NAME);
+    try (BufferedReader reader = new BufferedReader(new FileReader(labelsFile))) {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+
+        String[] parts = line.split(",");
+        Rect box = null;
+        if (parts.length >= 5) {
+          try {
+            box = new Rect(Integer.parseInt(parts[1].trim()), Integer.parseInt(parts[2].trim()),
+                           Integer.parseInt(parts[3].trim()), Integer.parseInt(parts[4].trim()));
+          } catch (NumberFormatException e) {
+            throw new IOException(labelsFile + " line " + lineNumber + ": the box should be 4 whole numbers.");
+          }
+        } else if (parts.length != 1) {
+          throw new IOException(labelsFile + " line " + lineNumber + ": expected [file],[x],[y],[width],[height] or just [file].");
+        }
+
+        String name = parts[0].trim();
+        Mat frame = Imgcodecs.imread(new File(folder, name).getPath());
+        if (frame.empty()) {
+          throw new IOException("Couldn't read the image " + name + " (from " + labelsFile + " line " + lineNumber + ").");
+        }
+
+        names.add(name);
+        frames.add(frame);
+        targetBoxes.add(box);
+        if (box != null) {
+          numOfTargets++;
+        }
+      }
+    }
+  }
+
+  /** @return The number of labeled frames in the set. */
+  public int size() {
+    return frames.size();
+  }
+
+  /** @return The number of frames that have the target in them. */
+  public int getNumOfTargets() {
+    return numOfTargets;
+  }
+
+  /** @return The name of the image file the given frame was loaded from. */
+  public String getName(int index) {
+    return names.get(index);
+  }
+
+  /** @return The given frame (in BGR format, just like the turretCam gives). Don't change it! */
+  public Mat getFrame(int index) {
+    return frames.get(index);
+  }
+
+  /** @return The box around the target in the given frame, or null if the target isn't in it. */
+  public Rect getTargetBox(int index) {
+    return targetBoxes.get(index);
+  }
+
+  /**
+   * @param index Which frame the contour was chosen in.
+   * @param chosenContour The contour that was chosen as the target in that frame (or null if none was).
+   * @return true if the choice was correct: either the contour's center is inside of the labeled box,
+   * or no contour was chosen for a frame without a target.
+   */
+  public boolean isCorrect(int index, ContourDescriptor chosenContour) {
+    Rect box = targetBoxes.get(index);
+    if (box == null || chosenContour == null) {
+      return box == null && chosenContour == null;
+    }
+    double x = chosenContour.getCenterX();
+    double y = chosenContour.getCenterY();
+    return (box.x <= x && x <= box.x + box.width && box.y <= y && y <= box.y + box.height);
+  }
+
+  /** Frees the native memory used by the frames. The set can't be used after this. */
+  public void release() {
+    for (int i = 0; i < frames.size(); i++) {
+      frames.get(i).release();
+    }
+  }
+}
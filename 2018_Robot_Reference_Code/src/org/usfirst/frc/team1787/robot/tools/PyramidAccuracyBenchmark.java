@@ -0,0 +1,190 @@
+package org.usfirst.frc.team1787.robot.tools;
+
+import java.util.Random;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.usfirst.frc.team1787.robot.utils.UnitConverter;
+import org.usfirst.frc.team1787.robot.vision.CameraController;
+import org.usfirst.frc.team1787.robot.vision.FrameSource;
+import org.usfirst.frc.team1787.robot.vision.ImageProcessor;
+import org.usfirst.frc.team1787.robot.vision.Target;
+
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * A command line program that measures how accurate the distance to the target is at different ranges,
+ * for each way of running the vision pipeline:
+ *
+ * low-res  = the normal 160x120 frames (what the robot has always done)
+ * full-res = bigger frames (PYRAMID_IMAGE_WIDTH_PIXELS x PYRAMID_IMAGE_HEIGHT_PIXELS), processed in full
+ * pyramid  = bigger frames, searched at 160x120 and then measured at full size (see ImageProcessor.setPyramidEnabled())
+ *
+ * Since we don't have recordings of the target at known distances, the frames are drawn: the target's tape
+ * (a 15" x 4" band, facing the camera) is placed at a known distance and projected into the image
+ * with the same camera model the robot uses (see CameraController.getTurretCamModel()).
+ * The frames are drawn at a much higher resolution and shrunk down, so the edges of the tape
+ * get blended with the background like they would in a real camera.
+ * At each distance, the target is placed at a bunch of random bearings, and the error of each distance
+ * the pipeline comes up with is averaged. Run it like this:
+ *
+ * java -Djava.library.path=[folder with the opencv native library] -cp [classpath]
+ *      org.usfirst.frc.team1787.robot.tools.PyramidAccuracyBenchmark
+ */
+public class PyramidAccuracyBenchmark {
+
+  // the camera is tilted up 36 degrees, so the target is only in view from about 0.6 to 2.3 meters away.
+  private static final double[] DISTANCES_METERS = {0.8, 1.2, 1.6, 2.0, 2.2};
+  private static final int FRAMES_PER_DISTANCE = 50;
+  private static final double MAX_BEARING_DEGREES = 10;
+
+  // frames are drawn this many times bigger than the biggest frame used, then shrunk down
+  private static final int SUPERSAMPLING = 4;
+  private static final double TAPE_WIDTH = UnitConverter.inchesToMeters(15);
+  private static final double TAPE_HEIGHT = UnitConverter.inchesToMeters(4);
+
+  // a BGR color that passes through the ImageProcessor's default HSV filter (H = 87, S = 234, V = 120)
+  private static final Scalar TARGET_COLOR_BGR = new Scalar(110, 120, 10);
+
+  private static final String[] MODE_NAMES = {"low-res", "full-res", "pyramid"};
+
+  public static void main(String[] args) {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    Timer.SetImplementation(new DesktopTimer());
+
+    int bigWidth = CameraController.PYRAMID_IMAGE_WIDTH_PIXELS;
+    int bigHeight = CameraController.PYRAMID_IMAGE_HEIGHT_PIXELS;
+    Mat drawnFrame = new Mat();
+    Mat bigFrame = new Mat();
+    Mat smallFrame = new Mat();
+    SingleFrameSource frameSource = new SingleFrameSource();
+
+    ImageProcessor imgProcessor = ImageProcessor.getInstance();
+    imgProcessor.setFrameSource(frameSource);
+    // every frame has the target somewhere new, so the search window would just get in the way.
+    imgProcessor.setROITrackingEnabled(false);
+    imgProcessor.setStaticFrameSkipEnabled(false);
+
+    System.out.printf("Modes: low-res = %dx%d, full-res = %dx%d, pyramid = %dx%d searched at %dx%d%n%n",
+        CameraController.IMAGE_WIDTH_PIXELS, CameraController.IMAGE_HEIGHT_PIXELS, bigWidth, bigHeight,
+        bigWidth, bigHeight, CameraController.IMAGE_WIDTH_PIXELS, CameraController.IMAGE_HEIGHT_PIXELS);
+    System.out.println("distance (m)  mode       found   mean error (m)  max error (m)  mean error (%)  processing (ms)");
+
+    for (double distance : DISTANCES_METERS) {
+      // the same bearings are used for every mode, so they're all measured on exactly the same frames
+      Random random = new Random(1787);
+      double[] bearings = new double[FRAMES_PER_DISTANCE];
+      for (int i = 0; i < bearings.length; i++) {
+        bearings[i] = (2 * random.nextDouble() - 1) * MAX_BEARING_DEGREES;
+      }
+
+      for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+        imgProcessor.setPyramidEnabled(mode == 2);
+        int found = 0;
+        double totalError = 0;
+        double maxError = 0;
+        long totalProcessingNanos = 0;
+
+        for (double bearing : bearings) {
+          drawFrame(drawnFrame, bigWidth * SUPERSAMPLING, bigHeight * SUPERSAMPLING, distance, bearing);
+          Imgproc.resize(drawnFrame, bigFrame, new Size(bigWidth, bigHeight), 0, 0, Imgproc.INTER_AREA);
+          if (mode == 0) {
+            Imgproc.resize(bigFrame, smallFrame, new Size(CameraController.IMAGE_WIDTH_PIXELS,
+                CameraController.IMAGE_HEIGHT_PIXELS), 0, 0, Imgproc.INTER_AREA);
+            frameSource.setNextFrame(smallFrame);
+          } else {
+            frameSource.setNextFrame(bigFrame);
+          }
+
+          imgProcessor.runVisionProcessing();
+          totalProcessingNanos += imgProcessor.getLastStageNanos(ImageProcessor.STAGE_PROCESSING);
+          Target target = imgProcessor.getCurrentTarget();
+          if (target.isFound()) {
+            found++;
+            double error = Math.abs(target.getHorizontalDistance() - distance);
+            totalError += error;
+            maxError = Math.max(maxError, error);
+          }
+        }
+
+        double meanError = (found > 0) ? totalError / found : Double.NaN;
+        System.out.printf("%12.2f  %-9s %3d/%-3d %15.4f %14.4f %15.2f %16.3f%n", distance, MODE_NAMES[mode],
+            found, bearings.length, meanError, maxError, 100 * meanError / distance,
+            totalProcessingNanos / 1e6 / bearings.length);
+      }
+    }
+
+    drawnFrame.release();
+    bigFrame.release();
+    smallFrame.release();
+  }
+
+  /**
+   * Draws the target's tape on a plain gray background, as the turretCam would see it.
+   * @param frame Where to draw the frame.
+   * @param width The width of the frame (in pixels).
+   * @param height The height of the frame (in pixels).
+   * @param distance The horizontal distance from the camera to the target (in meters).
+   * @param bearing The angle of the target from straight ahead (in degrees, positive is to the right).
+   */
+  private static void drawFrame(Mat frame, int width, int height, double distance, double bearing) {
+    frame.create(height, width, CvType.CV_8UC3);
+    frame.setTo(new Scalar(40, 40, 40)); // (gray never passes the filter, since it has no saturation)
+
+    // the camera model's focal length and center are for 160x120, so they're scaled up to this frame's size
+    double scale = width / (double) CameraController.IMAGE_WIDTH_PIXELS;
+    double focalLength = CameraController.ESTIMATED_FOCAL_LENGTH_PIXELS * scale;
+    double centerX = ((CameraController.IMAGE_WIDTH_PIXELS - 1) / 2.0 + 0.5) * scale - 0.5;
+    double centerY = ((CameraController.IMAGE_HEIGHT_PIXELS - 1) / 2.0 + 0.5) * scale - 0.5;
+    double tilt = Math.toRadians(CameraController.TURRET_CAM_ANGLE_FROM_FLOOR_DEGREES);
+
+    /* The corners of the tape, in the robot's coordinates (right, up, and forward from the camera).
+     * The tape is centered at the target's height, and turned to face the camera. */
+    double b = Math.toRadians(bearing);
+    double[][] offsets = {{-1, 1}, {1, 1}, {1, -1}, {-1, -1}}; // (left/right, up/down)
+    Point[] corners = new Point[offsets.length];
+    for (int i = 0; i < offsets.length; i++) {
+      double right = distance * Math.sin(b) + offsets[i][0] * TAPE_WIDTH / 2 * Math.cos(b);
+      double forward = distance * Math.cos(b) - offsets[i][0] * TAPE_WIDTH / 2 * Math.sin(b);
+      double up = Target.CAM_TO_TARGET_VERTICAL_DISTANCE + offsets[i][1] * TAPE_HEIGHT / 2;
+
+      // rotate into the camera's coordinates (x right, y down, z out of the lens), then project
+      double z = forward * Math.cos(tilt) + up * Math.sin(tilt);
+      double y = forward * Math.sin(tilt) - up * Math.cos(tilt);
+      // (the corners are given in 1/16ths of a pixel, see the shift given to fillConvexPoly() below)
+      corners[i] = new Point(Math.round(16 * (centerX + focalLength * right / z)),
+                             Math.round(16 * (centerY + focalLength * y / z)));
+    }
+    MatOfPoint polygon = new MatOfPoint(corners);
+    Imgproc.fillConvexPoly(frame, polygon, TARGET_COLOR_BGR, Imgproc.LINE_8, 4);
+    polygon.release();
+  }
+
+  /** Hands the pipeline whatever frame it was last given, with a new frameTime each time. */
+  private static class SingleFrameSource implements FrameSource {
+    private Mat nextFrame;
+    private long frameTime = 0;
+
+    void setNextFrame(Mat frame) {
+      nextFrame = frame;
+    }
+
+    @Override
+    public long grabFrame(Mat destination) {
+      nextFrame.copyTo(destination);
+      frameTime += 1000000 / CameraController.FRAMES_PER_SECOND;
+      return frameTime;
+    }
+
+    @Override
+    public boolean hasMoreFrames() {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package org.usfirst.frc.team1787.robot.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.usfirst.frc.team1787.robot.utils.SignalLogger;
+
+/**
+ * A command line program that turns a log from the SignalLogger into a CSV file (one row per loop,
+ * one column per signal) that can be opened in a spreadsheet. Copy the log off the robot first
+ * (i.e. scp lvuser@roborio-1787-frc.local:/home/lvuser/signals.bin .), then run it like this:
+ *
+ * java -cp [classpath] org.usfirst.frc.team1787.robot.tools.SignalLogDecoder [log file] [csv file]
+ *
+ * (leave out the csv file to print it instead). The rows come out oldest first. Records that were
+ * only half written (i.e. the robot lost power in the middle of one) are left out, and counted at the end.
+ * True/false signals are written as 1 and 0, so they can be graphed with everything else.
+ */
+public class SignalLogDecoder {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.out.println("Usage: SignalLogDecoder [log file] [csv file]");
+      return;
+    }
+
+    ByteBuffer log;
+    try (RandomAccessFile raf = new RandomAccessFile(new File(args[0]), "r")) {
+      log = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    }
+    log.order(ByteOrder.LITTLE_ENDIAN);
+    if (log.getInt(0) != SignalLogger.MAGIC) {
+      System.out.println(args[0] + " isn't a signal log");
+      return;
+    }
+    if (log.getInt(4) != SignalLogger.VERSION) {
+      System.out.println(args[0] + " is version " + log.getInt(4) + " of the signal log, this only reads version "
+                         + SignalLogger.VERSION);
+      return;
+    }
+    int numOfSignals = log.getInt(8);
+    int recordSize = log.getInt(12);
+    int capacity = log.getInt(16);
+    int headerSize = log.getInt(20);
+
+    // the schema: what each signal is called, what type it is, and where it is in a record
+    String[] names = new String[numOfSignals];
+    byte[] types = new byte[numOfSignals];
+    int[] offsets = new int[numOfSignals];
+    log.position(SignalLogger.RECORDS_WRITTEN_OFFSET + 8);
+    int offset = SignalLogger.RECORD_HEADER_SIZE;
+    for (int i = 0; i < numOfSignals; i++) {
+      types[i] = log.get();
+      byte[] nameBytes = new byte[log.getShort()];
+      log.get(nameBytes);
+      names[i] = new String(nameBytes, StandardCharsets.UTF_8);
+      offsets[i] = offset;
+      offset += (types[i] == SignalLogger.TYPE_DOUBLE) ? 8 : (types[i] == SignalLogger.TYPE_BOOLEAN) ? 1 : 4;
+    }
+
+    // the count in the header is written after each record, so it could be one behind if the robot lost power.
+    // The newest record is found by its sequence number instead.
+    long newestSequence = SignalLogger.INVALID_SEQUENCE;
+    for (int slot = 0; slot < capacity; slot++) {
+      newestSequence = Math.max(newestSequence, log.getLong(headerSize + slot * recordSize));
+    }
+    if (newestSequence == SignalLogger.INVALID_SEQUENCE) {
+      System.out.println(args[0] + " has no records in it");
+      return;
+    }
+
+    PrintStream out = (args.length >= 2) ? new PrintStream(new File(args[1]), "UTF-8") : System.out;
+    out.print("sequence,timestamp");
+    for (int i = 0; i < numOfSignals; i++) {
+      out.print("," + toCsvField(names[i]));
+    }
+    out.println();
+
+    long rowsWritten = 0;
+    long recordsSkipped = 0;
+    long oldestSequence = Math.max(0, newestSequence - capacity + 1);
+    StringBuilder row = new StringBuilder();
+    for (long sequence = oldestSequence; sequence <= newestSequence; sequence++) {
+      int recordOffset = headerSize + (int) (sequence % capacity) * recordSize;
+      if (log.getLong(recordOffset) != sequence) {
+        recordsSkipped++;
+        continue;
+      }
+      row.setLength(0);
+      row.append(sequence).append(',').append(log.getDouble(recordOffset + 8));
+      for (int i = 0; i < numOfSignals; i++) {
+        int valueOffset = recordOffset + offsets[i];
+        row.append(',');
+        if (types[i] == SignalLogger.TYPE_DOUBLE) {
+          row.append(log.getDouble(valueOffset));
+        } else if (types[i] == SignalLogger.TYPE_FLOAT) {
+          row.append(log.getFloat(valueOffset));
+        } else if (types[i] == SignalLogger.TYPE_INT) {
+          row.append(log.getInt(valueOffset));
+        } else {
+          row.append(log.get(valueOffset));
+        }
+      }
+      out.println(row);
+      rowsWritten++;
+    }
+    if (out != System.out) {
+      out.close();
+      System.out.println("Wrote " + rowsWritten + " rows of " + numOfSignals + " signals to " + args[1]);
+    }
+    if (recordsSkipped > 0) {
+      System.err.println("Skipped " + recordsSkipped + " records that weren't completely written");
+    }
+  }
+
+  /** Quotes a column name if it has a comma or a quote in it. */
+  private static String toCsvField(String name) {
+    if (name.indexOf(',') < 0 && name.indexOf('"') < 0) {
+      return name;
+    }
+    return "\"" + name.replace("\"", "\"\"") + "\"";
+  }
+}
@@ -0,0 +1,84 @@
+package org.usfirst.frc.team1787.robot.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.usfirst.frc.team1787.robot.utils.RollingHistogram;
+import org.usfirst.frc.team1787.robot.utils.SignalLogger;
+
+/**
+ * A command line program that measures how much time the SignalLogger adds to each loop,
+ * and checks that it doesn't allocate anything once it's running. It doesn't need a RIO, so run it like this:
+ *
+ * java -cp [classpath] org.usfirst.frc.team1787.robot.tools.SignalLoggerBenchmark [log file]
+ *
+ * Each "loop" records SIGNALS_PER_TYPE signals of each type (about as many as the robot logs, with room to grow)
+ * and then writes the record, just like Robot.robotPeriodic(). The log goes to a temporary file unless one is given
+ * (it can be checked with the SignalLogDecoder afterwards). Run it on the RIO itself for the real numbers.
+ */
+public class SignalLoggerBenchmark {
+
+  private static final int SIGNALS_PER_TYPE = 16;
+  private static final int WARMUP_LOOPS = 20000;
+  private static final int TIMED_LOOPS = 100000;
+  private static final double LOOP_PERIOD_SECONDS = 0.02;
+
+  public static void main(String[] args) throws IOException {
+    File logFile;
+    if (args.length >= 1) {
+      logFile = new File(args[0]);
+    } else {
+      logFile = File.createTempFile("signals", ".bin");
+      logFile.deleteOnExit();
+    }
+
+    SignalLogger logger = SignalLogger.getInstance();
+    byte[] types = {SignalLogger.TYPE_DOUBLE, SignalLogger.TYPE_FLOAT, SignalLogger.TYPE_INT, SignalLogger.TYPE_BOOLEAN};
+    int[] signals = new int[types.length * SIGNALS_PER_TYPE];
+    for (int i = 0; i < signals.length; i++) {
+      signals[i] = logger.addSignal("Signal " + i, types[i % types.length]);
+    }
+    long openStart = System.nanoTime();
+    logger.open(logFile);
+    System.out.printf("Opened a %.1f MB log with %d signals in %.1f ms%n", logFile.length() / 1e6, signals.length,
+                      (System.nanoTime() - openStart) / 1e6);
+
+    for (int loop = 0; loop < WARMUP_LOOPS; loop++) {
+      runLoop(logger, signals, loop);
+    }
+
+    // (com.sun.management's ThreadMXBean can count the bytes a thread allocates, the java.lang.management one can't)
+    com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    RollingHistogram loopNanos = new RollingHistogram(TIMED_LOOPS);
+    long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+    for (int loop = WARMUP_LOOPS; loop < WARMUP_LOOPS + TIMED_LOOPS; loop++) {
+      long start = System.nanoTime();
+      runLoop(logger, signals, loop);
+      loopNanos.record(System.nanoTime() - start);
+    }
+    long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+    // (the histogram's allocations only happen when it's read, which is after this)
+
+    System.out.printf("Logger time per loop: p50 = %.2f us, p99 = %.2f us, max = %.2f us%n",
+                      loopNanos.getPercentile(50) / 1e3, loopNanos.getPercentile(99) / 1e3, loopNanos.getMax() / 1e3);
+    System.out.printf("That's %.3f%% of a %.0f ms loop (at the median)%n",
+                      100 * loopNanos.getPercentile(50) / (LOOP_PERIOD_SECONDS * 1e9), LOOP_PERIOD_SECONDS * 1e3);
+    System.out.printf("Allocated %d bytes over %d loops (%.2f bytes per loop)%n",
+                      allocatedBytes, TIMED_LOOPS, allocatedBytes / (double) TIMED_LOOPS);
+
+    long flushStart = System.nanoTime();
+    logger.flushToDisk();
+    System.out.printf("flushToDisk() took %.1f ms%n", (System.nanoTime() - flushStart) / 1e6);
+  }
+
+  /** Records a value for every signal, and writes the record. */
+  private static void runLoop(SignalLogger logger, int[] signals, int loop) {
+    double timestamp = loop * LOOP_PERIOD_SECONDS;
+    for (int i = 0; i < signals.length; i++) {
+      logger.record(signals[i], Math.sin(timestamp + i) * 100);
+    }
+    logger.writeRecord(timestamp);
+  }
+}
@@ -0,0 +1,176 @@
+package org.usfirst.frc.team1787.robot.tools;
+
+import java.util.ArrayList;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.usfirst.frc.team1787.robot.vision.CandidateExtractor;
+import org.usfirst.frc.team1787.robot.vision.ConnectedComponentsExtractor;
+import org.usfirst.frc.team1787.robot.vision.ContourDescriptor;
+import org.usfirst.frc.team1787.robot.vision.ContourExtractor;
+import org.usfirst.frc.team1787.robot.vision.HsvThresholdTable;
+import org.usfirst.frc.team1787.robot.vision.ImageProcessor;
+
+/**
+ * A command line program for comparing the speed of different parts of the vision pipeline.
+ * It doesn't need a camera or a RIO, just a computer with OpenCV installed, so it can be run like this:
+ * 
+ * java -Djava.library.path=[folder with the opencv native library] -cp [classpath] org.usfirst.frc.team1787.robot.tools.VisionBenchmark
+ * 
+ * Every benchmark is run on synthetic frames (random noise with a few target colored rectangles in it),
+ * at each of the resolutions listed in RESOLUTIONS. The candidate extraction benchmarks 
+ * add extra noise to the filtered frame (see MASK_NOISE_LEVELS), since that's what makes findContours() slow.
+ */
+public class VisionBenchmark {
+  
+  private static final int[][] RESOLUTIONS = {{160, 120}, {320, 240}};
+  private static final int WARMUP_ITERATIONS = 200;
+  private static final int TIMED_ITERATIONS = 1000;
+  
+  // same bounds the ImageProcessor uses by default
+  private static final Scalar HSV_LOWER_BOUNDS = new Scalar(75, 200, 30);
+  private static final Scalar HSV_UPPER_BOUNDS = new Scalar(90, 255, 150);
+  
+  // a BGR color that passes through the filter above (H = 87, S = 234, V = 120)
+  private static final Scalar TARGET_COLOR_BGR = new Scalar(110, 120, 10);
+  
+  // fractions of the mask that are turned into random white specks, to see how each extractor handles noise
+  private static final double[] MASK_NOISE_LEVELS = {0, 0.02, 0.10};
+  
+  public static void main(String[] args) {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    
+    for (int[] resolution : RESOLUTIONS) {
+      Mat frame = makeSyntheticFrame(resolution[0], resolution[1]);
+      System.out.println("---- " + resolution[0] + "x" + resolution[1] + " ----");
+      benchmarkThresholding(frame);
+      for (double noiseLevel : MASK_NOISE_LEVELS) {
+        benchmarkCandidateExtraction(frame, noiseLevel);
+      }
+      frame.release();
+    }
+  }
+  
+  /** Compares cvtColor() + inRange() against the HsvThresholdTable, and makes sure they give the same result. */
+  private static void benchmarkThresholding(Mat frame) {
+    Mat hsvFrame = new Mat();
+    Mat openCvMask = new Mat();
+    Mat tableMask = new Mat();
+    Mat difference = new Mat();
+    
+    HsvThresholdTable table = new HsvThresholdTable();
+    long buildStart = System.nanoTime();
+    table.setBounds(HSV_LOWER_BOUNDS, HSV_UPPER_BOUNDS);
+    double buildMillis = (System.nanoTime() - buildStart) / 1e6;
+    
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      Imgproc.cvtColor(frame, hsvFrame, Imgproc.COLOR_BGR2HSV);
+      Core.inRange(hsvFrame, HSV_LOWER_BOUNDS, HSV_UPPER_BOUNDS, openCvMask);
+      table.apply(frame, tableMask);
+    }
+    
+    long start = System.nanoTime();
+    for (int i = 0; i < TIMED_ITERATIONS; i++) {
+      Imgproc.cvtColor(frame, hsvFrame, Imgproc.COLOR_BGR2HSV);
+      Core.inRange(hsvFrame, HSV_LOWER_BOUNDS, HSV_UPPER_BOUNDS, openCvMask);
+    }
+    double openCvMicros = (System.nanoTime() - start) / 1e3 / TIMED_ITERATIONS;
+    
+    start = System.nanoTime();
+    for (int i = 0; i < TIMED_ITERATIONS; i++) {
+      table.apply(frame, tableMask);
+    }
+    double tableMicros = (System.nanoTime() - start) / 1e3 / TIMED_ITERATIONS;
+    
+    Core.absdiff(openCvMask, tableMask, difference);
+    int mismatchedPixels = Core.countNonZero(difference);
+    
+    System.out.printf("Threshold: cvtColor + inRange = %.1f us/frame, lookup table = %.1f us/frame (%.2fx), "
+        + "table build = %.0f ms, mismatched pixels = %d%n",
+        openCvMicros, tableMicros, openCvMicros / tableMicros, buildMillis, mismatchedPixels);
+    
+    hsvFrame.release();
+    openCvMask.release();
+    tableMask.release();
+    difference.release();
+  }
+  
+  /**
+   * Compares the ContourExtractor against the ConnectedComponentsExtractor on the HSV filtered frame
+   * (with some extra noise added), and checks whether they both pick the same target.
+   */
+  private static void benchmarkCandidateExtraction(Mat frame, double noiseLevel) {
+    Mat hsvFrame = new Mat();
+    Mat mask = new Mat();
+    Mat noise = new Mat(frame.rows(), frame.cols(), CvType.CV_8UC1);
+    Mat workingMask = new Mat();
+    
+    Imgproc.cvtColor(frame, hsvFrame, Imgproc.COLOR_BGR2HSV);
+    Core.inRange(hsvFrame, HSV_LOWER_BOUNDS, HSV_UPPER_BOUNDS, mask);
+    if (noiseLevel > 0) {
+      Core.randu(noise, 0, 256);
+      Imgproc.threshold(noise, noise, 255 * (1 - noiseLevel), 255, Imgproc.THRESH_BINARY);
+      Core.bitwise_or(mask, noise, mask);
+    }
+    
+    CandidateExtractor[] extractors = {new ContourExtractor(), new ConnectedComponentsExtractor()};
+    String[] names = {"contours", "connected components"};
+    double[] micros = new double[extractors.length];
+    int[] numOfCandidates = new int[extractors.length];
+    double[][] chosenCenters = new double[extractors.length][];
+    Point noOffset = new Point(0, 0);
+    
+    for (int e = 0; e < extractors.length; e++) {
+      // (the mask is copied every time, in case an extractor changes it, so both pay the same cost)
+      for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+        mask.copyTo(workingMask);
+        extractors[e].extract(workingMask, noOffset);
+      }
+      long start = System.nanoTime();
+      ArrayList<ContourDescriptor> candidates = null;
+      for (int i = 0; i < TIMED_ITERATIONS; i++) {
+        mask.copyTo(workingMask);
+        candidates = extractors[e].extract(workingMask, noOffset);
+      }
+      micros[e] = (System.nanoTime() - start) / 1e3 / TIMED_ITERATIONS;
+      
+      numOfCandidates[e] = candidates.size();
+      ContourDescriptor chosen = ImageProcessor.getInstance().getStrongestCandidate(candidates);
+      chosenCenters[e] = (chosen == null) ? null : new double[] {chosen.getCenterX(), chosen.getCenterY()};
+    }
+    
+    // they agree if they both found nothing, or both found targets whose centers are within a pixel of each other.
+    boolean sameTarget = (chosenCenters[0] == null && chosenCenters[1] == null) 
+        || (chosenCenters[0] != null && chosenCenters[1] != null 
+            && Math.abs(chosenCenters[0][0] - chosenCenters[1][0]) <= 1 
+            && Math.abs(chosenCenters[0][1] - chosenCenters[1][1]) <= 1);
+    
+    System.out.printf("Candidates (%.0f%% noise): %s = %.1f us/frame (%d found), %s = %.1f us/frame (%d found) (%.2fx), "
+        + "same target = %b%n", 100 * noiseLevel, names[0], micros[0], numOfCandidates[0], 
+        names[1], micros[1], numOfCandidates[1], micros[0] / micros[1], sameTarget);
+    
+    hsvFrame.release();
+    mask.release();
+    noise.release();
+    workingMask.release();
+  }
+  
+  /** @return A BGR frame full of random noise, with a few target colored rectangles drawn on it. */
+  private static Mat makeSyntheticFrame(int width, int height) {
+    Mat frame = new Mat(height, width, CvType.CV_8UC3);
+    Core.randu(frame, 0, 256);
+    
+    int boxWidth = width / 8;
+    int boxHeight = height / 16;
+    for (int i = 0; i < 3; i++) {
+      Point topLeft = new Point((i + 1) * width / 4 - boxWidth / 2, (i + 1) * height / 4 - boxHeight / 2);
+      Point bottomRight = new Point(topLeft.x + boxWidth, topLeft.y + boxHeight);
+      Imgproc.rectangle(frame, topLeft, bottomRight, TARGET_COLOR_BGR, Core.FILLED);
+    }
+    return frame;
+  }
+}
@@ -0,0 +1,206 @@
+package org.usfirst.frc.team1787.robot.tools;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.usfirst.frc.team1787.robot.vision.CameraController;
+import org.usfirst.frc.team1787.robot.vision.CoprocessorTargetClient;
+import org.usfirst.frc.team1787.robot.vision.FrameSource;
+import org.usfirst.frc.team1787.robot.vision.ImageFolderFrameSource;
+import org.usfirst.frc.team1787.robot.vision.ImageProcessor;
+import org.usfirst.frc.team1787.robot.vision.Target;
+import org.usfirst.frc.team1787.robot.vision.TargetPublisher;
+import org.usfirst.frc.team1787.robot.vision.VideoFileFrameSource;
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.UsbCamera;
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Runs the vision pipeline as its own program (i.e. on a coprocessor like a Raspberry Pi or Jetson),
+ * and sends each target it finds to the robot (see TargetPublisher). On the robot, a CoprocessorTargetClient
+ * receives them (see Robot.USE_VISION_COPROCESSOR). That way, image processing doesn't compete with
+ * the control loops for the RIO's 2 cores.
+ *
+ * It's the exact same ImageProcessor the robot runs, just fed by a camera plugged into the coprocessor.
+ * It can also be fed a recording (played back at its real frame rate), or made up targets (--synthetic),
+ * so the whole setup can be tested on one Linux computer: run this with --udp localhost:5801
+ * (or --shm /dev/shm/visionTarget), and the CoprocessorMonitor tool in another terminal. Run it like this:
+ *
+ * java -Djava.library.path=[folder with the opencv and cscore native libraries] -cp [classpath]
+ *      org.usfirst.frc.team1787.robot.tools.VisionCoprocessor [source] [options]
+ *
+ * Sources:
+ * camera [number]            a USB camera (i.e. "camera 0" for /dev/video0)
+ * [folder of images or video file]  a recording, played back at --fps
+ * --synthetic                no camera or OpenCV at all, just a target that sweeps back and forth
+ *
+ * Options:
+ * --udp [host]:[port]  where to send the targets (default 10.17.87.2:5801, the RIO's address on our network)
+ * --shm [file]         write the targets to a shared file instead (both ends have to be on the same computer)
+ * --fps [number]       the frame rate of a recording or the synthetic target (default 30)
+ * --pyramid            see ImageProcessor.setPyramidEnabled() (set the camera to a bigger resolution too)
+ * --subpixel           see ImageProcessor.setSubPixelCentroidEnabled()
+ */
+public class VisionCoprocessor {
+
+  private static final String DEFAULT_ROBOT_ADDRESS = "10.17.87.2";
+  private static final double CAMERA_GRAB_TIMEOUT_SECONDS = 1;
+
+  // the synthetic target sweeps back and forth this far (in degrees), once every SYNTHETIC_PERIOD_SECONDS
+  private static final double SYNTHETIC_SWEEP_DEGREES = 15;
+  private static final double SYNTHETIC_PERIOD_SECONDS = 4;
+  private static final double SYNTHETIC_DISTANCE_METERS = 1.5;
+  // (and it disappears for a bit every so often, to test losing the target)
+  private static final double SYNTHETIC_LOST_SECONDS_PER_PERIOD = 0.5;
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length == 0) {
+      System.out.println("Usage: VisionCoprocessor [camera number | folder of images | video file | --synthetic] "
+                         + "[--udp host:port | --shm file] [--fps number] [--pyramid] [--subpixel]");
+      return;
+    }
+
+    int firstOption = 1;
+    int cameraNumber = -1;
+    boolean synthetic = false;
+    String path = null;
+    if (args[0].equals("camera")) {
+      cameraNumber = Integer.parseInt(args[1]);
+      firstOption = 2;
+    } else if (args[0].equals("--synthetic")) {
+      synthetic = true;
+    } else {
+      path = args[0];
+    }
+
+    String host = DEFAULT_ROBOT_ADDRESS;
+    int port = CoprocessorTargetClient.DEFAULT_PORT;
+    File sharedFile = null;
+    double framesPerSecond = CameraController.FRAMES_PER_SECOND;
+    boolean usePyramid = false;
+    boolean useSubPixelCentroid = false;
+    for (int i = firstOption; i < args.length; i++) {
+      if (args[i].equals("--udp")) {
+        String[] parts = args[++i].split(":");
+        host = parts[0];
+        port = Integer.parseInt(parts[1]);
+      } else if (args[i].equals("--shm")) {
+        sharedFile = new File(args[++i]);
+      } else if (args[i].equals("--fps")) {
+        framesPerSecond = Double.parseDouble(args[++i]);
+      } else if (args[i].equals("--pyramid")) {
+        usePyramid = true;
+      } else if (args[i].equals("--subpixel")) {
+        useSubPixelCentroid = true;
+      } else {
+        System.out.println("Unknown option: " + args[i]);
+        return;
+      }
+    }
+
+    // on the RIO, this is taken care of by WPILib.
+    Timer.SetImplementation(new DesktopTimer());
+
+    TargetPublisher publisher;
+    if (sharedFile != null) {
+      publisher = TargetPublisher.overSharedFile(sharedFile);
+      System.out.println("Writing targets to " + sharedFile);
+    } else {
+      publisher = TargetPublisher.overUdp(host, port);
+      System.out.println("Sending targets to " + host + ":" + port);
+    }
+
+    if (synthetic) {
+      runSynthetic(publisher, framesPerSecond);
+      return;
+    }
+
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    FrameSource frameSource;
+    boolean isRecording = (cameraNumber < 0);
+    if (!isRecording) {
+      frameSource = openCamera(cameraNumber);
+    } else if (new File(path).isDirectory()) {
+      frameSource = new ImageFolderFrameSource(new File(path), framesPerSecond);
+    } else {
+      frameSource = new VideoFileFrameSource(path);
+    }
+
+    ImageProcessor imgProcessor = ImageProcessor.getInstance();
+    imgProcessor.setFrameSource(frameSource);
+    imgProcessor.setPyramidEnabled(usePyramid);
+    imgProcessor.setSubPixelCentroidEnabled(useSubPixelCentroid);
+
+    long startTime = System.nanoTime();
+    long framesPublished = 0;
+    long lastFrameTime = 0;
+    Target target = new Target();
+    while (frameSource.hasMoreFrames()) {
+      imgProcessor.runVisionProcessing();
+      imgProcessor.getCurrentTarget(target);
+      if (target.getFrameTime() == lastFrameTime) {
+        continue;
+      }
+      lastFrameTime = target.getFrameTime();
+      publisher.publish(target, Timer.getFPGATimestamp());
+      framesPublished++;
+
+      if (isRecording) {
+        // a camera only delivers frames so fast, but a recording has to be slowed down to its real frame rate
+        sleepUntil(startTime + (long) (framesPublished * 1e9 / framesPerSecond));
+      }
+    }
+    System.out.println("Out of frames, sent " + publisher.getPacketsSent() + " targets");
+    publisher.close();
+  }
+
+  /** Opens a USB camera plugged into this computer, set up the same way as the turretCam on the robot. */
+  private static FrameSource openCamera(int cameraNumber) {
+    UsbCamera camera = new UsbCamera("turretCam", cameraNumber);
+    CameraController.configCam(camera, true);
+    CvSink sink = new CvSink("coprocessor");
+    sink.setSource(camera);
+    return new FrameSource() {
+      @Override
+      public long grabFrame(Mat destination) {
+        return sink.grabFrame(destination, CAMERA_GRAB_TIMEOUT_SECONDS);
+      }
+
+      @Override
+      public boolean hasMoreFrames() {
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Sends made up targets forever, without a camera or OpenCV.
+   * This is the stand-in for the coprocessor when testing the robot side (see CoprocessorMonitor).
+   */
+  private static void runSynthetic(TargetPublisher publisher, double framesPerSecond) throws InterruptedException {
+    Target target = new Target();
+    long startTime = System.nanoTime();
+    for (long frame = 1; ; frame++) {
+      // pretend the frame was captured one frame ago
+      double now = Timer.getFPGATimestamp();
+      double captureTimestamp = now - 1.0 / framesPerSecond;
+      double phase = (captureTimestamp % SYNTHETIC_PERIOD_SECONDS) / SYNTHETIC_PERIOD_SECONDS;
+      boolean found = phase * SYNTHETIC_PERIOD_SECONDS >= SYNTHETIC_LOST_SECONDS_PER_PERIOD;
+      double errorInDegreesX = SYNTHETIC_SWEEP_DEGREES * Math.sin(2 * Math.PI * phase);
+      target.set((long) (frame * 1e6 / framesPerSecond), captureTimestamp, found, found ? errorInDegreesX : 0,
+                 0, found ? SYNTHETIC_DISTANCE_METERS : 0, 0, 0);
+      publisher.publish(target, now);
+      sleepUntil(startTime + (long) (frame * 1e9 / framesPerSecond));
+    }
+  }
+
+  private static void sleepUntil(long nanoTime) throws InterruptedException {
+    long nanosLeft = nanoTime - System.nanoTime();
+    if (nanosLeft > 0) {
+      Thread.sleep(nanosLeft / 1000000, (int) (nanosLeft % 1000000));
+    }
+  }
+}
@@ -0,0 +1,294 @@
+package org.usfirst.frc.team1787.robot.tools;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.opencv.core.Core;
+import org.usfirst.frc.team1787.robot.vision.FrameSource;
+import org.usfirst.frc.team1787.robot.vision.ImageFolderFrameSource;
+import org.usfirst.frc.team1787.robot.vision.ImageProcessor;
+import org.usfirst.frc.team1787.robot.vision.MatTracker;
+import org.usfirst.frc.team1787.robot.vision.Target;
+import org.usfirst.frc.team1787.robot.vision.VideoFileFrameSource;
+import org.usfirst.frc.team1787.robot.vision.VisionStats;
+
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * A command line program that runs recorded frames through the vision pipeline as fast as possible.
+ * It doesn't need a camera or a RIO, just a computer with OpenCV installed, so vision can be 
+ * tested and profiled between events. Run it like this:
+ * 
+ * java -Djava.library.path=[folder with the opencv native library] -cp [classpath] 
+ *      org.usfirst.frc.team1787.robot.tools.VisionReplay [folder of images or video file] [options]
+ * 
+ * Options:
+ * --fps [number]  the frame rate a folder of images was recorded at (default 30)
+ * --lut           use the lookup table HSV filter (see HsvThresholdTable)
+ * --components    find candidates with connected components instead of contours (see ConnectedComponentsExtractor)
+ * --no-roi        always search the full frame (see ImageProcessor.setROITrackingEnabled())
+ * --pyramid       search a shrunk down copy of each frame, then measure the target at full size
+ *                 (see ImageProcessor.setPyramidEnabled(), only useful for recordings bigger than 160x120)
+ * --subpixel      find the target's centroid from the brightness of its pixels (see ImageProcessor.setSubPixelCentroidEnabled())
+ * --skip-static   skip frames that look the same as the last processed one (see ImageProcessor.setStaticFrameSkipEnabled()).
+ *                 There's no robot to ask, so the recording is treated as if the robot was standing still the whole time.
+ * --leak-check    watch the native memory held by Mats (see MatTracker) over the run, and exit with an error code
+ *                 if it keeps growing (so a script or build server can fail on it). Use a long recording,
+ *                 at least a few thousand frames.
+ * --quiet         don't print the target found in each frame, only the summary at the end
+ * 
+ * The summary includes how much the target's position jitters from frame to frame. So that a target that's 
+ * moving steadily doesn't count as jitter, it's measured from the second difference of each value
+ * (x[i] - 2*x[i-1] + x[i-2], which is 0 for anything moving at a constant speed) over runs of frames where
+ * the target was found. For random noise with a standard deviation of s, the second difference has a 
+ * standard deviation of s*sqrt(6), so that's divided back out to estimate s. Compare runs with and without
+ * --subpixel on the same recording to see how much it helps.
+ */
+public class VisionReplay {
+  
+  /* Leak Check
+   * Every LEAK_SAMPLE_INTERVAL_FRAMES (after the first LEAK_WARMUP_FRAMES, while buffers are still being
+   * filled in for the first time), the garbage collector is run and the Mats that are still live are counted.
+   * Some of that goes up and down from frame to frame (i.e. the number of contours in the last frame),
+   * but a leak only ever goes up. So it's a leak if the smallest sample from the last quarter of the run
+   * is bigger than the biggest sample from the first quarter, by more than the tolerance. */
+  private static final int LEAK_WARMUP_FRAMES = 100;
+  private static final int LEAK_SAMPLE_INTERVAL_FRAMES = 50;
+  private static final int LEAK_MIN_SAMPLES = 8;
+  private static final int LEAK_TOLERANCE_MATS = 64;
+  private static final long LEAK_TOLERANCE_BYTES = 256 * 1024;
+  private static final int LEAK_EXIT_CODE = 2;
+  
+  public static void main(String[] args) {
+    if (args.length == 0) {
+      System.out.println("Usage: VisionReplay [folder of images or video file] [--fps number] [--lut] [--components] [--no-roi] [--pyramid] [--subpixel] [--skip-static] [--leak-check] [--quiet]");
+      return;
+    }
+    
+    String path = args[0];
+    double framesPerSecond = 30;
+    boolean quiet = false;
+    boolean useLookupTable = false;
+    boolean useConnectedComponents = false;
+    boolean useROITracking = true;
+    boolean skipStaticFrames = false;
+    boolean usePyramid = false;
+    boolean useSubPixelCentroid = false;
+    boolean checkForLeaks = false;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("--fps")) {
+        framesPerSecond = Double.parseDouble(args[++i]);
+      } else if (args[i].equals("--lut")) {
+        useLookupTable = true;
+      } else if (args[i].equals("--components")) {
+        useConnectedComponents = true;
+      } else if (args[i].equals("--no-roi")) {
+        useROITracking = false;
+      } else if (args[i].equals("--pyramid")) {
+        usePyramid = true;
+      } else if (args[i].equals("--subpixel")) {
+        useSubPixelCentroid = true;
+      } else if (args[i].equals("--skip-static")) {
+        skipStaticFrames = true;
+      } else if (args[i].equals("--leak-check")) {
+        checkForLeaks = true;
+        // (so the Mats made every frame are counted too, see MatTracker)
+        MatTracker.setPerFrameTrackingEnabled(true);
+      } else if (args[i].equals("--quiet")) {
+        quiet = true;
+      } else {
+        System.out.println("Unknown option: " + args[i]);
+        return;
+      }
+    }
+    
+    // on the RIO, these are taken care of by WPILib.
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    Timer.SetImplementation(new DesktopTimer());
+    
+    File file = new File(path);
+    FrameSource frameSource;
+    if (file.isDirectory()) {
+      frameSource = new ImageFolderFrameSource(file, framesPerSecond);
+    } else {
+      frameSource = new VideoFileFrameSource(path);
+    }
+    
+    ImageProcessor imgProcessor = ImageProcessor.getInstance();
+    imgProcessor.setFrameSource(frameSource);
+    imgProcessor.setLookupTableEnabled(useLookupTable);
+    imgProcessor.setConnectedComponentsEnabled(useConnectedComponents);
+    imgProcessor.setROITrackingEnabled(useROITracking);
+    imgProcessor.setPyramidEnabled(usePyramid);
+    imgProcessor.setSubPixelCentroidEnabled(useSubPixelCentroid);
+    imgProcessor.setStaticFrameSkipEnabled(skipStaticFrames);
+    imgProcessor.setStationaryCheck(() -> true);
+    
+    int numOfStages = ImageProcessor.STAGE_NAMES.length;
+    long[] totalStageNanos = new long[numOfStages];
+    int framesProcessed = 0;
+    int targetsFound = 0;
+    long lastFrameTime = 0;
+    
+    // samples of the live Mats (see Leak Check above)
+    MatTracker.Snapshot firstLeakSample = new MatTracker.Snapshot();
+    MatTracker.Snapshot leakSample = new MatTracker.Snapshot();
+    ArrayList<Integer> liveMatSamples = new ArrayList<Integer>();
+    ArrayList<Long> liveByteSamples = new ArrayList<Long>();
+    
+    // jitter of centerX, centerY, and errorInDegreesX (see the comment at the top)
+    JitterMeter[] jitter = {new JitterMeter(), new JitterMeter(), new JitterMeter()};
+    
+    if (!quiet) {
+      System.out.println("frame,frameTime,found,errorInDegreesX,errorInDegreesY,distance,centerX,centerY");
+    }
+    
+    Target target = new Target();
+    long startTime = System.nanoTime();
+    while (frameSource.hasMoreFrames()) {
+      imgProcessor.runVisionProcessing();
+      
+      imgProcessor.getCurrentTarget(target);
+      if (target.getFrameTime() == lastFrameTime) {
+        // no new frame was processed (i.e. the recording just ran out)
+        continue;
+      }
+      lastFrameTime = target.getFrameTime();
+      
+      for (int stage = 0; stage < numOfStages; stage++) {
+        long stageNanos = imgProcessor.getLastStageNanos(stage);
+        totalStageNanos[stage] += stageNanos;
+      }
+      if (target.isFound()) {
+        targetsFound++;
+        jitter[0].record(target.getCenterX());
+        jitter[1].record(target.getCenterY());
+        jitter[2].record(target.getErrorInDegreesX());
+      } else {
+        for (JitterMeter meter : jitter) {
+          meter.breakRun();
+        }
+      }
+      
+      if (!quiet) {
+        System.out.printf("%d,%d,%b,%.3f,%.3f,%.3f,%.2f,%.2f%n", framesProcessed, target.getFrameTime(), target.isFound(),
+            target.getErrorInDegreesX(), target.getErrorInDegreesY(), target.getHorizontalDistance(),
+            target.getCenterX(), target.getCenterY());
+      }
+      framesProcessed++;
+      
+      if (checkForLeaks && framesProcessed >= LEAK_WARMUP_FRAMES 
+          && (framesProcessed - LEAK_WARMUP_FRAMES) % LEAK_SAMPLE_INTERVAL_FRAMES == 0) {
+        collectGarbage();
+        MatTracker.Snapshot sample = liveMatSamples.isEmpty() ? firstLeakSample : leakSample;
+        MatTracker.getSnapshot(sample);
+        liveMatSamples.add(sample.getTotalLive());
+        liveByteSamples.add(sample.getTotalBytes());
+      }
+    }
+    double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+    
+    System.out.println();
+    System.out.printf("Processed %d frames in %.2f seconds (%.1f frames/second), found a target in %d of them%n",
+        framesProcessed, elapsedSeconds, framesProcessed / elapsedSeconds, targetsFound);
+    
+    System.out.printf("Jitter (estimated std dev, from %d samples): centerX = %.3f px, centerY = %.3f px, "
+        + "errorInDegreesX = %.3f degrees%n", jitter[0].getNumOfSamples(), jitter[0].getStandardDeviation(),
+        jitter[1].getStandardDeviation(), jitter[2].getStandardDeviation());
+    
+    // the averages are over the whole run (skipped frames count as 0 for the stages they skipped),
+    // the percentiles are over the stats window (the last few hundred frames)
+    VisionStats.Snapshot snapshot = new VisionStats.Snapshot(numOfStages);
+    imgProcessor.getStats().getSnapshot(snapshot);
+    System.out.printf("Frames skipped (unchanged): %d, repeated: %d, dropped: %d, grab timeouts: %d%n",
+        snapshot.getFramesSkipped(), snapshot.getFramesRepeated(), snapshot.getFramesDropped(), snapshot.getGrabTimeouts());
+    System.out.printf("  %-12s %9s %9s %9s %9s %9s   (ms)%n", "stage", "average", "p50", "p95", "p99", "max");
+    for (int stage = 0; stage < numOfStages; stage++) {
+      double averageMillis = (framesProcessed > 0) ? totalStageNanos[stage] / 1e6 / framesProcessed : 0;
+      System.out.printf("  %-12s %9.3f %9.3f %9.3f %9.3f %9.3f%n", ImageProcessor.STAGE_NAMES[stage], averageMillis,
+          snapshot.getP50Nanos(stage) / 1e6, snapshot.getP95Nanos(stage) / 1e6, 
+          snapshot.getP99Nanos(stage) / 1e6, snapshot.getMaxNanos(stage) / 1e6);
+    }
+    
+    if (checkForLeaks && !checkLeakSamples(liveMatSamples, liveByteSamples, firstLeakSample, leakSample)) {
+      System.exit(LEAK_EXIT_CODE);
+    }
+  }
+  
+  /** @return false if the samples show a leak (see Leak Check above), true otherwise. */
+  private static boolean checkLeakSamples(ArrayList<Integer> liveMats, ArrayList<Long> liveBytes, 
+                                          MatTracker.Snapshot first, MatTracker.Snapshot last) {
+    System.out.println();
+    if (liveMats.size() < LEAK_MIN_SAMPLES) {
+      System.out.printf("Leak check: only %d samples, at least %d are needed (that's %d frames)%n", liveMats.size(),
+          LEAK_MIN_SAMPLES, LEAK_WARMUP_FRAMES + (LEAK_MIN_SAMPLES - 1) * LEAK_SAMPLE_INTERVAL_FRAMES);
+      return true;
+    }
+    
+    int quarter = liveMats.size() / 4;
+    int maxEarlyMats = Integer.MIN_VALUE;
+    long maxEarlyBytes = Long.MIN_VALUE;
+    for (int i = 0; i < quarter; i++) {
+      maxEarlyMats = Math.max(maxEarlyMats, liveMats.get(i));
+      maxEarlyBytes = Math.max(maxEarlyBytes, liveBytes.get(i));
+    }
+    int minLateMats = Integer.MAX_VALUE;
+    long minLateBytes = Long.MAX_VALUE;
+    for (int i = liveMats.size() - quarter; i < liveMats.size(); i++) {
+      minLateMats = Math.min(minLateMats, liveMats.get(i));
+      minLateBytes = Math.min(minLateBytes, liveBytes.get(i));
+    }
+    
+    int matGrowth = minLateMats - maxEarlyMats;
+    long byteGrowth = minLateBytes - maxEarlyBytes;
+    boolean leaking = matGrowth > LEAK_TOLERANCE_MATS || byteGrowth > LEAK_TOLERANCE_BYTES;
+    System.out.printf("Leak check: %d samples, live Mats grew by %d (tolerance %d), live bytes grew by %d "
+        + "(tolerance %d) from the first quarter of the run to the last%n",
+        liveMats.size(), Math.max(0, matGrowth), LEAK_TOLERANCE_MATS, Math.max(0, byteGrowth), LEAK_TOLERANCE_BYTES);
+    System.out.println("Mats by site at the last sample (with the change since the first sample):");
+    last.print(System.out, first);
+    System.out.println(leaking ? "LEAK: native memory kept growing during the run" : "No leaks found");
+    return !leaking;
+  }
+  
+  /** Runs the garbage collector (and the finalizers, which are what free the native memory of collected Mats). */
+  private static void collectGarbage() {
+    for (int i = 0; i < 2; i++) {
+      System.gc();
+      System.runFinalization();
+    }
+  }
+  
+  /** Estimates the noise in a value from its second differences (see the comment at the top). */
+  private static class JitterMeter {
+    private double previous = 0;
+    private double beforePrevious = 0;
+    private int run = 0; // how many values in a row have been recorded
+    private double sumOfSquares = 0;
+    private int numOfSamples = 0;
+    
+    void record(double value) {
+      if (run >= 2) {
+        double secondDifference = value - 2 * previous + beforePrevious;
+        sumOfSquares += secondDifference * secondDifference;
+        numOfSamples++;
+      }
+      beforePrevious = previous;
+      previous = value;
+      run++;
+    }
+    
+    /** Starts a new run (i.e. when the target is lost), so the values on either side of the gap aren't compared. */
+    void breakRun() {
+      run = 0;
+    }
+    
+    int getNumOfSamples() {
+      return numOfSamples;
+    }
+    
+    double getStandardDeviation() {
+      return (numOfSamples > 0) ? Math.sqrt(sumOfSquares / numOfSamples / 6) : 0;
+    }
+  }
+}
@@ -0,0 +1,218 @@
+package org.usfirst.frc.team1787.robot.tools;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.usfirst.frc.team1787.robot.vision.CameraController;
+import org.usfirst.frc.team1787.robot.vision.FrameSource;
+import org.usfirst.frc.team1787.robot.vision.ImageProcessor;
+import org.usfirst.frc.team1787.robot.vision.MatTracker;
+import org.usfirst.frc.team1787.robot.vision.Target;
+
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * A command line program that runs the vision pipeline for a long time (10,000 frames by default, about
+ * 5.5 minutes of camera time) and checks that its memory use stays flat, which is what reusing the Mats,
+ * contour lists and Targets across frames is supposed to guarantee. Run it like this:
+ *
+ * java -Djava.library.path=[folder with the opencv native library] -cp [classpath]
+ *      org.usfirst.frc.team1787.robot.tools.VisionSoakTest [number of frames] [--lut] [--components] [--subpixel]
+ *
+ * The frames are drawn ahead of time (a target sweeping back and forth across the frame, which disappears
+ * for a few frames every so often, so the search window gets lost and found again), and are handed to the
+ * pipeline over and over with new frameTimes. Every SAMPLE_INTERVAL_FRAMES frames, the garbage collector is run and
+ * three things are measured:
+ *
+ * 1) native memory: the Mats that are still live, and how many bytes they're holding (see MatTracker)
+ * 2) java heap: how much of the heap is still used after the collection
+ * 3) java allocations: how many bytes the pipeline allocated per frame since the last sample
+ *    (OpenCV's java code makes a few small objects per frame, i.e. for submats, so this isn't 0,
+ *    but it shouldn't go up)
+ *
+ * The first sample is taken after WARMUP_FRAMES, once every buffer has been filled in for the first time.
+ * If any of the three grew by more than its tolerance between the first sample and the last one,
+ * it prints what grew, and exits with code 1 (so a script or build server can fail on it).
+ */
+public class VisionSoakTest {
+
+  private static final int DEFAULT_FRAMES = 10000;
+  private static final int WARMUP_FRAMES = 500;
+  private static final int SAMPLE_INTERVAL_FRAMES = 1000;
+  private static final int CYCLE_FRAMES = 90; // frames drawn ahead of time, played over and over
+  private static final int HIDDEN_FRAMES = 10; // the last few frames of each cycle have no target
+
+  private static final int MAX_LIVE_MAT_GROWTH = 16;
+  private static final long MAX_NATIVE_BYTE_GROWTH = 64 * 1024;
+  private static final long MAX_HEAP_GROWTH = 1024 * 1024;
+  private static final double MAX_ALLOCATION_GROWTH_RATIO = 1.25; // bytes per frame, last sample vs first
+  private static final double ALLOCATION_NOISE_BYTES_PER_FRAME = 64;
+
+  // a BGR color that passes through the ImageProcessor's default HSV filter (H = 87, S = 234, V = 120)
+  private static final Scalar TARGET_COLOR_BGR = new Scalar(110, 120, 10);
+  private static final Scalar BACKGROUND_COLOR_BGR = new Scalar(40, 40, 40);
+  private static final int TARGET_WIDTH_PIXELS = 30;
+  private static final int TARGET_HEIGHT_PIXELS = 8; // (about the 15:4 shape of the real tape)
+
+  private static final com.sun.management.ThreadMXBean threadMXBean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  private static final MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+
+  public static void main(String[] args) {
+    int numOfFrames = DEFAULT_FRAMES;
+    boolean useLookupTable = false;
+    boolean useConnectedComponents = false;
+    boolean useSubPixelCentroid = false;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--lut")) {
+        useLookupTable = true;
+      } else if (args[i].equals("--components")) {
+        useConnectedComponents = true;
+      } else if (args[i].equals("--subpixel")) {
+        useSubPixelCentroid = true;
+      } else {
+        numOfFrames = Integer.parseInt(args[i]);
+      }
+    }
+    if (numOfFrames < WARMUP_FRAMES + 2 * SAMPLE_INTERVAL_FRAMES) {
+      System.out.println("Run at least " + (WARMUP_FRAMES + 2 * SAMPLE_INTERVAL_FRAMES) + " frames");
+      return;
+    }
+
+    // on the RIO, these are taken care of by WPILib.
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    Timer.SetImplementation(new DesktopTimer());
+    // (so the Mats made every frame are counted too, see MatTracker)
+    MatTracker.setPerFrameTrackingEnabled(true);
+
+    CycleFrameSource frameSource = new CycleFrameSource();
+    ImageProcessor imgProcessor = ImageProcessor.getInstance();
+    imgProcessor.setFrameSource(frameSource);
+    imgProcessor.setLookupTableEnabled(useLookupTable);
+    imgProcessor.setConnectedComponentsEnabled(useConnectedComponents);
+    imgProcessor.setSubPixelCentroidEnabled(useSubPixelCentroid);
+
+    long threadId = Thread.currentThread().getId();
+    Target target = new Target();
+    MatTracker.Snapshot firstSnapshot = new MatTracker.Snapshot();
+    MatTracker.Snapshot lastSnapshot = new MatTracker.Snapshot();
+    boolean haveFirstSample = false;
+    long firstHeapBytes = 0;
+    long lastHeapBytes = 0;
+    double firstAllocatedPerFrame = 0;
+    double lastAllocatedPerFrame = 0;
+    long allocatedAtLastSample = 0;
+    int targetsFound = 0;
+
+    System.out.printf("%8s %10s %14s %12s %18s%n", "frame", "live Mats", "native bytes", "heap bytes", "allocated/frame");
+    for (int frame = 1; frame <= numOfFrames; frame++) {
+      imgProcessor.runVisionProcessing();
+      if (imgProcessor.getCurrentTarget(target).isFound()) {
+        targetsFound++;
+      }
+
+      if (frame == WARMUP_FRAMES) {
+        allocatedAtLastSample = threadMXBean.getThreadAllocatedBytes(threadId);
+      } else if (frame > WARMUP_FRAMES && (frame - WARMUP_FRAMES) % SAMPLE_INTERVAL_FRAMES == 0) {
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+        double allocatedPerFrame = (allocated - allocatedAtLastSample) / (double) SAMPLE_INTERVAL_FRAMES;
+        collectGarbage();
+        long heapBytes = memoryMXBean.getHeapMemoryUsage().getUsed();
+        MatTracker.Snapshot snapshot = haveFirstSample ? lastSnapshot : firstSnapshot;
+        MatTracker.getSnapshot(snapshot);
+        System.out.printf("%8d %10d %14d %12d %18.1f%n", frame, snapshot.getTotalLive(), snapshot.getTotalBytes(),
+                          heapBytes, allocatedPerFrame);
+
+        if (!haveFirstSample) {
+          haveFirstSample = true;
+          firstHeapBytes = heapBytes;
+          firstAllocatedPerFrame = allocatedPerFrame;
+        }
+        lastHeapBytes = heapBytes;
+        lastAllocatedPerFrame = allocatedPerFrame;
+        // (measured after the collection and the snapshot, so neither counts towards the next sample)
+        allocatedAtLastSample = threadMXBean.getThreadAllocatedBytes(threadId);
+      }
+    }
+    System.out.printf("Processed %d frames, found a target in %d of them (%d of every %d frames have one)%n",
+                      numOfFrames, targetsFound, CYCLE_FRAMES - HIDDEN_FRAMES, CYCLE_FRAMES);
+
+    boolean passed = true;
+    int matGrowth = lastSnapshot.getTotalLive() - firstSnapshot.getTotalLive();
+    long nativeByteGrowth = lastSnapshot.getTotalBytes() - firstSnapshot.getTotalBytes();
+    if (matGrowth > MAX_LIVE_MAT_GROWTH || nativeByteGrowth > MAX_NATIVE_BYTE_GROWTH) {
+      System.out.printf("Native memory grew: %+d live Mats (tolerance %d), %+d bytes (tolerance %d)%n",
+                        matGrowth, MAX_LIVE_MAT_GROWTH, nativeByteGrowth, MAX_NATIVE_BYTE_GROWTH);
+      lastSnapshot.print(System.out, firstSnapshot);
+      passed = false;
+    }
+    if (lastHeapBytes - firstHeapBytes > MAX_HEAP_GROWTH) {
+      System.out.printf("The java heap grew by %d bytes (tolerance %d)%n", lastHeapBytes - firstHeapBytes,
+                        MAX_HEAP_GROWTH);
+      passed = false;
+    }
+    if (lastAllocatedPerFrame > firstAllocatedPerFrame * MAX_ALLOCATION_GROWTH_RATIO + ALLOCATION_NOISE_BYTES_PER_FRAME) {
+      System.out.printf("Allocations per frame went up: %.1f bytes, from %.1f%n", lastAllocatedPerFrame,
+                        firstAllocatedPerFrame);
+      passed = false;
+    }
+    System.out.println(passed ? "PASSED: memory use stayed flat" : "FAILED: memory use kept growing");
+    System.exit(passed ? 0 : 1);
+  }
+
+  /** Runs the garbage collector (and the finalizers, which are what free the native memory of collected Mats). */
+  private static void collectGarbage() {
+    for (int i = 0; i < 2; i++) {
+      System.gc();
+      System.runFinalization();
+    }
+  }
+
+  /** Draws CYCLE_FRAMES frames once, then hands them out over and over, with a new frameTime each time. */
+  private static class CycleFrameSource implements FrameSource {
+    private final Mat[] frames = new Mat[CYCLE_FRAMES];
+    private int nextFrame = 0;
+    private long frameTime = 0;
+
+    CycleFrameSource() {
+      int width = CameraController.IMAGE_WIDTH_PIXELS;
+      int height = CameraController.IMAGE_HEIGHT_PIXELS;
+      Mat noise = new Mat(height, width, CvType.CV_8UC3);
+      for (int i = 0; i < CYCLE_FRAMES; i++) {
+        frames[i] = new Mat(height, width, CvType.CV_8UC3, BACKGROUND_COLOR_BGR);
+        if (i < CYCLE_FRAMES - HIDDEN_FRAMES) {
+          // the target sweeps across (and a little up and down), so the search window has to follow it
+          double sweep = Math.sin(2 * Math.PI * i / (CYCLE_FRAMES - HIDDEN_FRAMES));
+          double x = (width - TARGET_WIDTH_PIXELS) / 2.0 * (1 + 0.9 * sweep);
+          double y = height / 3.0 + 10 * Math.cos(2 * Math.PI * i / (CYCLE_FRAMES - HIDDEN_FRAMES));
+          Imgproc.rectangle(frames[i], new Point(x, y), new Point(x + TARGET_WIDTH_PIXELS, y + TARGET_HEIGHT_PIXELS),
+                         TARGET_COLOR_BGR, Core.FILLED);
+        }
+        // a little bit of noise, so the edges of the target (and the number of contours) change from frame to frame
+        // (8 bit pixels can't go negative, so the noise only ever brightens, which is fine for this)
+        Core.randu(noise, 0, 12);
+        Core.add(frames[i], noise, frames[i]);
+      }
+      noise.release();
+    }
+
+    @Override
+    public long grabFrame(Mat destination) {
+      frames[nextFrame].copyTo(destination);
+      nextFrame = (nextFrame + 1) % CYCLE_FRAMES;
+      frameTime += 1000000 / CameraController.FRAMES_PER_SECOND;
+      return frameTime;
+    }
+
+    @Override
+    public boolean hasMoreFrames() {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package org.usfirst.frc.team1787.robot.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how many times something took each amount of time, so the median, the 99th percentile, etc. can be found.
+ *
+ * Unlike the RollingHistogram, this never locks anything: recording a time is just adding 1 to a counter
+ * (with an atomic instruction), so a thread that's recording times never has to wait on a thread that's reading them.
+ * That's what makes it OK to use for timing the main loop itself (see LoopProfiler).
+ * The catch is that it doesn't keep the times themselves, just which "bucket" each one fell into,
+ * so percentiles are only accurate to within 1/SUB_BUCKETS of the actual value (about 12%), and it counts
+ * every time since it was made (or reset), not just the recent ones. The max is exact.
+ *
+ * Buckets are in microseconds: times under SUB_BUCKETS microseconds each get their own bucket,
+ * and after that every power of 2 is split into SUB_BUCKETS buckets (so 8-9, 9-10, ..., 15-16, 16-18, 18-20, ...).
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int NUM_OF_BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+  private final AtomicLongArray buckets = new AtomicLongArray(NUM_OF_BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  public void record(long nanos) {
+    long micros = Math.max(0, nanos / 1000);
+    buckets.incrementAndGet(getBucket(micros));
+    count.incrementAndGet();
+    long max = maxNanos.get();
+    while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+      max = maxNanos.get();
+    }
+  }
+
+  private static int getBucket(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int powerOf2 = 63 - Long.numberOfLeadingZeros(micros);
+    int subBucket = (int) (micros >> (powerOf2 - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS * (powerOf2 - SUB_BUCKET_BITS + 1) + subBucket;
+  }
+
+  /** @return The end of the given bucket (in microseconds), i.e. every time in the bucket was shorter than this. */
+  private static long getBucketEndMicros(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket + 1;
+    }
+    int group = bucket / SUB_BUCKETS;
+    int subBucket = bucket % SUB_BUCKETS;
+    return (long) (SUB_BUCKETS + subBucket + 1) << (group - 1);
+  }
+
+  /**
+   * @param percentile A number in [0, 100] (i.e. 50 for the median, 99 for the 99th percentile).
+   * @return The given percentile (in nanoseconds, rounded up to the end of its bucket and never more than the max),
+   * or 0 if no times have been recorded.
+   */
+  public long getPercentile(double percentile) {
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+    // "nearest rank" method, same as the RollingHistogram.
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+    long seen = 0;
+    for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(getBucketEndMicros(i) * 1000, maxNanos.get());
+      }
+    }
+    // (a time was counted but its bucket hasn't been updated yet, because it's being recorded right now)
+    return maxNanos.get();
+  }
+
+  public long getMax() {
+    return maxNanos.get();
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  /** Forgets every time recorded so far. Times being recorded while this runs might be half forgotten. */
+  public void reset() {
+    for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    maxNanos.set(0);
+  }
+}
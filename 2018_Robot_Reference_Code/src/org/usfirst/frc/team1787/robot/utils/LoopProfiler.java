@@ -0,0 +1,286 @@
+package org.usfirst.frc.team1787.robot.utils;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Times each section of the main loop (driving, the shooter, telemetry, etc.), to find out when the loop
+ * takes longer than its period (an "overrun", which makes the next loop start late) and which section is to blame.
+ *
+ * How to use it (see Robot):
+ * 1) Call startLoop() at the start of each periodic() function.
+ * 2) Call endSection() after each section; the time since the last call (or since startLoop()) goes to that section.
+ * 3) Call endLoop() at the very end (the end of robotPeriodic()).
+ *
+ * For the loop as a whole and for each section, the times go into a LatencyHistogram, which never locks anything.
+ * The LOOPS_KEPT slowest loops are also kept, with how long each of their sections took.
+ * All of it can be read from any thread, at any time, without ever making the main loop wait:
+ * each kept loop has a version number that's odd while the main loop is changing it, and readers just try again
+ * if it was odd, or changed while they were copying it. Timing a loop doesn't allocate anything
+ * (reading the slowest loops does, so do it while disabled, or on another thread).
+ *
+ * TimedRobot updates the SmartDashboard and LiveWindow values after robotPeriodic(), so that part isn't in the
+ * loop time. If it (or the garbage collector) makes loops late, it shows up in the loop period instead
+ * (the time from the start of one loop to the start of the next).
+ *
+ * The loop functions are meant to be called by the main robot thread only.
+ */
+public class LoopProfiler {
+
+  public static final int LOOPS_KEPT = 10;
+
+  private final String[] sectionNames;
+  private final long periodNanos;
+
+  private final LatencyHistogram loopTimes = new LatencyHistogram();
+  private final LatencyHistogram loopPeriods = new LatencyHistogram();
+  private final LatencyHistogram[] sectionTimes;
+  private volatile long loops = 0;
+  private volatile long overruns = 0;
+
+  // the loop that's running now (only touched by the main thread)
+  private long loopStartNanos = -1;
+  private long lastStartNanos = -1;
+  private long lastMarkNanos = 0;
+  private final long[] currentSectionNanos; // (-1 for sections that haven't run this loop)
+
+  /* The slowest loops so far, in no particular order. Each one takes up RECORD_HEADER_SIZE + (number of sections)
+   * spots in the array: its version, total time, timestamp (as bits), loop number, and then each section's time.
+   * Everything's read and written atomically, so a reader that sees the same even version before and after
+   * copying a loop is guaranteed to have a copy that isn't half old and half new. */
+  private static final int VERSION = 0;
+  private static final int TOTAL_NANOS = 1;
+  private static final int TIMESTAMP_BITS = 2;
+  private static final int LOOP_NUMBER = 3;
+  private static final int RECORD_HEADER_SIZE = 4;
+  private final int recordSize;
+  private final AtomicLongArray slowestLoops;
+  private final long[] keptNanos = new long[LOOPS_KEPT]; // (the main thread's copy of each kept loop's total time)
+  private long fastestKeptNanos = 0;
+
+  /**
+   * @param sectionNames What each section is called. Section numbers (for endSection()) are indexes into this array.
+   * @param periodSeconds How often the loop is supposed to run (see TimedRobot.setPeriod()).
+   */
+  public LoopProfiler(String[] sectionNames, double periodSeconds) {
+    this.sectionNames = sectionNames.clone();
+    periodNanos = (long) (periodSeconds * 1e9);
+    sectionTimes = new LatencyHistogram[sectionNames.length];
+    for (int i = 0; i < sectionTimes.length; i++) {
+      sectionTimes[i] = new LatencyHistogram();
+    }
+    currentSectionNanos = new long[sectionNames.length];
+    recordSize = RECORD_HEADER_SIZE + sectionNames.length;
+    slowestLoops = new AtomicLongArray(LOOPS_KEPT * recordSize);
+  }
+
+  public void startLoop() {
+    long now = System.nanoTime();
+    if (lastStartNanos >= 0) {
+      loopPeriods.record(now - lastStartNanos);
+    }
+    lastStartNanos = now;
+    loopStartNanos = now;
+    lastMarkNanos = now;
+    Arrays.fill(currentSectionNanos, -1);
+  }
+
+  /** Counts the time since the last section ended (or since the loop started) towards the given section. */
+  public void endSection(int section) {
+    if (loopStartNanos < 0) {
+      return;
+    }
+    long now = System.nanoTime();
+    // (a section can end more than once in a loop, it all adds up)
+    currentSectionNanos[section] = Math.max(0, currentSectionNanos[section]) + (now - lastMarkNanos);
+    lastMarkNanos = now;
+  }
+
+  public void endLoop() {
+    if (loopStartNanos < 0) {
+      return;
+    }
+    long loopNanos = System.nanoTime() - loopStartNanos;
+    loopStartNanos = -1;
+    loopTimes.record(loopNanos);
+    for (int i = 0; i < currentSectionNanos.length; i++) {
+      if (currentSectionNanos[i] >= 0) {
+        sectionTimes[i].record(currentSectionNanos[i]);
+      }
+    }
+    loops++;
+    if (loopNanos > periodNanos) {
+      overruns++;
+    }
+
+    if (loopNanos > fastestKeptNanos) {
+      keepLoop(loopNanos);
+    }
+  }
+
+  /** Replaces the fastest of the kept loops with this one. */
+  private void keepLoop(long loopNanos) {
+    int fastest = 0;
+    for (int i = 1; i < LOOPS_KEPT; i++) {
+      if (keptNanos[i] < keptNanos[fastest]) {
+        fastest = i;
+      }
+    }
+    keptNanos[fastest] = loopNanos;
+    int start = fastest * recordSize;
+    long version = slowestLoops.get(start + VERSION);
+    slowestLoops.set(start + VERSION, version + 1); // (odd = being changed)
+    slowestLoops.set(start + TOTAL_NANOS, loopNanos);
+    slowestLoops.set(start + TIMESTAMP_BITS, Double.doubleToLongBits(Timer.getFPGATimestamp()));
+    slowestLoops.set(start + LOOP_NUMBER, loops);
+    for (int i = 0; i < currentSectionNanos.length; i++) {
+      slowestLoops.set(start + RECORD_HEADER_SIZE + i, currentSectionNanos[i]);
+    }
+    slowestLoops.set(start + VERSION, version + 2);
+
+    fastestKeptNanos = Long.MAX_VALUE;
+    for (int i = 0; i < LOOPS_KEPT; i++) {
+      fastestKeptNanos = Math.min(fastestKeptNanos, keptNanos[i]);
+    }
+  }
+
+  /**
+   * Copies the slowest loops so far, slowest first. Safe to call from any thread, and it never makes the
+   * main loop wait (if the main loop changes a loop while it's being copied, it just gets copied again).
+   */
+  public LoopRecord[] getSlowestLoops() {
+    LoopRecord[] copies = new LoopRecord[LOOPS_KEPT];
+    int numOfCopies = 0;
+    for (int i = 0; i < LOOPS_KEPT; i++) {
+      int start = i * recordSize;
+      LoopRecord copy = new LoopRecord(sectionNames.length);
+      long versionBefore;
+      long versionAfter;
+      do {
+        versionBefore = slowestLoops.get(start + VERSION);
+        copy.totalNanos = slowestLoops.get(start + TOTAL_NANOS);
+        copy.timestamp = Double.longBitsToDouble(slowestLoops.get(start + TIMESTAMP_BITS));
+        copy.loopNumber = slowestLoops.get(start + LOOP_NUMBER);
+        for (int j = 0; j < sectionNames.length; j++) {
+          copy.sectionNanos[j] = slowestLoops.get(start + RECORD_HEADER_SIZE + j);
+        }
+        versionAfter = slowestLoops.get(start + VERSION);
+      } while (versionBefore % 2 != 0 || versionBefore != versionAfter);
+      if (copy.totalNanos > 0) {
+        copies[numOfCopies++] = copy;
+      }
+    }
+    copies = Arrays.copyOf(copies, numOfCopies);
+    Arrays.sort(copies, (a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+    return copies;
+  }
+
+  /** Forgets everything (histograms, counts, and the slowest loops). Call it from the main thread, between loops. */
+  public void reset() {
+    loopTimes.reset();
+    loopPeriods.reset();
+    for (LatencyHistogram histogram : sectionTimes) {
+      histogram.reset();
+    }
+    loops = 0;
+    overruns = 0;
+    lastStartNanos = -1;
+    for (int i = 0; i < LOOPS_KEPT; i++) {
+      int start = i * recordSize;
+      long version = slowestLoops.get(start + VERSION);
+      slowestLoops.set(start + VERSION, version + 1);
+      slowestLoops.set(start + TOTAL_NANOS, 0);
+      slowestLoops.set(start + VERSION, version + 2);
+      keptNanos[i] = 0;
+    }
+    fastestKeptNanos = 0;
+  }
+
+  public long getLoops() {
+    return loops;
+  }
+
+  public long getOverruns() {
+    return overruns;
+  }
+
+  public LatencyHistogram getLoopTimes() {
+    return loopTimes;
+  }
+
+  public LatencyHistogram getLoopPeriods() {
+    return loopPeriods;
+  }
+
+  public LatencyHistogram getSectionTimes(int section) {
+    return sectionTimes[section];
+  }
+
+  public void publishDataToSmartDash() {
+    TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
+    telemetry.putNumber("Loop Time p50 (ms)", loopTimes.getPercentile(50) / 1e6);
+    telemetry.putNumber("Loop Time p99 (ms)", loopTimes.getPercentile(99) / 1e6);
+    telemetry.putNumber("Loop Time max (ms)", loopTimes.getMax() / 1e6);
+    telemetry.putNumber("Loop Period max (ms)", loopPeriods.getMax() / 1e6);
+    telemetry.putNumber("Loop Overruns", overruns);
+  }
+
+  /** Prints the histograms for the loop and each section, and then the slowest loops, section by section. */
+  public void printReport(PrintStream out) {
+    out.printf("Loop profile: %d loops, %d overruns (longer than %.1f ms)%n", loops, overruns, periodNanos / 1e6);
+    out.printf("  %-20s %10s %10s %10s %10s%n", "(ms)", "p50", "p99", "max", "count");
+    printHistogram(out, "loop time", loopTimes);
+    printHistogram(out, "loop period", loopPeriods);
+    for (int i = 0; i < sectionNames.length; i++) {
+      printHistogram(out, sectionNames[i], sectionTimes[i]);
+    }
+
+    out.println("Slowest loops:");
+    for (LoopRecord record : getSlowestLoops()) {
+      out.printf("  %.2f ms (loop %d, at %.3f s):", record.totalNanos / 1e6, record.loopNumber, record.timestamp);
+      for (int i = 0; i < sectionNames.length; i++) {
+        if (record.sectionNanos[i] >= 0) {
+          out.printf(" %s %.2f,", sectionNames[i], record.sectionNanos[i] / 1e6);
+        }
+      }
+      out.println();
+    }
+  }
+
+  private static void printHistogram(PrintStream out, String name, LatencyHistogram histogram) {
+    out.printf("  %-20s %10.2f %10.2f %10.2f %10d%n", name, histogram.getPercentile(50) / 1e6,
+               histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6, histogram.getCount());
+  }
+
+  /** One of the slowest loops: how long it took, when it was, and how long each section took (-1 if it didn't run). */
+  public static class LoopRecord {
+    private long totalNanos = 0;
+    private double timestamp = 0;
+    private long loopNumber = 0;
+    private final long[] sectionNanos;
+
+    private LoopRecord(int numOfSections) {
+      sectionNanos = new long[numOfSections];
+    }
+
+    public long getTotalNanos() {
+      return totalNanos;
+    }
+
+    /** @return The FPGA timestamp (in seconds) of when the loop ended. */
+    public double getTimestamp() {
+      return timestamp;
+    }
+
+    public long getLoopNumber() {
+      return loopNumber;
+    }
+
+    public long getSectionNanos(int section) {
+      return sectionNanos[section];
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package org.usfirst.frc.team1787.robot.utils;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the most recent values of something (like how long something took),
+ * so that things like the median, the 99th percentile, and the max can be found.
+ * 
+ * Only the last windowSize values are kept; once the window is full, 
+ * each new value replaces the oldest one. Recording a value is very cheap 
+ * (it doesn't allocate anything), so it's fine to do it every loop.
+ * Finding percentiles is a bit more work (the window has to be sorted),
+ * but the sorted copy is reused until a new value comes in.
+ * 
+ * All methods are synchronized, so one thread can record values while another reads percentiles.
+ */
+public class RollingHistogram {
+  
+  private final long[] samples;
+  private final long[] sortedSamples;
+  private int numOfSamples = 0;
+  private int nextIndex = 0;
+  private boolean sortedSamplesAreCurrent = true;
+  
+  /** @param windowSize How many of the most recent values to keep. */
+  public RollingHistogram(int windowSize) {
+    samples = new long[windowSize];
+    sortedSamples = new long[windowSize];
+  }
+  
+  public synchronized void record(long value) {
+    samples[nextIndex] = value;
+    nextIndex = (nextIndex + 1) % samples.length;
+    numOfSamples = Math.min(numOfSamples + 1, samples.length);
+    sortedSamplesAreCurrent = false;
+  }
+  
+  /**
+   * @param percentile A number in [0, 100] (i.e. 50 for the median, 99 for the 99th percentile).
+   * @return The given percentile of the values in the window, or 0 if no values have been recorded.
+   */
+  public synchronized long getPercentile(double percentile) {
+    if (numOfSamples == 0) {
+      return 0;
+    }
+    if (!sortedSamplesAreCurrent) {
+      System.arraycopy(samples, 0, sortedSamples, 0, numOfSamples);
+      Arrays.sort(sortedSamples, 0, numOfSamples);
+      sortedSamplesAreCurrent = true;
+    }
+    // "nearest rank" method: the smallest value that's >= the given percent of all values.
+    int rank = (int) Math.ceil(percentile / 100.0 * numOfSamples);
+    return sortedSamples[Math.max(0, Math.min(numOfSamples - 1, rank - 1))];
+  }
+  
+  /** @return The largest value in the window, or 0 if no values have been recorded. */
+  public synchronized long getMax() {
+    return getPercentile(100);
+  }
+  
+  /** @return How many values are currently in the window. */
+  public synchronized int getNumOfSamples() {
+    return numOfSamples;
+  }
+  
+  /** Throws away all recorded values. */
+  public synchronized void clear() {
+    numOfSamples = 0;
+    nextIndex = 0;
+    sortedSamplesAreCurrent = true;
+  }
+}
@@ -0,0 +1,228 @@
+package org.usfirst.frc.team1787.robot.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Records the robot's signals (motor outputs, encoder rates, gyro angle, PID errors, the target, etc.)
+ * every loop into a binary log file on the RIO, so there's something to look at after a match
+ * even if the dashboard dropped out (SmartDashboard isn't a log, it only has the latest values).
+ *
+ * How to use it:
+ * 1) Each subsystem adds its signals when it's made (addSignal() gives back a number for the signal).
+ * 2) The robot opens the log (open()) in robotInit(), after every subsystem has been made. That freezes the list
+ *    of signals, so every record in the file has the same layout.
+ * 3) Every loop, each subsystem records the current value of its signals (record()),
+ *    and then the robot writes them all out as one record (writeRecord()).
+ * 4) Copy the file off the robot, and turn it into a spreadsheet with the SignalLogDecoder tool.
+ *
+ * The file is a ring: once it's full, each new record replaces the oldest one, so it always has the last
+ * LOG_LENGTH_MINUTES of the robot being on. The file is memory-mapped, so writing a record is just copying
+ * a few hundred bytes into memory; the operating system writes it out to the file in the background.
+ * Nothing is allocated and nothing waits on the disk in the control loop (every page of the file is touched
+ * when it's opened, so the loop doesn't have to wait for them to be made either). flushToDisk() makes sure
+ * everything's actually on the disk, but it does wait, so it's only called when the robot is disabled.
+ *
+ * A signal that isn't recorded in a loop keeps the value it had in the last one.
+ * This is meant to be used by the main robot thread only.
+ *
+ * File layout (everything is little-endian):
+ * header:  int magic, int version, int number of signals, int record size, int capacity (in records),
+ *          int header size, long records written, then for each signal: byte type, short name length, name (UTF-8)
+ * records: (starting at the header size, capacity of them) long sequence number, double timestamp (seconds),
+ *          then each signal's value, in the order they were added. A record whose sequence number is
+ *          INVALID_SEQUENCE is being written (or was never written), and should be ignored.
+ */
+public class SignalLogger {
+
+  public static final String LOG_FILE_PATH = "/home/lvuser/signals.bin";
+
+  // signal types (and how many bytes each takes up in a record)
+  public static final byte TYPE_DOUBLE = 0;
+  public static final byte TYPE_FLOAT = 1;
+  public static final byte TYPE_INT = 2;
+  public static final byte TYPE_BOOLEAN = 3;
+  private static final int[] TYPE_SIZES = {8, 4, 4, 1};
+
+  public static final int MAGIC = 0x17875167;
+  public static final int VERSION = 1;
+  public static final long INVALID_SEQUENCE = -1;
+  public static final int RECORDS_WRITTEN_OFFSET = 24;
+  public static final int RECORD_HEADER_SIZE = 16; // sequence number + timestamp
+
+  private static final double LOOPS_PER_SECOND = 50;
+  private static final double LOG_LENGTH_MINUTES = 10;
+  private static final int PAGE_SIZE = 4096;
+
+  private final ArrayList<String> signalNames = new ArrayList<String>();
+  private final ArrayList<Byte> signalTypes = new ArrayList<Byte>();
+  // (arrays of the above, made when the log is opened, so record() doesn't have to unbox anything)
+  private byte[] types;
+  private int[] offsets;
+
+  private MappedByteBuffer file;
+  private ByteBuffer currentRecord; // the values recorded so far this loop
+  private int recordSize;
+  private int capacity;
+  private int headerSize;
+  private long recordsWritten = 0;
+
+  // Singleton Instance
+  private static final SignalLogger instance = new SignalLogger();
+
+  private SignalLogger() {
+    // initialization intentionally left blank.
+  }
+
+  /**
+   * Adds a signal to the log. This has to be done before the log is opened.
+   * @param name What to call it (this is the column name in the decoded spreadsheet).
+   * @param type One of the TYPE_ constants. TYPE_FLOAT is plenty for motor outputs and most sensors.
+   * @return The number to pass to record() for this signal (or -1 if the log's already open, so it can't be added).
+   */
+  public int addSignal(String name, byte type) {
+    if (isOpen()) {
+      System.out.println("Can't add \"" + name + "\" to the signal log, it's already been opened");
+      return -1;
+    }
+    signalNames.add(name);
+    signalTypes.add(type);
+    return signalNames.size() - 1;
+  }
+
+  /**
+   * Opens (or makes) the log file, and freezes the list of signals. If there's a log there already
+   * (i.e. from the last time the robot was on), it's moved to [file].previous first, so it isn't written over.
+   */
+  public void open(File logFile) throws IOException {
+    if (isOpen()) {
+      return;
+    }
+    int numOfSignals = signalNames.size();
+    types = new byte[numOfSignals];
+    offsets = new int[numOfSignals];
+    byte[][] nameBytes = new byte[numOfSignals][];
+    int schemaSize = 0;
+    recordSize = RECORD_HEADER_SIZE;
+    for (int i = 0; i < numOfSignals; i++) {
+      types[i] = signalTypes.get(i);
+      offsets[i] = recordSize;
+      recordSize += TYPE_SIZES[types[i]];
+      nameBytes[i] = signalNames.get(i).getBytes(StandardCharsets.UTF_8);
+      schemaSize += 1 + 2 + nameBytes[i].length;
+    }
+    // records are kept 8 byte aligned, so the longs and doubles at the start of each one are too
+    recordSize = roundUp(recordSize, 8);
+    headerSize = roundUp(RECORDS_WRITTEN_OFFSET + 8 + schemaSize, PAGE_SIZE);
+    capacity = (int) (LOG_LENGTH_MINUTES * 60 * LOOPS_PER_SECOND);
+
+    if (logFile.exists()) {
+      File previousLog = new File(logFile.getPath() + ".previous");
+      previousLog.delete();
+      logFile.renameTo(previousLog);
+    }
+    long fileSize = headerSize + (long) capacity * recordSize;
+    try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+      raf.setLength(fileSize);
+      file = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+    }
+    file.order(ByteOrder.LITTLE_ENDIAN);
+
+    file.putInt(0, MAGIC);
+    file.putInt(4, VERSION);
+    file.putInt(8, numOfSignals);
+    file.putInt(12, recordSize);
+    file.putInt(16, capacity);
+    file.putInt(20, headerSize);
+    file.putLong(RECORDS_WRITTEN_OFFSET, 0);
+    file.position(RECORDS_WRITTEN_OFFSET + 8);
+    for (int i = 0; i < numOfSignals; i++) {
+      file.put(types[i]);
+      file.putShort((short) nameBytes[i].length);
+      file.put(nameBytes[i]);
+    }
+    // mark every record as unwritten (which also touches every page, so they're all made now instead of mid-match)
+    for (int i = 0; i < capacity; i++) {
+      file.putLong(headerSize + i * recordSize, INVALID_SEQUENCE);
+    }
+
+    currentRecord = ByteBuffer.allocate(recordSize).order(ByteOrder.LITTLE_ENDIAN);
+    recordsWritten = 0;
+  }
+
+  private static int roundUp(int value, int multiple) {
+    return (value + multiple - 1) / multiple * multiple;
+  }
+
+  public boolean isOpen() {
+    return file != null;
+  }
+
+  /** Sets the value of a number signal for this loop (it's converted to the signal's type). */
+  public void record(int signal, double value) {
+    if (signal < 0 || currentRecord == null) {
+      return;
+    }
+    switch (types[signal]) {
+      case TYPE_DOUBLE:
+        currentRecord.putDouble(offsets[signal], value);
+        break;
+      case TYPE_FLOAT:
+        currentRecord.putFloat(offsets[signal], (float) value);
+        break;
+      case TYPE_INT:
+        currentRecord.putInt(offsets[signal], (int) value);
+        break;
+      default:
+        currentRecord.put(offsets[signal], (byte) (value != 0 ? 1 : 0));
+    }
+  }
+
+  /** Sets the value of a true/false signal for this loop. */
+  public void record(int signal, boolean value) {
+    record(signal, value ? 1 : 0);
+  }
+
+  /**
+   * Writes everything that was recorded this loop to the log, as one record.
+   * @param timestamp The FPGA timestamp (in seconds) this loop's values are from.
+   */
+  public void writeRecord(double timestamp) {
+    if (file == null) {
+      return;
+    }
+    int recordOffset = headerSize + (int) (recordsWritten % capacity) * recordSize;
+    // the sequence number is written last, so a record that's only half written (because the robot lost power)
+    // is still marked invalid
+    currentRecord.putLong(0, INVALID_SEQUENCE);
+    currentRecord.putDouble(8, timestamp);
+    currentRecord.clear();
+    file.position(recordOffset);
+    file.put(currentRecord);
+    file.putLong(recordOffset, recordsWritten);
+    recordsWritten++;
+    file.putLong(RECORDS_WRITTEN_OFFSET, recordsWritten);
+  }
+
+  /** Waits until everything that's been written so far is actually on the disk (takes a while, don't call it every loop). */
+  public void flushToDisk() {
+    if (file != null) {
+      file.force();
+    }
+  }
+
+  public long getRecordsWritten() {
+    return recordsWritten;
+  }
+
+  public static SignalLogger getInstance() {
+    return instance;
+  }
+}
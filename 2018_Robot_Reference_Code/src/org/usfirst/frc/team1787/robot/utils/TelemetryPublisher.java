@@ -0,0 +1,257 @@
+package org.usfirst.frc.team1787.robot.utils;
+
+import java.util.HashMap;
+
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.wpilibj.Sendable;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**
+ * A drop-in replacement for SmartDashboard.putNumber() (and friends) that's a lot cheaper to call every loop.
+ *
+ * Every subsystem publishes its data every 20ms loop, which is dozens of SmartDashboard calls per loop.
+ * Each one looks up its key in NetworkTables and crosses into native code, even when the value
+ * hasn't changed since the last loop (like "Current Gear", which changes a few times a match).
+ * Nobody can read a dashboard that updates 50 times a second anyway. So instead:
+ *
+ * 1) The NetworkTableEntry for each key is looked up once, and kept.
+ * 2) put...() just stores the value in java (no native calls), and marks it as changed if it's different
+ *    from the last value that was put.
+ * 3) flushIfDue() (called once per loop, see Robot.robotPeriodic()) writes all of the changed values
+ *    to NetworkTables together, but only every 1/flushRate seconds (10 times a second by default),
+ *    and then flushes NetworkTables so they all go out in the same batch.
+ *
+ * putData() (for motors, encoders, PID controllers, etc.) only needs to be called once per key:
+ * TimedRobot already calls SmartDashboard.updateValues() every loop, which updates every Sendable that's been put.
+ * So this only passes the first call for each key through to SmartDashboard.
+ *
+ * To see what it saves, the time spent inside of the put...() calls and the flush is measured
+ * for every loop, and the number of puts vs. the number of actual writes to NetworkTables is counted.
+ * setEnabled(false) sends every call straight to SmartDashboard instead (the old way), so the two can be compared.
+ *
+ * This is meant to be used by the main robot thread only.
+ */
+public class TelemetryPublisher {
+
+  private static final int TYPE_NUMBER = 0;
+  private static final int TYPE_BOOLEAN = 1;
+  private static final int TYPE_STRING = 2;
+
+  private final double DEFAULT_FLUSH_RATE_HZ = 10;
+  private final double REPORT_PERIOD_SECONDS = 1.0;
+  private final int PUBLISH_TIME_WINDOW_SIZE = 256; // loops (about 5 seconds)
+
+  private static class Entry {
+    final String key;
+    NetworkTableEntry ntEntry; // (looked up the first time the entry is written)
+    final int type;
+    double number;
+    boolean bool;
+    String string;
+    boolean changed = true;
+    // the dashboard might not have the cached value (it was put while disabled), so the next put is sent no matter what
+    boolean unsent = false;
+
+    Entry(String key, int type) {
+      this.key = key;
+      this.type = type;
+    }
+  }
+
+  private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+  // (the array is used when flushing, so the HashMap doesn't have to be iterated, which would allocate an iterator)
+  private Entry[] entryList = new Entry[64];
+  private int numOfEntries = 0;
+  private final HashMap<String, Sendable> sendables = new HashMap<String, Sendable>();
+
+  private boolean enabled = true;
+  private double flushPeriodSeconds = 1 / DEFAULT_FLUSH_RATE_HZ;
+  private double lastFlushTimestamp = Double.NEGATIVE_INFINITY;
+
+  // Usage Reporting
+  private long loopNanos = 0; // time spent in this class during the current loop
+  private final RollingHistogram publishNanos = new RollingHistogram(PUBLISH_TIME_WINDOW_SIZE);
+  private int putsSinceReport = 0;
+  private int writesSinceReport = 0;
+  private double reportStartTimestamp = 0;
+  private double putsPerSecond = 0;
+  private double writesPerSecond = 0;
+  // (the histogram has to sort its window to answer these, so they're only worked out once per report, not every loop)
+  private double publishP50Millis = 0;
+  private double publishMaxMillis = 0;
+
+  // Singleton Instance
+  private static final TelemetryPublisher instance = new TelemetryPublisher();
+
+  private TelemetryPublisher() {
+    // initialization intentionally left blank.
+  }
+
+  public void putNumber(String key, double value) {
+    long startTime = System.nanoTime();
+    putsSinceReport++;
+    if (enabled) {
+      Entry entry = getEntry(key, TYPE_NUMBER);
+      // (written as a != check, so NaN isn't treated as a change every time)
+      if (entry.unsent || Double.doubleToLongBits(entry.number) != Double.doubleToLongBits(value)) {
+        entry.number = value;
+        entry.changed = true;
+        entry.unsent = false;
+      }
+    } else {
+      SmartDashboard.putNumber(key, value);
+      writesSinceReport++;
+    }
+    loopNanos += System.nanoTime() - startTime;
+  }
+
+  public void putBoolean(String key, boolean value) {
+    long startTime = System.nanoTime();
+    putsSinceReport++;
+    if (enabled) {
+      Entry entry = getEntry(key, TYPE_BOOLEAN);
+      if (entry.unsent || entry.bool != value) {
+        entry.bool = value;
+        entry.changed = true;
+        entry.unsent = false;
+      }
+    } else {
+      SmartDashboard.putBoolean(key, value);
+      writesSinceReport++;
+    }
+    loopNanos += System.nanoTime() - startTime;
+  }
+
+  public void putString(String key, String value) {
+    long startTime = System.nanoTime();
+    putsSinceReport++;
+    if (enabled) {
+      Entry entry = getEntry(key, TYPE_STRING);
+      if (entry.unsent || !value.equals(entry.string)) {
+        entry.string = value;
+        entry.changed = true;
+        entry.unsent = false;
+      }
+    } else {
+      SmartDashboard.putString(key, value);
+      writesSinceReport++;
+    }
+    loopNanos += System.nanoTime() - startTime;
+  }
+
+  /** Puts a Sendable (motor, encoder, PID controller, etc.) on the dashboard. See the class comment. */
+  public void putData(String key, Sendable data) {
+    long startTime = System.nanoTime();
+    putsSinceReport++;
+    if (!enabled || sendables.get(key) != data) {
+      SmartDashboard.putData(key, data);
+      sendables.put(key, data);
+      writesSinceReport++;
+    }
+    loopNanos += System.nanoTime() - startTime;
+  }
+
+  private Entry getEntry(String key, int type) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      entry = new Entry(key, type);
+      entries.put(key, entry);
+      if (numOfEntries == entryList.length) {
+        Entry[] biggerList = new Entry[entryList.length * 2];
+        System.arraycopy(entryList, 0, biggerList, 0, numOfEntries);
+        entryList = biggerList;
+      }
+      entryList[numOfEntries++] = entry;
+    }
+    return entry;
+  }
+
+  /**
+   * Writes every value that's changed since the last flush to NetworkTables, if it's been long enough
+   * since the last flush (see setFlushRate()). Call this once per loop, after everything's been published.
+   */
+  public void flushIfDue() {
+    long startTime = System.nanoTime();
+    double now = Timer.getFPGATimestamp();
+    if (enabled && now - lastFlushTimestamp >= flushPeriodSeconds) {
+      lastFlushTimestamp = now;
+      int writes = 0;
+      for (int i = 0; i < numOfEntries; i++) {
+        Entry entry = entryList[i];
+        if (!entry.changed) {
+          continue;
+        }
+        entry.changed = false;
+        writes++;
+        if (entry.ntEntry == null) {
+          entry.ntEntry = SmartDashboard.getEntry(entry.key);
+        }
+        if (entry.type == TYPE_NUMBER) {
+          entry.ntEntry.setDouble(entry.number);
+        } else if (entry.type == TYPE_BOOLEAN) {
+          entry.ntEntry.setBoolean(entry.bool);
+        } else {
+          entry.ntEntry.setString(entry.string);
+        }
+      }
+      if (writes > 0) {
+        NetworkTableInstance.getDefault().flush();
+      }
+      writesSinceReport += writes;
+    }
+    loopNanos += System.nanoTime() - startTime;
+    publishNanos.record(loopNanos);
+    loopNanos = 0;
+
+    double secondsSinceReport = now - reportStartTimestamp;
+    if (secondsSinceReport >= REPORT_PERIOD_SECONDS) {
+      putsPerSecond = putsSinceReport / secondsSinceReport;
+      writesPerSecond = writesSinceReport / secondsSinceReport;
+      publishP50Millis = publishNanos.getPercentile(50) / 1e6;
+      publishMaxMillis = publishNanos.getMax() / 1e6;
+      putsSinceReport = 0;
+      writesSinceReport = 0;
+      reportStartTimestamp = now;
+    }
+  }
+
+  /** @param flushRateHz How many times a second changed values are sent to the dashboard (it's 50 without this class). */
+  public void setFlushRate(double flushRateHz) {
+    flushPeriodSeconds = 1 / Math.max(1, flushRateHz);
+  }
+
+  /**
+   * @param enabled true to cache and batch values (see the class comment),
+   * false to send every call straight to SmartDashboard (like before this class existed).
+   */
+  public void setEnabled(boolean enabled) {
+    if (this.enabled && !enabled) {
+      // nothing's been cached for the Sendables put while disabled, so start over when re-enabled
+      sendables.clear();
+    } else if (!this.enabled && enabled) {
+      /* Values put while disabled went straight to the dashboard, so the cache is out of date.
+       * Every entry's next put is sent, even if it matches the cache. (the cached values themselves
+       * aren't sent, since they're older than what the dashboard has) */
+      for (int i = 0; i < numOfEntries; i++) {
+        entryList[i].unsent = true;
+        entryList[i].changed = false;
+      }
+    }
+    this.enabled = enabled;
+  }
+
+  /** Publishes how much the telemetry itself costs (this goes through the publisher too). */
+  public void publishDataToSmartDash() {
+    putNumber("Telemetry Publish p50 (ms)", publishP50Millis);
+    putNumber("Telemetry Publish max (ms)", publishMaxMillis);
+    putNumber("Telemetry Puts per Second", putsPerSecond);
+    putNumber("Telemetry NetworkTables Writes per Second", writesPerSecond);
+    putBoolean("Telemetry Batching Enabled", enabled);
+  }
+
+  public static TelemetryPublisher getInstance() {
+    return instance;
+  }
+}
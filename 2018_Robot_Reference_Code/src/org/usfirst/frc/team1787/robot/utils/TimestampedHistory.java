@@ -0,0 +1,73 @@
+package org.usfirst.frc.team1787.robot.utils;
+
+/**
+ * Remembers the recent values of something (like the turret's angle) along with when each value was measured,
+ * so that it's possible to ask "what was the value at time t?" for any time in the recent past.
+ * 
+ * Values are kept in a ring buffer: once it's full, each new value replaces the oldest one.
+ * Nothing is allocated after construction, so it's safe to record a value every few milliseconds.
+ * 
+ * Values must be recorded in order of increasing time (i.e. with Timer.getFPGATimestamp()).
+ * All methods are synchronized, so one thread can record values while another reads them.
+ */
+public class TimestampedHistory {
+  
+  private final double[] timestamps;
+  private final double[] values;
+  private int numOfValues = 0;
+  private int newestIndex = -1;
+  
+  /** @param capacity How many of the most recent values to keep. */
+  public TimestampedHistory(int capacity) {
+    timestamps = new double[capacity];
+    values = new double[capacity];
+  }
+  
+  /**
+   * @param timestamp When the value was measured (in seconds).
+   * @param value The value that was measured.
+   */
+  public synchronized void record(double timestamp, double value) {
+    newestIndex = (newestIndex + 1) % values.length;
+    timestamps[newestIndex] = timestamp;
+    values[newestIndex] = value;
+    numOfValues = Math.min(numOfValues + 1, values.length);
+  }
+  
+  /**
+   * Finds the value at the given time, interpolating between the values recorded just before and just after it.
+   * Times before the oldest value get the oldest value, and times after the newest value get the newest value.
+   * @param timestamp The time (in seconds) to find the value at.
+   * @param defaultValue What to return if nothing has been recorded yet.
+   * @return The value at the given time.
+   */
+  public synchronized double getValueAt(double timestamp, double defaultValue) {
+    if (numOfValues == 0) {
+      return defaultValue;
+    }
+    if (timestamp >= timestamps[newestIndex]) {
+      return values[newestIndex];
+    }
+    
+    // walk backwards from the newest value until we find one from before the given time.
+    // (the times we care about are usually very recent, so this doesn't have to go very far)
+    int laterIndex = newestIndex;
+    for (int i = 1; i < numOfValues; i++) {
+      int earlierIndex = (newestIndex - i + values.length) % values.length;
+      if (timestamps[earlierIndex] <= timestamp) {
+        double fraction = (timestamp - timestamps[earlierIndex]) / (timestamps[laterIndex] - timestamps[earlierIndex]);
+        return values[earlierIndex] + fraction * (values[laterIndex] - values[earlierIndex]);
+      }
+      laterIndex = earlierIndex;
+    }
+    
+    // the given time is older than anything we remember
+    return values[laterIndex];
+  }
+  
+  /** Forgets every recorded value. */
+  public synchronized void clear() {
+    numOfValues = 0;
+    newestIndex = -1;
+  }
+}
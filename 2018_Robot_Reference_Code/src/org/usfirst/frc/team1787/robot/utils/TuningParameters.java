@@ -0,0 +1,121 @@
+package org.usfirst.frc.team1787.robot.utils;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.NetworkTableValue;
+import edu.wpi.first.networktables.TableEntryListener;
+import edu.wpi.first.wpilibj.Preferences;
+
+/**
+ * The values being tuned from the dashboard (PID gains, HSV bounds, etc.), kept in java instead of being
+ * looked up in the Preferences every loop.
+ *
+ * Each parameter is read from the Preferences once, when it's added. After that, NetworkTables tells us
+ * (on its own listener thread) whenever someone changes it on the dashboard, and the new value is stored
+ * in a volatile field. So reading a parameter in the main loop is just reading a field, not a native call.
+ *
+ * Parameters are added to a Group (i.e. the turret's gains and error tolerance), and a group remembers
+ * whether any of its parameters changed. Call takeChanges() once per loop: it only returns true when
+ * something in the group changed since the last call, so the new values are only pushed to the
+ * subsystem (i.e. PIDController.setPID()) when there's actually something new to push.
+ * Groups start out unchanged: whatever happens to be in the Preferences when the robot starts up is NOT pushed,
+ * only values that are actually edited while it's on. Otherwise, just flipping through the tuning modes
+ * would replace what the robot is using (i.e. the HSV bounds loaded from a file) with whatever's in the Preferences,
+ * or with the defaults if nothing is. So the defaults should be what the subsystem is using already, too.
+ *
+ * Everything being tuned is a number, so all parameters are doubles. If a parameter is deleted from the
+ * Preferences (or changed to something that isn't a number), it goes back to its default value.
+ */
+public class TuningParameters {
+
+  // (the same table Preferences uses)
+  private static final String PREFERENCES_TABLE = "Preferences";
+
+  private final Preferences prefs = Preferences.getInstance();
+  private final NetworkTable table = NetworkTableInstance.getDefault().getTable(PREFERENCES_TABLE);
+
+  // Singleton Instance
+  private static final TuningParameters instance = new TuningParameters();
+
+  private TuningParameters() {
+    // initialization intentionally left blank.
+  }
+
+  /** @return A new, empty group to add parameters to. */
+  public Group newGroup() {
+    return new Group();
+  }
+
+  /** Parameters that get pushed to the same place, together. */
+  public class Group {
+    private final AtomicBoolean changed = new AtomicBoolean(false);
+
+    private Group() {
+    }
+
+    /**
+     * Adds a parameter to this group, and reads its current value from the Preferences
+     * (which doesn't count as a change).
+     * @param key The name of the parameter in the Preferences.
+     * @param defaultValue What the parameter is if it isn't in the Preferences
+     * (normally whatever the subsystem is using right now).
+     */
+    public Parameter addParameter(String key, double defaultValue) {
+      Parameter parameter = new Parameter(this, defaultValue);
+      // the listener goes first, so a change made right after the value is read isn't missed.
+      // (kNew too, since the note in Robot.runTuningCode() says parameters are added from the Outline Viewer)
+      table.addEntryListener(key, parameter, EntryListenerFlags.kNew | EntryListenerFlags.kUpdate
+                                             | EntryListenerFlags.kDelete);
+      parameter.value = prefs.getDouble(key, defaultValue);
+      return parameter;
+    }
+
+    /**
+     * @return true if any of this group's parameters changed since the last time this was called
+     * (or since the group was made). Meant to be called by the main robot thread.
+     */
+    public boolean takeChanges() {
+      return changed.getAndSet(false);
+    }
+  }
+
+  /** One number being tuned. get() is safe to call from any thread, and never calls into NetworkTables. */
+  public static class Parameter implements TableEntryListener {
+    private final Group group;
+    private final double defaultValue;
+    private volatile double value;
+
+    private Parameter(Group group, double defaultValue) {
+      this.group = group;
+      this.defaultValue = defaultValue;
+      this.value = defaultValue;
+    }
+
+    public double get() {
+      return value;
+    }
+
+    /** Called by NetworkTables (on its listener thread) when the parameter is added, changed, or deleted. */
+    @Override
+    public void valueChanged(NetworkTable table, String key, NetworkTableEntry entry, NetworkTableValue newValue,
+                             int flags) {
+      double newNumber = defaultValue;
+      if ((flags & EntryListenerFlags.kDelete) == 0 && newValue.isDouble()) {
+        newNumber = newValue.getDouble();
+      }
+      if (newNumber != value) {
+        // (the value is set before the group is marked, so whoever sees the mark also sees the value)
+        value = newNumber;
+        group.changed.set(true);
+      }
+    }
+  }
+
+  public static TuningParameters getInstance() {
+    return instance;
+  }
+}
@@ -1,5 +1,8 @@
 package org.usfirst.frc.team1787.robot.vision;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.opencv.core.Mat;
 import org.usfirst.frc.team1787.robot.utils.UnitConverter;
 
@@ -145,24 +148,57 @@ public class CameraController {
   // from a camera from that camera's respective frameGrabber
   private final double defaultTimeoutLengthSeconds = 1;
   
+  /* The info below is static so that it can be used without constructing the CameraController
+   * (i.e. without any cameras plugged in, like when replaying recorded frames on a laptop). */
+  
   // image info
-  public final int IMAGE_WIDTH_PIXELS = 160;
-  public final int IMAGE_HEIGHT_PIXELS = 120;
+  public static final int IMAGE_WIDTH_PIXELS = 160;
+  public static final int IMAGE_HEIGHT_PIXELS = 120;
+  public static final int FRAMES_PER_SECOND = 30;
+  // the turretCam's resolution in pyramid mode (see ImageProcessor.setPyramidEnabled())
+  public static final int PYRAMID_IMAGE_WIDTH_PIXELS = 320;
+  public static final int PYRAMID_IMAGE_HEIGHT_PIXELS = 240;
+  // how long it takes for a frame to be timestamped after it's captured (exposure + usb transfer).
+  // This is an estimate of about 1 frame, it still needs to be measured (i.e. by filming a blinking LED).
+  public static final double TURRET_CAM_LATENCY_SECONDS = 1.0 / FRAMES_PER_SECOND;
   
   // physical properties of the turretCam (used to find position of target)
-  public final double TURRET_CAM_ANGLE_FROM_FLOOR_DEGREES = 36.0;
-  public final double TURRET_CAM_HEIGHT_FROM_FLOOR = UnitConverter.inchesToMeters(57);
-  private final double HORIZONTAL_FOV_DEGREES = 90;  // The current values for FOV are just place holders.
-  private final double VERTICAL_FOV_DEGREES = 90;    // The actual values still need to be calculated.
-  public final double FOCAL_LENGTH_PIXELS_X = calculateFocalLength(IMAGE_WIDTH_PIXELS, HORIZONTAL_FOV_DEGREES);
-  public final double FOCAL_LENGTH_PIXELS_Y = calculateFocalLength(IMAGE_HEIGHT_PIXELS, VERTICAL_FOV_DEGREES);
+  public static final double TURRET_CAM_ANGLE_FROM_FLOOR_DEGREES = 36.0;
+  public static final double TURRET_CAM_HEIGHT_FROM_FLOOR = UnitConverter.inchesToMeters(57);
+  
+  /* The turretCam's lens (see CameraModel). Until the camera is calibrated with the CameraCalibrator tool,
+   * the focal length is estimated from the data sheet (see the big comment above):
+   * 1078 pixels at the native 1280x720, assuming the 4:3 image is a crop of the middle 960x720 (option 1 above),
+   * which is then scaled down to our 120 pixel height. The lens is assumed to be centered and not distorted at all.
+   * Once there's a calibration file on the RIO, it's loaded instead (see loadTurretCamModel()). */
+  public static final String TURRET_CAM_MODEL_FILE_PATH = "/home/lvuser/turretCamModel.properties";
+  private static final int NATIVE_IMAGE_WIDTH_PIXELS = 1280;
+  private static final int NATIVE_IMAGE_HEIGHT_PIXELS = 720;
+  private static final double NATIVE_DIAGONAL_FOV_DEGREES = 68.5;
+  public static final double ESTIMATED_FOCAL_LENGTH_PIXELS =
+      calculateFocalLength((int) Math.hypot(NATIVE_IMAGE_WIDTH_PIXELS, NATIVE_IMAGE_HEIGHT_PIXELS), NATIVE_DIAGONAL_FOV_DEGREES)
+      * IMAGE_HEIGHT_PIXELS / NATIVE_IMAGE_HEIGHT_PIXELS;
+  private static volatile CameraModel turretCamModel;
   
   // used for when the FOV calculation seems off, and we need to get on the field RIGHT NOW! :)
-  public final double DEGREES_PER_PIXEL_X = 0.15;
-  public final double DEGREES_PER_PIXEL_Y = 0.15;
+  public static final double DEGREES_PER_PIXEL_X = 0.15;
+  public static final double DEGREES_PER_PIXEL_Y = 0.15;
+  
+  // lets the vision pipeline grab frames from the turretCam without knowing it's a camera (see FrameSource)
+  private FrameSource turretCamFrameSource = new FrameSource() {
+    @Override
+    public long grabFrame(Mat destination) {
+      return getTurretCamFrame(destination);
+    }
+    
+    @Override
+    public boolean hasMoreFrames() {
+      return true;
+    }
+  };
   
   // Singleton Instance
-  private static final CameraController instance = new CameraController();
+  private static CameraController instance;
 
   private CameraController() {
     /* Note: The cameras themselves used to be constructed on
@@ -215,6 +251,19 @@ public class CameraController {
     return gearCamFrameGrabber.grabFrame(destination, defaultTimeoutLengthSeconds);
   }
   
+  /**
+   * Changes the resolution of the turretCam (i.e. to PYRAMID_IMAGE_WIDTH_PIXELS x PYRAMID_IMAGE_HEIGHT_PIXELS
+   * for pyramid mode). Stick to 4:3 resolutions (see the big comment at the top).
+   */
+  public void setTurretCamResolution(int width, int height) {
+    turretCam.setResolution(width, height);
+  }
+  
+  /** @return The turretCam, wrapped up as a FrameSource that can be given to the ImageProcessor. */
+  public FrameSource getTurretCamFrameSource() {
+    return turretCamFrameSource;
+  }
+  
   /**
    * Pushes the given frame to the dashboard
    * on the stream called "Custom Output Stream".
@@ -236,9 +285,9 @@ public class CameraController {
    * @param configForVision if you would like the cam
    * to be configured for vision. true = yes, false = no.
    */
-  public void configCam(UsbCamera cam, boolean configForVision) {
+  public static void configCam(UsbCamera cam, boolean configForVision) {
     cam.setResolution(IMAGE_WIDTH_PIXELS, IMAGE_HEIGHT_PIXELS);
-    cam.setFPS(30);
+    cam.setFPS(FRAMES_PER_SECOND);
     
     if (configForVision) {
       // these settings make it easiest to see the target
@@ -276,7 +325,56 @@ public class CameraController {
     return (denominator == 0) ? 1 : (numerator / denominator);
   }
   
-  public static CameraController getInstance() {
+  /**
+   * @return The model of the turretCam's lens, which turns a position in the image into angles and a distance to the target.
+   * It's made the first time it's needed (from the estimate above), since that takes a little while.
+   */
+  public static CameraModel getTurretCamModel() {
+    CameraModel model = turretCamModel;
+    if (model == null) {
+      synchronized (CameraController.class) {
+        if (turretCamModel == null) {
+          turretCamModel = new CameraModel(IMAGE_WIDTH_PIXELS, IMAGE_HEIGHT_PIXELS,
+                                           ESTIMATED_FOCAL_LENGTH_PIXELS, ESTIMATED_FOCAL_LENGTH_PIXELS,
+                                           (IMAGE_WIDTH_PIXELS - 1) / 2.0, (IMAGE_HEIGHT_PIXELS - 1) / 2.0,
+                                           new double[5], TURRET_CAM_ANGLE_FROM_FLOOR_DEGREES,
+                                           Target.CAM_TO_TARGET_VERTICAL_DISTANCE);
+        }
+        model = turretCamModel;
+      }
+    }
+    return model;
+  }
+  
+  /**
+   * Replaces the estimated turretCam model with a calibrated one (see CameraModel.load()).
+   * A model calibrated at another resolution is scaled to IMAGE_WIDTH_PIXELS x IMAGE_HEIGHT_PIXELS,
+   * or rejected if the image was a different shape.
+   * @return true if the file was loaded, false if it doesn't exist, couldn't be read, or was rejected
+   * (and the current model is kept).
+   */
+  public static boolean loadTurretCamModel(File file) {
+    if (!file.isFile()) {
+      return false;
+    }
+    try {
+      // (Targets are always measured in IMAGE_WIDTH_PIXELS x IMAGE_HEIGHT_PIXELS coordinates, see Target.set())
+      turretCamModel = CameraModel.load(file, IMAGE_WIDTH_PIXELS, IMAGE_HEIGHT_PIXELS,
+                                        TURRET_CAM_ANGLE_FROM_FLOOR_DEGREES, Target.CAM_TO_TARGET_VERTICAL_DISTANCE);
+      return true;
+    } catch (IOException e) {
+      System.out.println("Couldn't load the turretCam model from " + file + ": " + e);
+      return false;
+    }
+  }
+  
+  /* Note: unlike the other singletons in the vision package, the CameraController 
+   * isn't made until it's first needed, since making it opens up the cameras. 
+   * (synchronized because the VisionWorker thread might be the first one to ask for it) */
+  public static synchronized CameraController getInstance() {
+    if (instance == null) {
+      instance = new CameraController();
+    }
     return instance;
   }
 }
@@ -0,0 +1,234 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Turns a position in the image (in pixels) into the angles and distance to whatever is at that position.
+ *
+ * The camera is described the same way OpenCV's calibrateCamera() describes it:
+ *
+ * Intrinsics: the focal length in pixel widths and pixel heights (fx, fy), and the pixel the lens is centered on (cx, cy).
+ * Distortion: real lenses bend straight lines a bit, especially near the edges of the image.
+ * k1, k2, and k3 describe the "barrel" distortion (which depends on how far from the center a pixel is),
+ * and p1 and p2 describe the distortion from the lens not being perfectly parallel to the sensor.
+ *
+ * On top of that, the camera is tilted up from the floor, so a pixel's angle above the horizon isn't
+ * just its angle from the center of the image. Each pixel's ray is rotated by the tilt of the camera
+ * to find its true angle from the horizon, and its bearing (the angle left or right, as seen from above).
+ *
+ * All of that math (including undoing the distortion, which has to be done by trial and error)
+ * is way too slow to do for every target, so it's done once for every pixel when the model is made,
+ * and stored in tables. Positions between pixels (i.e. the centroid of a contour) are found by
+ * interpolating between the 4 pixels around them, so it's cheap enough to call as often as you like.
+ *
+ * Models are saved and loaded as properties files (see the CameraCalibrator tool for making one).
+ */
+public class CameraModel {
+
+  private static final int UNDISTORT_ITERATIONS = 10;
+  private static final String[] DISTORTION_KEYS = {"k1", "k2", "p1", "p2", "k3"};
+  // how different the horizontal and vertical scale can be when loading a model for another resolution (see load())
+  private static final double MAX_SCALE_MISMATCH = 0.01;
+
+  private final int width;
+  private final int height;
+  private final double fx;
+  private final double fy;
+  private final double cx;
+  private final double cy;
+  private final double[] distortion; // {k1, k2, p1, p2, k3}
+
+  // one entry per pixel, at index (row * width + column)
+  private final float[] bearingDegrees;
+  private final float[] elevationDegrees;
+  private final float[] horizontalDistances;
+
+  /**
+   * Makes the model, and fills in the tables for every pixel.
+   * @param width The width of the image (in pixels).
+   * @param height The height of the image (in pixels).
+   * @param fx The focal length (in pixel widths).
+   * @param fy The focal length (in pixel heights).
+   * @param cx The x coordinate of the center of the lens (in pixels).
+   * @param cy The y coordinate of the center of the lens (in pixels).
+   * @param distortion The distortion coefficients {k1, k2, p1, p2, k3} (all 0 for a perfect lens).
+   * @param tiltDegrees How far the camera is tilted up from the floor (in degrees).
+   * @param targetHeightAboveCamera How far above the camera the thing we're looking at is (in meters).
+   * This is used to find the horizontal distance to it.
+   */
+  public CameraModel(int width, int height, double fx, double fy, double cx, double cy, double[] distortion,
+                     double tiltDegrees, double targetHeightAboveCamera) {
+    this.width = width;
+    this.height = height;
+    this.fx = fx;
+    this.fy = fy;
+    this.cx = cx;
+    this.cy = cy;
+    this.distortion = distortion.clone();
+
+    bearingDegrees = new float[width * height];
+    elevationDegrees = new float[width * height];
+    horizontalDistances = new float[width * height];
+
+    double tilt = Math.toRadians(tiltDegrees);
+    double[] normalized = new double[2];
+    for (int row = 0; row < height; row++) {
+      for (int column = 0; column < width; column++) {
+        undistort(column, row, normalized);
+
+        /* The ray through the pixel is (x, y, 1) in the camera's coordinates
+         * (x to the right, y down, and 1 straight out of the lens).
+         * Tilting it up by the camera's tilt gives the ray in the robot's coordinates. */
+        double right = normalized[0];
+        double up = -normalized[1] * Math.cos(tilt) + Math.sin(tilt);
+        double forward = Math.cos(tilt) + normalized[1] * Math.sin(tilt);
+        double elevation = Math.atan2(up, Math.hypot(forward, right));
+
+        int index = row * width + column;
+        bearingDegrees[index] = (float) Math.toDegrees(Math.atan2(right, forward));
+        elevationDegrees[index] = (float) Math.toDegrees(elevation);
+        horizontalDistances[index] = (float) (targetHeightAboveCamera / Math.tan(elevation));
+      }
+    }
+  }
+
+  /**
+   * Finds where the given pixel would be if the lens didn't distort anything, in "normalized" coordinates
+   * (where 1 unit = 1 focal length, and (0, 0) is the center of the lens).
+   * There's no formula for undoing the distortion, so this makes a guess and improves it a few times
+   * (the same way OpenCV's undistortPoints() does).
+   */
+  private void undistort(double u, double v, double[] result) {
+    double k1 = distortion[0], k2 = distortion[1], p1 = distortion[2], p2 = distortion[3], k3 = distortion[4];
+    double distortedX = (u - cx) / fx;
+    double distortedY = (v - cy) / fy;
+    double x = distortedX;
+    double y = distortedY;
+    for (int i = 0; i < UNDISTORT_ITERATIONS; i++) {
+      double r2 = x*x + y*y;
+      double inverseRadialDistortion = 1 / (1 + ((k3*r2 + k2)*r2 + k1)*r2);
+      double deltaX = 2*p1*x*y + p2*(r2 + 2*x*x);
+      double deltaY = p1*(r2 + 2*y*y) + 2*p2*x*y;
+      x = (distortedX - deltaX) * inverseRadialDistortion;
+      y = (distortedY - deltaY) * inverseRadialDistortion;
+    }
+    result[0] = x;
+    result[1] = y;
+  }
+
+  /**
+   * @return The angle (in degrees) between straight ahead of the camera and the given position, as seen from above.
+   * Positive is to the right.
+   */
+  public double getBearingDegrees(double x, double y) {
+    return interpolate(bearingDegrees, x, y);
+  }
+
+  /** @return The angle (in degrees) of the given position above the horizon (not above the center of the image!). */
+  public double getElevationDegrees(double x, double y) {
+    return interpolate(elevationDegrees, x, y);
+  }
+
+  /**
+   * @return The horizontal distance (in meters) to the thing at the given position,
+   * assuming it's at the targetHeightAboveCamera given when the model was made.
+   */
+  public double getHorizontalDistance(double x, double y) {
+    return interpolate(horizontalDistances, x, y);
+  }
+
+  /** Bilinear interpolation: a weighted average of the 4 pixels around (x, y). Positions outside of the image are clamped. */
+  private double interpolate(float[] table, double x, double y) {
+    x = Math.max(0, Math.min(width - 1, x));
+    y = Math.max(0, Math.min(height - 1, y));
+    int column = Math.min((int) x, width - 2);
+    int row = Math.min((int) y, height - 2);
+    double fractionX = x - column;
+    double fractionY = y - row;
+
+    int index = row * width + column;
+    double top = table[index] + fractionX * (table[index + 1] - table[index]);
+    double bottom = table[index + width] + fractionX * (table[index + width + 1] - table[index + width]);
+    return top + fractionY * (bottom - top);
+  }
+
+  /** @return The horizontal field of view (in degrees) of the camera, through the center of the lens. */
+  public double getHorizontalFOVDegrees() {
+    return getBearingDegrees(width - 1, cy) - getBearingDegrees(0, cy);
+  }
+
+  /**
+   * Loads the intrinsics and distortion of a camera from a file made by save() (or the CameraCalibrator tool).
+   * The tilt and target height aren't stored in the file, since they depend on how the camera is mounted.
+   * 
+   * Positions are always given in pixels of the image the camera is streaming, so a model calibrated at a different 
+   * resolution would give the wrong angles for every pixel. If the file's resolution is different from the given one, 
+   * but the shape of the image is the same (i.e. 320x240 vs 160x120), the focal length and center are scaled to fit.
+   * (the distortion coefficients don't depend on the resolution, so they stay the same)
+   * If the shape is different, the camera was cropping the image, and there's no way to scale that, so it's rejected.
+   * @param width The width of the images the model will be used on (in pixels).
+   * @param height The height of the images the model will be used on (in pixels).
+   * @throws IOException if the file can't be read, is missing something, or is for a differently shaped image.
+   */
+  public static CameraModel load(File file, int width, int height, double tiltDegrees, double targetHeightAboveCamera) 
+      throws IOException {
+    Properties properties = new Properties();
+    try (InputStream in = new FileInputStream(file)) {
+      properties.load(in);
+    }
+    int fileWidth, fileHeight;
+    double fx, fy, cx, cy;
+    double[] distortion = new double[DISTORTION_KEYS.length];
+    try {
+      for (int i = 0; i < distortion.length; i++) {
+        distortion[i] = Double.parseDouble(properties.getProperty(DISTORTION_KEYS[i], "0"));
+      }
+      fileWidth = Integer.parseInt(properties.getProperty("width"));
+      fileHeight = Integer.parseInt(properties.getProperty("height"));
+      fx = Double.parseDouble(properties.getProperty("fx"));
+      fy = Double.parseDouble(properties.getProperty("fy"));
+      cx = Double.parseDouble(properties.getProperty("cx"));
+      cy = Double.parseDouble(properties.getProperty("cy"));
+    } catch (NumberFormatException | NullPointerException e) {
+      throw new IOException(file + " is missing part of the camera model (or has a bad number in it).", e);
+    }
+    
+    if (fileWidth != width || fileHeight != height) {
+      double scaleX = width / (double) fileWidth;
+      double scaleY = height / (double) fileHeight;
+      if (Math.abs(scaleX - scaleY) > MAX_SCALE_MISMATCH * scaleX) {
+        throw new IOException(String.format("%s is for %dx%d images, which aren't the same shape as %dx%d "
+            + "(calibrate again at %dx%d).", file, fileWidth, fileHeight, width, height, width, height));
+      }
+      // (pixel coordinates are measured from the center of the top left pixel, hence the half pixels)
+      fx *= scaleX;
+      fy *= scaleY;
+      cx = (cx + 0.5) * scaleX - 0.5;
+      cy = (cy + 0.5) * scaleY - 0.5;
+    }
+    return new CameraModel(width, height, fx, fy, cx, cy, distortion, tiltDegrees, targetHeightAboveCamera);
+  }
+
+  /** Saves the intrinsics and distortion of the camera to a file that load() can read. */
+  public void save(File file, String comment) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty("width", Integer.toString(width));
+    properties.setProperty("height", Integer.toString(height));
+    properties.setProperty("fx", Double.toString(fx));
+    properties.setProperty("fy", Double.toString(fy));
+    properties.setProperty("cx", Double.toString(cx));
+    properties.setProperty("cy", Double.toString(cy));
+    for (int i = 0; i < DISTORTION_KEYS.length; i++) {
+      properties.setProperty(DISTORTION_KEYS[i], Double.toString(distortion[i]));
+    }
+    try (OutputStream out = new FileOutputStream(file)) {
+      properties.store(out, comment);
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import java.util.ArrayList;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * Something that can find the "candidates" (the blobs that might be the target) in a binary image,
+ * and measure each one (see ContourDescriptor).
+ * 
+ * The ImageProcessor doesn't care how the candidates are found, as long as they're measured,
+ * so the way they're found can be swapped out (see ContourExtractor and ConnectedComponentsExtractor).
+ */
+public interface CandidateExtractor {
+  
+  /**
+   * Finds and measures every candidate in the given binary image.
+   * 
+   * Note that the returned list (and the descriptors in it) are reused by the next call to this method.
+   * 
+   * @param binaryImage The image to search (i.e. the result of the HSV filter).
+   * @param offset Added to the position of every candidate (i.e. to move candidates found in 
+   * a part of a frame back into full-frame coordinates).
+   * @return The measurements of each candidate.
+   */
+  public ArrayList<ContourDescriptor> extract(Mat binaryImage, Point offset);
+}
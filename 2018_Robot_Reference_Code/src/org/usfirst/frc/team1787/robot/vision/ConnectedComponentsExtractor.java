@@ -0,0 +1,111 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import java.util.ArrayList;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+
+/**
+ * Finds candidates by labeling the "connected components" of the binary image (each group of
+ * white pixels that touch each other), instead of tracing their outlines like the ContourExtractor.
+ * 
+ * connectedComponentsWithStats() gives the area, bounding box, and centroid of every blob
+ * in a single pass over the image, so nothing has to be measured point by point afterwards.
+ * The only thing it doesn't give is the shape, so the moments of each blob are found (with moments(),
+ * on just the blob's bounding box), which tell how spread out it is. That gives the size of the rectangle
+ * with the same spread. For a solid rectangle, that's exactly the rectangle itself, 
+ * and unlike the bounding box, it doesn't change when the blob is rotated.
+ * 
+ * The measurements are made to mean the same thing as the ContourExtractor's, so the same minArea and shape 
+ * scores (see ImageProcessor.setContourFilters()) filter the same way with either one. A contour goes through 
+ * the centers of the pixels on the edge of the blob, so it leaves out the outer half of every edge pixel 
+ * (a 10x4 pixel rectangle has 40 pixels, but a contour area of 9x3 = 27). So the rectangle with the same spread
+ * is shrunk by half a pixel on each side, and the area and shape come from that, the same way they come from the contour.
+ * 
+ * One difference left: findContours() with RETR_EXTERNAL skips blobs that are inside of the holes of other blobs, 
+ * but here they're found like any other blob.
+ */
+public class ConnectedComponentsExtractor implements CandidateExtractor {
+  
+  // 8 means pixels that only touch diagonally still count as connected (same as findContours())
+  private final int CONNECTIVITY = 8;
+  
+  // reused for every frame
+  private Mat labels = MatTracker.newMat("ConnectedComponentsExtractor.labels");
+  private Mat stats = MatTracker.newMat("ConnectedComponentsExtractor.stats");
+  private Mat centroids = MatTracker.newMat("ConnectedComponentsExtractor.centroids");
+  // (just the pixels of one blob, in the blob's bounding box. Each blob reuses the same Mat.)
+  private Mat blobMask = MatTracker.newMat("ConnectedComponentsExtractor.blobMask");
+  private Scalar blobLabel = new Scalar(0);
+  private Rect blobBox = new Rect();
+  private int[] statValues = new int[0];
+  private double[] centroidValues = new double[0];
+  private ArrayList<ContourDescriptor> descriptorPool = new ArrayList<ContourDescriptor>();
+  private ArrayList<ContourDescriptor> descriptors = new ArrayList<ContourDescriptor>();
+  
+  @Override
+  public ArrayList<ContourDescriptor> extract(Mat binaryImage, Point offset) {
+    int numOfLabels = Imgproc.connectedComponentsWithStats(binaryImage, labels, stats, centroids, 
+                                                           CONNECTIVITY, CvType.CV_32S);
+    if (statValues.length < numOfLabels * Imgproc.CC_STAT_MAX) {
+      statValues = new int[2 * numOfLabels * Imgproc.CC_STAT_MAX];
+      centroidValues = new double[2 * numOfLabels * 2];
+    }
+    stats.get(0, 0, statValues);
+    centroids.get(0, 0, centroidValues);
+    blobMask.create(labels.rows(), labels.cols(), CvType.CV_8UC1);
+    
+    while (descriptorPool.size() < numOfLabels - 1) {
+      descriptorPool.add(new ContourDescriptor());
+    }
+    descriptors.clear();
+    // Label 0 is the background, so it's skipped.
+    for (int label = 1; label < numOfLabels; label++) {
+      int stat = label * Imgproc.CC_STAT_MAX;
+      double pixels = statValues[stat + Imgproc.CC_STAT_AREA];
+      blobBox.x = statValues[stat + Imgproc.CC_STAT_LEFT];
+      blobBox.y = statValues[stat + Imgproc.CC_STAT_TOP];
+      blobBox.width = statValues[stat + Imgproc.CC_STAT_WIDTH];
+      blobBox.height = statValues[stat + Imgproc.CC_STAT_HEIGHT];
+      
+      /* The second moments (around the centroid) of just this blob. Other blobs can poke into its bounding box,
+       * so only the pixels with this blob's label are kept. The variances along the blob's long and short axes 
+       * are the eigenvalues of its covariance matrix. A W pixel wide rectangle has a variance of (W^2 - 1) / 12
+       * along its width, so 1/12 is added to each (for the spread within each pixel), and then W = sqrt(12 * variance). */
+      Mat labelWindow = MatTracker.trackPerFrame(labels.submat(blobBox), "ConnectedComponentsExtractor.extract (submat)");
+      Mat maskWindow = MatTracker.trackPerFrame(blobMask.submat(blobBox), "ConnectedComponentsExtractor.extract (submat)");
+      blobLabel.val[0] = label;
+      Core.compare(labelWindow, blobLabel, maskWindow, Core.CMP_EQ);
+      Moments moments = Imgproc.moments(maskWindow, true);
+      labelWindow.release();
+      maskWindow.release();
+      
+      double varianceXX = moments.mu20 / pixels;
+      double varianceYY = moments.mu02 / pixels;
+      double covarianceXY = moments.mu11 / pixels;
+      double halfSum = (varianceXX + varianceYY) / 2;
+      double halfDifference = Math.sqrt(Math.pow((varianceXX - varianceYY) / 2, 2) + covarianceXY * covarianceXY);
+      double length = Math.sqrt(12 * (halfSum + halfDifference + 1 / 12.0));
+      double width = Math.sqrt(12 * (Math.max(0, halfSum - halfDifference) + 1 / 12.0));
+      
+      /* Shrink everything by half a pixel on each side, to match a contour (see above).
+       * The area loses a half pixel wide ring around the edge (about length + width pixels, plus 1 for the corners),
+       * so a solid L x W rectangle ends up with (L - 1) x (W - 1), just like its contour. */
+      double contourLength = length - 1;
+      double contourWidth = width - 1;
+      double contourArea = Math.max(0, pixels - length - width + 1);
+      double aspectRatio = (contourWidth > 0) ? contourLength / contourWidth : 0;
+      
+      descriptors.add(descriptorPool.get(label - 1).setMeasurements(contourArea, 2 * (contourLength + contourWidth),
+          centroidValues[2 * label] + offset.x, centroidValues[2 * label + 1] + offset.y, aspectRatio,
+          blobBox.x + (int) offset.x, blobBox.y + (int) offset.y, blobBox.width, blobBox.height));
+    }
+    return descriptors;
+  }
+}
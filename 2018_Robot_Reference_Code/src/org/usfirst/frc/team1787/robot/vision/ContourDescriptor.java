@@ -0,0 +1,210 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+
+/**
+ * Holds all of the measurements of a single contour that the vision pipeline cares about.
+ *
+ * Before this existed, each contour was measured over and over again: the area was calculated once
+ * to rank the contour, again for the shape test, the perimeter was found separately for the shape test,
+ * and then the moments of the winning contour were calculated again when the Target was made.
+ * Now every measurement is made in a single pass over the contour's points and
+ * shared by the filters, the scoring, and the Target.
+ *
+ * Descriptors are meant to be reused: call measure() with a new contour
+ * instead of making a new descriptor for every contour in every frame.
+ *
+ * A descriptor can also describe a "blob" found without a contour (see ConnectedComponentsExtractor),
+ * in which case the measurements are filled in with setMeasurements(), and there's no contour.
+ */
+public class ContourDescriptor {
+
+  private MatOfPoint contour;
+  private double area = 0;
+  private double perimeter = 0;
+  private double centerX = 0;
+  private double centerY = 0;
+  private double equivalentRectangleAspectRatio = 0;
+  private Rect boundingBox = new Rect();
+
+  // the contour's points are copied into here as (x, y) pairs. It grows as needed and is never shrunk.
+  private int[] points = new int[64];
+
+  /**
+   * Measures the given contour, replacing any previous measurements.
+   * @param contour The contour to measure.
+   * @return this descriptor, for convenience.
+   */
+  public ContourDescriptor measure(MatOfPoint contour) {
+    this.contour = contour;
+
+    int numOfPoints = (int) contour.total();
+    if (numOfPoints == 0) {
+      area = 0;
+      perimeter = 0;
+      centerX = 0;
+      centerY = 0;
+      equivalentRectangleAspectRatio = 0;
+      boundingBox.x = 0;
+      boundingBox.y = 0;
+      boundingBox.width = 0;
+      boundingBox.height = 0;
+      return this;
+    }
+    if (points.length < 2 * numOfPoints) {
+      points = new int[4 * numOfPoints];
+    }
+    contour.get(0, 0, points);
+
+    /* The area and moments are found using the same formulas OpenCV uses for contours (Green's theorem).
+     * Each edge of the polygon (from point i-1 to point i) contributes a little bit to each sum.
+     * For an explanation of moments, see the OpenCV docs on "Image Moments". */
+    double a00 = 0;
+    double a10 = 0;
+    double a01 = 0;
+    double arcLength = 0;
+    int minX = Integer.MAX_VALUE;
+    int minY = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE;
+    int maxY = Integer.MIN_VALUE;
+
+    // start from the last point, since the contour is closed
+    int prevX = points[2 * (numOfPoints - 1)];
+    int prevY = points[2 * (numOfPoints - 1) + 1];
+    for (int i = 0; i < numOfPoints; i++) {
+      int x = points[2 * i];
+      int y = points[2 * i + 1];
+
+      double crossProduct = (double) prevX * y - (double) x * prevY;
+      a00 += crossProduct;
+      a10 += crossProduct * (prevX + x);
+      a01 += crossProduct * (prevY + y);
+
+      double dx = x - prevX;
+      double dy = y - prevY;
+      arcLength += Math.sqrt(dx * dx + dy * dy);
+
+      minX = Math.min(minX, x);
+      minY = Math.min(minY, y);
+      maxX = Math.max(maxX, x);
+      maxY = Math.max(maxY, y);
+
+      prevX = x;
+      prevY = y;
+    }
+
+    // the sign of a00 depends on which way the contour winds, so the absolute value is used.
+    area = Math.abs(a00) / 2.0;
+    perimeter = arcLength;
+
+    // (boundingRect() includes both the first and last pixel, hence the + 1)
+    boundingBox.x = minX;
+    boundingBox.y = minY;
+    boundingBox.width = maxX - minX + 1;
+    boundingBox.height = maxY - minY + 1;
+
+    if (a00 != 0) {
+      // centroid = (m10 / m00, m01 / m00), where m00 = a00 / 2, m10 = a10 / 6, and m01 = a01 / 6
+      centerX = a10 / (3.0 * a00);
+      centerY = a01 / (3.0 * a00);
+    } else {
+      // a contour with no area (i.e. a line or a single point) has no centroid, so use the center of its box.
+      centerX = minX + (maxX - minX) / 2.0;
+      centerY = minY + (maxY - minY) / 2.0;
+    }
+
+    equivalentRectangleAspectRatio = calculateEquivalentRectangleAspectRatio(perimeter, area);
+    return this;
+  }
+
+  /**
+   * Fills in the measurements directly, for candidates that weren't found as contours.
+   * @return this descriptor, for convenience.
+   */
+  public ContourDescriptor setMeasurements(double area, double perimeter, double centerX, double centerY,
+                                           double equivalentRectangleAspectRatio, int x, int y, int width, int height) {
+    this.contour = null;
+    this.area = area;
+    this.perimeter = perimeter;
+    this.centerX = centerX;
+    this.centerY = centerY;
+    this.equivalentRectangleAspectRatio = equivalentRectangleAspectRatio;
+    boundingBox.x = x;
+    boundingBox.y = y;
+    boundingBox.width = width;
+    boundingBox.height = height;
+    return this;
+  }
+
+  /**
+   * Replaces the centroid with a more precise one (i.e. one found from the brightness of the pixels,
+   * see ImageProcessor.setSubPixelCentroidEnabled()). The other measurements are left as they are.
+   */
+  public void setCenter(double centerX, double centerY) {
+    this.centerX = centerX;
+    this.centerY = centerY;
+  }
+
+  /**
+   * Finds the aspect ratio of the rectangle that has the same area and perimeter as the contour.
+   * This is a decent measure of the contour's "shape" that doesn't care about how the contour is rotated.
+   */
+  private static double calculateEquivalentRectangleAspectRatio(double perimeter, double area) {
+    /* Perimeter = 2*W + 2*H
+     * Area = W*H
+     *
+     * Area / W = H
+     * Perimeter = 2*W + 2*(Area / W)
+     * Perimeter*W = 2*(W^2) + 2*Area
+     * 2*(W^2) - Perimeter*W + 2*Area = 0
+     */
+
+    double a = 2;
+    double b = -1 * perimeter;
+    double c = 2 * area;
+
+    double discriminant = (b*b) - (4*a*c);
+    double largerResult = 0;
+    double smallerResult = 0;
+    if (discriminant >= 0) {
+      // Quadratic Formula
+      largerResult = (-b + Math.sqrt(discriminant)) / (2*a);
+      smallerResult = (-b - Math.sqrt(discriminant)) / (2*a);
+    }
+
+    return (smallerResult > 0) ? (largerResult / smallerResult) : 0;
+  }
+
+  /** @return The contour that was measured, or null if the measurements didn't come from a contour. */
+  public MatOfPoint getContour() {
+    return contour;
+  }
+
+  public double getArea() {
+    return area;
+  }
+
+  public double getPerimeter() {
+    return perimeter;
+  }
+
+  /** @return The x coordinate of the contour's centroid (in pixels). */
+  public double getCenterX() {
+    return centerX;
+  }
+
+  /** @return The y coordinate of the contour's centroid (in pixels). */
+  public double getCenterY() {
+    return centerY;
+  }
+
+  public double getEquivalentRectangleAspectRatio() {
+    return equivalentRectangleAspectRatio;
+  }
+
+  /** @return The bounding box of the contour. Note that this Rect is reused by the next call to measure(). */
+  public Rect getBoundingBox() {
+    return boundingBox;
+  }
+}
@@ -0,0 +1,79 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import java.util.ArrayList;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Finds candidates by tracing the outline (contour) of each blob with findContours(),
+ * then measuring each contour (see ContourDescriptor). This is how the pipeline has always found the target.
+ * 
+ * Everything is reused from one call to the next, since making new Mats every frame
+ * is a great way to run the RIO out of memory.
+ */
+public class ContourExtractor implements CandidateExtractor {
+  
+  private ArrayList<MatOfPoint> contours = new ArrayList<MatOfPoint>();
+  private Mat hierarchy = MatTracker.newMat("ContourExtractor.hierarchy");
+  private ArrayList<ContourDescriptor> descriptorPool = new ArrayList<ContourDescriptor>();
+  private ArrayList<ContourDescriptor> descriptors = new ArrayList<ContourDescriptor>();
+  
+  @Override
+  public ArrayList<ContourDescriptor> extract(Mat binaryImage, Point offset) {
+    return measureContours(findContours(binaryImage, offset));
+  }
+  
+  /**
+   * Finds the contours in the given binary image.
+   * 
+   * Note that the returned list is reused! Every call releases the contours
+   * found by the previous call and refills the same list, so don't hold on to it
+   * (or any of the contours in it) past the next call to this method.
+   * 
+   * @param frame The binary image to search for contours.
+   * @param offset Every point of every contour is shifted by this much.
+   * @return The list of contours that were found.
+   */
+  public ArrayList<MatOfPoint> findContours(Mat frame, Point offset) {
+    // free the native memory used by the last frame's contours before finding new ones.
+    for (int i = 0; i < contours.size(); i++) {
+      contours.get(i).release();
+    }
+    contours.clear();
+    
+    // RETR_EXTERNAL: only the outermost contours are found (holes inside of a blob are ignored).
+    // CHAIN_APPROX_SIMPLE: straight edges are stored as just their end points, instead of every point along them.
+    int mode = Imgproc.RETR_EXTERNAL;
+    int method = Imgproc.CHAIN_APPROX_SIMPLE;
+    Imgproc.findContours(frame, contours, hierarchy, mode, method, offset);
+    for (int i = 0; i < contours.size(); i++) {
+      MatTracker.trackPerFrame(contours.get(i), "ContourExtractor.findContours (contour)");
+    }
+    
+    return contours;
+  }
+  
+  /**
+   * Measures every contour in the given list. Each contour is measured exactly once,
+   * and the measurements are shared by the filters, the scoring, and the Target.
+   * 
+   * Note that the returned list (and the descriptors in it) are reused by the next call to this method.
+   * 
+   * @param contours The contours to measure (normally the list returned by findContours()).
+   * @return A list of the measurements of each contour, in the same order as the given list.
+   */
+  public ArrayList<ContourDescriptor> measureContours(ArrayList<MatOfPoint> contours) {
+    while (descriptorPool.size() < contours.size()) {
+      descriptorPool.add(new ContourDescriptor());
+    }
+    
+    descriptors.clear();
+    for (int i = 0; i < contours.size(); i++) {
+      descriptors.add(descriptorPool.get(i).measure(contours.get(i)));
+    }
+    return descriptors;
+  }
+}
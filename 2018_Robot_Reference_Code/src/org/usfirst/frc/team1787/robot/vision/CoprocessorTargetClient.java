@@ -0,0 +1,241 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.usfirst.frc.team1787.robot.utils.TelemetryPublisher;
+
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Receives the targets found by the vision pipeline running on a coprocessor (see the VisionCoprocessor tool),
+ * so the RIO's cores are left for control instead of image processing.
+ *
+ * It's a TargetSource, so it plugs in wherever the ImageProcessor would (see Shooter.setTargetSource()).
+ * Just like the ImageProcessor, the waiting is done on a separate thread: it sits on the UDP port
+ * (or watches the shared file, see TargetPublisher), and keeps the newest target it's been sent.
+ * getCurrentTarget() only ever copies that target, so it never waits on the network.
+ *
+ * Packets that arrive out of order (older than one that's already been received) are thrown out.
+ * The sequence numbers are also used to count packets that never showed up.
+ * When the coprocessor restarts, its sequence numbers start over, so they're only compared between 
+ * packets with the same boot ID (see TargetPacket). A packet with a new boot ID is always taken, and the
+ * counting starts over from it.
+ *
+ * The shared file is only for testing on a desktop (see TargetPublisher for why).
+ */
+public class CoprocessorTargetClient implements TargetSource {
+
+  // FRC lets teams use ports 5800-5810 for whatever they want
+  public static final int DEFAULT_PORT = 5801;
+  public static final String DEFAULT_SHARED_FILE_PATH = "/dev/shm/visionTarget";
+
+  // if nothing shows up for this long, the coprocessor is considered disconnected.
+  private static final double CONNECTION_TIMEOUT_SECONDS = 0.5;
+  private static final int RECEIVE_TIMEOUT_MILLIS = 500;
+  private static final long SHARED_FILE_POLL_MILLIS = 1;
+  private static final int SHARED_FILE_READ_ATTEMPTS = 5;
+
+  private Thread thread;
+
+  // UDP
+  private DatagramSocket socket;
+  // (one byte bigger than a packet, so packets that are too big can be told apart from ones that fit exactly)
+  private final byte[] receiveBytes = new byte[TargetPacket.SIZE_BYTES + 1];
+  private final DatagramPacket datagram = new DatagramPacket(receiveBytes, receiveBytes.length);
+  private final ByteBuffer receiveBuffer = ByteBuffer.wrap(receiveBytes);
+
+  // shared file
+  private RandomAccessFile file;
+  private MappedByteBuffer sharedFile;
+  private int lastWriteCount = 0;
+
+  // only touched by the receiving thread
+  private final TargetPacket packet = new TargetPacket();
+  private final Target receivedTarget = new Target();
+  private boolean receivedAnything = false;
+  private int lastBootId = 0;
+  private int lastSequence = 0;
+
+  // the same hand-off between threads as the ImageProcessor (see its "Targets" comment)
+  private final Target latestTarget = new Target();
+  private final Target dashboardTarget = new Target(); // (publishDataToSmartDash()'s copy)
+  private volatile double lastPacketTimestamp = Double.NEGATIVE_INFINITY;
+  private volatile double lastConfidence = 0;
+
+  private volatile int packetsReceived = 0;
+  private volatile int packetsLost = 0;
+  private volatile int packetsRejected = 0;
+
+  private CoprocessorTargetClient() {
+    // use overUdp() or overSharedFile()
+  }
+
+  /** @param port The port to listen on (the coprocessor has to send to the same one). */
+  public static CoprocessorTargetClient overUdp(int port) throws IOException {
+    CoprocessorTargetClient client = new CoprocessorTargetClient();
+    client.socket = new DatagramSocket(port);
+    // (so the thread wakes up now and then to check if it's been interrupted)
+    client.socket.setSoTimeout(RECEIVE_TIMEOUT_MILLIS);
+    return client;
+  }
+
+  /** @param file The file the coprocessor writes to (see TargetPublisher). It's made if it doesn't exist yet. */
+  public static CoprocessorTargetClient overSharedFile(File file) throws IOException {
+    CoprocessorTargetClient client = new CoprocessorTargetClient();
+    client.file = new RandomAccessFile(file, "rw");
+    client.sharedFile = client.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                                                     TargetPublisher.SHARED_FILE_SIZE_BYTES);
+    return client;
+  }
+
+  /** Starts the receiving thread. Calling this more than once has no effect. */
+  public synchronized void start() {
+    if (thread == null) {
+      thread = new Thread(this::run, "Coprocessor Target Client");
+      // a daemon thread won't keep the JVM alive when the robot program exits.
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  private void run() {
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        boolean gotPacket = (socket != null) ? receiveFromUdp() : receiveFromSharedFile();
+        if (gotPacket) {
+          handlePacket(Timer.getFPGATimestamp());
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (IOException e) {
+        // (the socket going away isn't something that fixes itself)
+        System.out.println("Coprocessor Target Client stopped: " + e);
+        return;
+      }
+    }
+  }
+
+  /** Waits for a packet on the UDP port (or the receive timeout). @return true if a packet was read into the packet. */
+  private boolean receiveFromUdp() throws IOException {
+    datagram.setLength(receiveBytes.length);
+    try {
+      socket.receive(datagram);
+    } catch (SocketTimeoutException e) {
+      return false;
+    }
+    receiveBuffer.clear();
+    if (datagram.getLength() != TargetPacket.SIZE_BYTES || !packet.read(receiveBuffer)) {
+      packetsRejected++;
+      return false;
+    }
+    return true;
+  }
+
+  /** Waits for the shared file to be written to. @return true if a packet was read into the packet. */
+  private boolean receiveFromSharedFile() throws InterruptedException {
+    Thread.sleep(SHARED_FILE_POLL_MILLIS);
+    for (int attempt = 0; attempt < SHARED_FILE_READ_ATTEMPTS; attempt++) {
+      int writeCountBefore = sharedFile.getInt(TargetPublisher.SHARED_FILE_WRITE_COUNT_OFFSET);
+      if (writeCountBefore == lastWriteCount) {
+        return false; // nothing new
+      }
+      if ((writeCountBefore & 1) != 0) {
+        continue; // in the middle of a write
+      }
+      sharedFile.position(TargetPublisher.SHARED_FILE_PACKET_OFFSET);
+      boolean valid = packet.read(sharedFile);
+      if (sharedFile.getInt(TargetPublisher.SHARED_FILE_WRITE_COUNT_OFFSET) == writeCountBefore) {
+        // the packet wasn't changed while it was being read
+        lastWriteCount = writeCountBefore;
+        if (!valid) {
+          packetsRejected++;
+        }
+        return valid;
+      }
+    }
+    return false;
+  }
+
+  private void handlePacket(double receiveTimestamp) {
+    // (a new boot ID means the coprocessor restarted, so the old sequence numbers don't mean anything anymore)
+    boolean sameBoot = receivedAnything && packet.getBootId() == lastBootId;
+    int sequenceChange = packet.getSequence() - lastSequence;
+    if (sameBoot && sequenceChange <= 0) {
+      // an old packet that showed up late (or a repeat)
+      packetsRejected++;
+      return;
+    }
+    if (sameBoot && sequenceChange > 1) {
+      packetsLost += sequenceChange - 1;
+    }
+    receivedAnything = true;
+    lastBootId = packet.getBootId();
+    lastSequence = packet.getSequence();
+
+    packet.copyTo(receivedTarget, receiveTimestamp);
+    synchronized (latestTarget) {
+      latestTarget.copyFrom(receivedTarget);
+    }
+    lastConfidence = packet.getConfidence();
+    lastPacketTimestamp = receiveTimestamp;
+    packetsReceived++;
+  }
+
+  /**
+   * Copies the target in the most recent packet from the coprocessor into the given Target.
+   * This never waits on the network, so it's safe to call from the main robot loop (or any other thread).
+   */
+  @Override
+  public Target getCurrentTarget(Target destination) {
+    synchronized (latestTarget) {
+      destination.copyFrom(latestTarget);
+    }
+    return destination;
+  }
+
+  /** @return The confidence (0 to 1) the coprocessor gave the most recent target (see TargetPublisher). */
+  public double getConfidence() {
+    return lastConfidence;
+  }
+
+  /** @return true if a packet has been received recently (see CONNECTION_TIMEOUT_SECONDS). */
+  public boolean isConnected() {
+    return Timer.getFPGATimestamp() - lastPacketTimestamp < CONNECTION_TIMEOUT_SECONDS;
+  }
+
+  public int getPacketsReceived() {
+    return packetsReceived;
+  }
+
+  /** @return How many packets never showed up (according to the gaps in their sequence numbers). */
+  public int getPacketsLost() {
+    return packetsLost;
+  }
+
+  /** @return How many packets were thrown out (late, repeated, or not a TargetPacket at all). */
+  public int getPacketsRejected() {
+    return packetsRejected;
+  }
+
+  public void publishDataToSmartDash() {
+    TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
+    Target target = getCurrentTarget(dashboardTarget);
+    telemetry.putBoolean("Coprocessor Connected", isConnected());
+    telemetry.putBoolean("Target Aquired", target.isFound());
+    telemetry.putNumber("Distance", target.getHorizontalDistance());
+    telemetry.putNumber("targetErrorX", target.getErrorInDegreesX());
+    telemetry.putNumber("targetErrorY", target.getErrorInDegreesY());
+    telemetry.putNumber("Target Age (seconds)", target.getAge());
+    telemetry.putNumber("Coprocessor Confidence", getConfidence());
+    telemetry.putNumber("Coprocessor Packets Received", packetsReceived);
+    telemetry.putNumber("Coprocessor Packets Lost", packetsLost);
+  }
+}
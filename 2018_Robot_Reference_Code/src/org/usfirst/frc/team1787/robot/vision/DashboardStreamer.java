@@ -0,0 +1,236 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.usfirst.frc.team1787.robot.utils.TelemetryPublisher;
+
+/**
+ * Streams video to the dashboard on its own thread.
+ *
+ * Pushing a frame to the dashboard means it has to be encoded as a jpeg and sent over the network,
+ * which used to happen on the main thread every 20ms loop (along with waiting on a camera for frames
+ * from the gearCam and turretCam). Now all of that happens here, at a limited frame rate and resolution,
+ * so it doesn't take time away from controlling the robot, and so it doesn't use up more of
+ * the field's radio bandwidth than it needs to.
+ *
+ * Frames from the turretCam (and the processed versions of them) are copied from the ImageProcessor
+ * instead of being grabbed from the camera, since the VisionWorker is already grabbing every frame from it.
+ * The overlay (the target's box and centroid) is drawn on those copies by this thread, at the stream's frame rate,
+ * so the pipeline doesn't spend any time drawing (see getStreamFrame() in the ImageProcessor).
+ *
+ * To see how much it's costing us, the streamer keeps track of its frame rate, the CPU time used by its thread,
+ * and an estimate of the bandwidth used (every second or so, one frame is encoded as a jpeg to see how big it is).
+ */
+public class DashboardStreamer implements Runnable {
+
+  // Where to get the frames to stream
+  public static final int SOURCE_GEAR_CAM = 0;
+  public static final int SOURCE_TURRET_CAM = 1;
+  public static final int SOURCE_OVERLAY = 2;
+  public static final int SOURCE_PROCESSED = 3;
+  public static final String[] SOURCE_NAMES = {"gearCam", "turretCam",
+                                               "Processed Img (overlay)", "Processed Img (no overlay)"};
+  private volatile int selectedSource = SOURCE_GEAR_CAM;
+
+  // Limits on what's streamed (see setMaxFramesPerSecond() and setOutputResolution())
+  public final double DEFAULT_MAX_FRAMES_PER_SECOND = 15;
+  private volatile double maxFramesPerSecond = DEFAULT_MAX_FRAMES_PER_SECOND;
+  private volatile Size outputSize = new Size(CameraController.IMAGE_WIDTH_PIXELS, CameraController.IMAGE_HEIGHT_PIXELS);
+
+  // when disabled, nothing is streamed (i.e. when the tuning code pushes its own frames to the dashboard)
+  private volatile boolean enabled = true;
+  private final long IDLE_SLEEP_MILLIS = 20;
+
+  private CameraController camController;
+  private ImageProcessor imgProcessor = ImageProcessor.getInstance();
+  private Thread thread;
+
+  // reused for every frame
+  private Mat frame = MatTracker.newMat("DashboardStreamer.frame");
+  private Mat scaledFrame = MatTracker.newMat("DashboardStreamer.scaledFrame");
+  private long lastFrameTime = 0;
+
+  // Usage Reporting
+  private final double REPORT_PERIOD_SECONDS = 1.0;
+  private final int JPEG_QUALITY = 80;
+  private MatOfByte encodedSample = MatTracker.track(new MatOfByte(), "DashboardStreamer.encodedSample");
+  private MatOfInt encodeParams = MatTracker.track(new MatOfInt(Imgcodecs.CV_IMWRITE_JPEG_QUALITY, JPEG_QUALITY),
+                                                   "DashboardStreamer.encodeParams");
+  private ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+  private volatile double framesPerSecond = 0;
+  private volatile double estimatedKilobitsPerSecond = 0;
+  private volatile double cpuPercent = 0;
+  private volatile double encodeMillis = 0;
+  private double bitsPerSampledFrame = 0;
+
+  // Singleton Instance
+  private static final DashboardStreamer instance = new DashboardStreamer();
+
+  private DashboardStreamer() {
+    // initialization intentionally left blank.
+  }
+
+  /** Starts the streaming thread. Calling this more than once has no effect. */
+  public synchronized void start() {
+    if (thread == null) {
+      camController = CameraController.getInstance();
+      thread = new Thread(this, "Dashboard Streamer");
+      // a daemon thread won't keep the JVM alive when the robot program exits.
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  @Override
+  public void run() {
+    int framesSinceReport = 0;
+    boolean sampleNextFrame = true;
+    long reportStartTime = System.nanoTime();
+    long reportStartCpuTime = getThreadCpuTime();
+
+    while (!Thread.currentThread().isInterrupted()) {
+      long loopStartTime = System.nanoTime();
+
+      if (enabled && getNextFrame(frame)) {
+        Mat output = scale(frame);
+        camController.pushFrameToDash(output);
+        framesSinceReport++;
+        if (sampleNextFrame) {
+          measureEncodedSize(output);
+          sampleNextFrame = false;
+        }
+      } else if (!enabled) {
+        imgProcessor.getStreamFrame(ImageProcessor.STREAM_FRAME_NONE, frame);
+      }
+
+      double secondsSinceReport = (System.nanoTime() - reportStartTime) / 1e9;
+      if (secondsSinceReport >= REPORT_PERIOD_SECONDS) {
+        long cpuTime = getThreadCpuTime();
+        framesPerSecond = framesSinceReport / secondsSinceReport;
+        cpuPercent = (cpuTime >= 0) ? 100.0 * (cpuTime - reportStartCpuTime) / 1e9 / secondsSinceReport : 0;
+        estimatedKilobitsPerSecond = bitsPerSampledFrame * framesPerSecond / 1000;
+        framesSinceReport = 0;
+        sampleNextFrame = true;
+        reportStartTime = System.nanoTime();
+        reportStartCpuTime = cpuTime;
+      }
+
+      // wait out the rest of this frame's time slot, so we never go over the max frame rate.
+      long periodNanos = enabled ? (long) (1e9 / maxFramesPerSecond) : IDLE_SLEEP_MILLIS * 1000000;
+      long sleepMillis = (loopStartTime + periodNanos - System.nanoTime()) / 1000000;
+      try {
+        Thread.sleep(Math.max(1, sleepMillis));
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Gets the next frame from the selected source.
+   * @return true if there's a new frame to stream, false otherwise.
+   */
+  private boolean getNextFrame(Mat destination) {
+    int source = selectedSource;
+    long frameTime;
+    if (source == SOURCE_GEAR_CAM) {
+      imgProcessor.getStreamFrame(ImageProcessor.STREAM_FRAME_NONE, destination);
+      frameTime = camController.getGearCamFrame(destination);
+    } else if (source == SOURCE_TURRET_CAM) {
+      frameTime = imgProcessor.getStreamFrame(ImageProcessor.STREAM_FRAME_RAW, destination);
+    } else if (source == SOURCE_OVERLAY) {
+      frameTime = imgProcessor.getStreamFrame(ImageProcessor.STREAM_FRAME_OVERLAY, destination);
+    } else {
+      frameTime = imgProcessor.getStreamFrame(ImageProcessor.STREAM_FRAME_PROCESSED, destination);
+    }
+
+    // (a frame that's already been sent isn't sent again)
+    if (frameTime == 0 || frameTime == lastFrameTime) {
+      return false;
+    }
+    lastFrameTime = frameTime;
+    return true;
+  }
+
+  /** @return The given frame, shrunk down to the output size (if it isn't that size already). */
+  private Mat scale(Mat frame) {
+    Size size = outputSize;
+    if (frame.cols() <= size.width && frame.rows() <= size.height) {
+      return frame;
+    }
+    // INTER_AREA averages the pixels that get squished together, which looks the best when shrinking.
+    Imgproc.resize(frame, scaledFrame, size, 0, 0, Imgproc.INTER_AREA);
+    return scaledFrame;
+  }
+
+  /**
+   * The actual encoding happens inside of cscore, where we can't see it,
+   * so this encodes the frame the same way to estimate how big each frame is (and how long that takes).
+   */
+  private void measureEncodedSize(Mat frame) {
+    long startTime = System.nanoTime();
+    Imgcodecs.imencode(".jpg", frame, encodedSample, encodeParams);
+    encodeMillis = (System.nanoTime() - startTime) / 1e6;
+    bitsPerSampledFrame = 8.0 * encodedSample.total();
+  }
+
+  /** @return The CPU time (in nanoseconds) used by the current thread, or -1 if the JVM can't tell us. */
+  private long getThreadCpuTime() {
+    return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : -1;
+  }
+
+  /** @param source One of the SOURCE constants (i.e. SOURCE_GEAR_CAM). */
+  public void setSource(int source) {
+    selectedSource = source;
+  }
+
+  /** Switches to the next source (in the order of the SOURCE constants, wrapping around at the end). */
+  public void selectNextSource() {
+    selectedSource = (selectedSource + 1) % SOURCE_NAMES.length;
+  }
+
+  public String getSelectedSourceName() {
+    return SOURCE_NAMES[selectedSource];
+  }
+
+  /** @param maxFramesPerSecond The most frames that will be sent to the dashboard each second. */
+  public void setMaxFramesPerSecond(double maxFramesPerSecond) {
+    this.maxFramesPerSecond = Math.max(1, maxFramesPerSecond);
+  }
+
+  /**
+   * Frames bigger than the given resolution are shrunk down before they're sent, which saves bandwidth.
+   * Frames that are already smaller are sent as they are.
+   */
+  public void setOutputResolution(int width, int height) {
+    outputSize = new Size(width, height);
+  }
+
+  /**
+   * @param enabled true to stream frames from the selected source,
+   * false to stop streaming (so something else can push frames to the dashboard).
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public void publishDataToSmartDash() {
+    TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
+    telemetry.putString("Selected Streaming Source", getSelectedSourceName());
+    telemetry.putNumber("Stream FPS", framesPerSecond);
+    telemetry.putNumber("Stream Estimated Bandwidth (kbps)", estimatedKilobitsPerSecond);
+    telemetry.putNumber("Stream CPU (%)", cpuPercent);
+    telemetry.putNumber("Stream Sample Encode Time (ms)", encodeMillis);
+  }
+
+  public static DashboardStreamer getInstance() {
+    return instance;
+  }
+}
@@ -0,0 +1,28 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import org.opencv.core.Mat;
+
+/**
+ * Anything that the vision pipeline can get frames from.
+ * 
+ * On the robot, frames come from the turretCam (see CameraController.getTurretCamFrameSource()),
+ * but they can also come from recorded images or videos (see ImageFolderFrameSource and VideoFileFrameSource).
+ * This makes it possible to run the exact same pipeline on a laptop between events, 
+ * without a camera or a RIO.
+ */
+public interface FrameSource {
+  
+  /**
+   * Gets the next frame, and stores it in the given Mat object.
+   * This works just like CvSink.grabFrame().
+   * @param destination The OpenCv Mat to store the image in.
+   * @return The timestamp of the frame (in microseconds), or 0 if there was no frame to get.
+   */
+  public long grabFrame(Mat destination);
+  
+  /**
+   * @return false once a recording has run out of frames, true otherwise.
+   * (Cameras never run out of frames, so they always return true.)
+   */
+  public boolean hasMoreFrames();
+}
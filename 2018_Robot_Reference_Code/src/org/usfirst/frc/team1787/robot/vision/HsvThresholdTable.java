@@ -0,0 +1,159 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+/**
+ * An alternative to running cvtColor() + inRange() on every frame.
+ *
+ * The HSV filter only ever gives a yes or no answer for each pixel, and that answer only depends
+ * on the pixel's BGR color. Since there are "only" 256^3 (about 16.7 million) possible BGR colors,
+ * the answer for every one of them can be worked out ahead of time and stored in a table.
+ * Filtering a frame is then just one table lookup per pixel, in a single pass over the frame,
+ * without ever making an HSV copy of the image.
+ *
+ * The table stores 1 bit per color, so it takes up 2 MB. It only has to be rebuilt when the
+ * HSV bounds change, which takes a fraction of a second, so don't use this for anything that
+ * changes the bounds every loop (like tuning the HSV filter by hand).
+ *
+ * To make sure the results exactly match getHSVFilter(), each color is converted to HSV
+ * with the same integer math that OpenCV's cvtColor(COLOR_BGR2HSV) uses for 8 bit images,
+ * and the bounds are rounded to integers the same way inRange() rounds them.
+ */
+public class HsvThresholdTable {
+
+  // the fixed point math that OpenCV uses to convert BGR to HSV (see RGB2HSV_b in OpenCV's color.cpp)
+  private static final int HSV_SHIFT = 12;
+  private static final int HUE_RANGE = 180;
+  private static final int[] SATURATION_DIVISION_TABLE = new int[256];
+  private static final int[] HUE_DIVISION_TABLE = new int[256];
+  static {
+    for (int i = 1; i < 256; i++) {
+      SATURATION_DIVISION_TABLE[i] = (int) Math.rint((255 << HSV_SHIFT) / (1.0 * i));
+      HUE_DIVISION_TABLE[i] = (int) Math.rint((HUE_RANGE << HSV_SHIFT) / (6.0 * i));
+    }
+  }
+
+  // 1 bit for each BGR color. The bit for a color is found at index (B << 16) | (G << 8) | R.
+  private final long[] table = new long[(1 << 24) / 64];
+
+  // the bounds the table was last built for (stored as the integers that inRange() would use)
+  private int[] lowerBounds = {-1, -1, -1};
+  private int[] upperBounds = {-1, -1, -1};
+
+  // reused buffers for moving pixels between the Mats and java
+  private byte[] bgrPixels = new byte[0];
+  private byte[] maskPixels = new byte[0];
+
+  /**
+   * Makes sure the table is built for the given bounds.
+   * The table is only rebuilt if the bounds are different from the last time this was called.
+   * @param lowerBounds The minimum values of H, S, and V that pass through the filter
+   * @param upperBounds The maximum values of H, S, and V that pass through the filter
+   */
+  public void setBounds(Scalar lowerBounds, Scalar upperBounds) {
+    boolean boundsChanged = false;
+    for (int i = 0; i < 3; i++) {
+      int lower = roundBound(lowerBounds.val[i]);
+      int upper = roundBound(upperBounds.val[i]);
+      if (lower != this.lowerBounds[i] || upper != this.upperBounds[i]) {
+        this.lowerBounds[i] = lower;
+        this.upperBounds[i] = upper;
+        boundsChanged = true;
+      }
+    }
+
+    if (boundsChanged) {
+      buildTable();
+    }
+  }
+
+  /** @return true if the table was last built for the given bounds, false otherwise. */
+  public boolean isBuiltFor(Scalar lowerBounds, Scalar upperBounds) {
+    for (int i = 0; i < 3; i++) {
+      if (roundBound(lowerBounds.val[i]) != this.lowerBounds[i] 
+          || roundBound(upperBounds.val[i]) != this.upperBounds[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Rounds a bound to an int the same way inRange() does, then clamps it to the range of an 8 bit channel. */
+  private static int roundBound(double bound) {
+    return (int) Math.max(-1, Math.min(256, Math.rint(bound)));
+  }
+
+  private void buildTable() {
+    int hMin = lowerBounds[0], sMin = lowerBounds[1], vMin = lowerBounds[2];
+    int hMax = upperBounds[0], sMax = upperBounds[1], vMax = upperBounds[2];
+
+    for (int i = 0; i < table.length; i++) {
+      table[i] = 0;
+    }
+
+    for (int b = 0; b < 256; b++) {
+      for (int g = 0; g < 256; g++) {
+        int indexBG = (b << 16) | (g << 8);
+        for (int r = 0; r < 256; r++) {
+          // V is just the brightest channel, so most colors can be ruled out before doing any division.
+          int v = Math.max(b, Math.max(g, r));
+          if (v < vMin || v > vMax) {
+            continue;
+          }
+
+          int diff = v - Math.min(b, Math.min(g, r));
+          int s = (diff * SATURATION_DIVISION_TABLE[v] + (1 << (HSV_SHIFT - 1))) >> HSV_SHIFT;
+          if (s < sMin || s > sMax) {
+            continue;
+          }
+
+          int h;
+          if (v == r) {
+            h = g - b;
+          } else if (v == g) {
+            h = b - r + 2 * diff;
+          } else {
+            h = r - g + 4 * diff;
+          }
+          h = (h * HUE_DIVISION_TABLE[diff] + (1 << (HSV_SHIFT - 1))) >> HSV_SHIFT;
+          if (h < 0) {
+            h += HUE_RANGE;
+          }
+          if (h < hMin || h > hMax) {
+            continue;
+          }
+
+          int index = indexBG | r;
+          table[index >>> 6] |= (1L << index);
+        }
+      }
+    }
+  }
+
+  /**
+   * Performs the HSV filter using the table.
+   * This gives exactly the same result as cvtColor(COLOR_BGR2HSV) followed by inRange().
+   * @param bgrFrame The image to filter. It must be an 8 bit, 3 channel BGR image (like the ones from the turretCam).
+   * @param mask Where the result is stored. If it's already the right size (for example, a submat of
+   * a bigger mask), the result is written directly into it.
+   */
+  public void apply(Mat bgrFrame, Mat mask) {
+    int numOfPixels = bgrFrame.rows() * bgrFrame.cols();
+    if (maskPixels.length < numOfPixels) {
+      maskPixels = new byte[numOfPixels];
+      bgrPixels = new byte[3 * numOfPixels];
+    }
+
+    // (get() and put() take care of submats whose rows aren't right next to each other in memory)
+    bgrFrame.get(0, 0, bgrPixels);
+    for (int i = 0, p = 0; i < numOfPixels; i++, p += 3) {
+      int index = ((bgrPixels[p] & 0xFF) << 16) | ((bgrPixels[p + 1] & 0xFF) << 8) | (bgrPixels[p + 2] & 0xFF);
+      maskPixels[i] = (((table[index >>> 6] >>> index) & 1L) != 0) ? (byte) 255 : 0;
+    }
+
+    mask.create(bgrFrame.rows(), bgrFrame.cols(), CvType.CV_8UC1);
+    mask.put(0, 0, maskPixels);
+  }
+}
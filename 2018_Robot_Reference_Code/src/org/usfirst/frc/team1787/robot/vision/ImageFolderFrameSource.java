@@ -0,0 +1,81 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Plays back a folder of recorded images (.png, .jpg, etc.) as if they came from a camera.
+ * The images are played in alphabetical order of their file names, so name them in the order they were taken
+ * (i.e. frame0001.png, frame0002.png, ...).
+ * 
+ * Image files don't store when they were taken, so each frame is given a timestamp 
+ * as if the frames were taken at a constant frame rate.
+ */
+public class ImageFolderFrameSource implements FrameSource {
+  
+  private static final String[] IMAGE_EXTENSIONS = {".png", ".jpg", ".jpeg", ".bmp"};
+  
+  private File[] imageFiles;
+  private int nextImageIndex = 0;
+  private final double framesPerSecond;
+  
+  /**
+   * @param folder The folder of images to play back.
+   * @param framesPerSecond The frame rate the images were recorded at (only used to make up timestamps).
+   */
+  public ImageFolderFrameSource(File folder, double framesPerSecond) {
+    this.framesPerSecond = framesPerSecond;
+    imageFiles = folder.listFiles((directory, name) -> isImageFile(name));
+    if (imageFiles == null) {
+      throw new IllegalArgumentException(folder + " isn't a folder.");
+    }
+    Arrays.sort(imageFiles);
+  }
+  
+  private static boolean isImageFile(String fileName) {
+    String lowerCaseName = fileName.toLowerCase();
+    for (String extension : IMAGE_EXTENSIONS) {
+      if (lowerCaseName.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  @Override
+  public long grabFrame(Mat destination) {
+    if (!hasMoreFrames()) {
+      return 0;
+    }
+    
+    Mat image = MatTracker.trackPerFrame(Imgcodecs.imread(imageFiles[nextImageIndex].getPath()), "ImageFolderFrameSource.imread");
+    nextImageIndex++;
+    if (image.empty()) {
+      // the file couldn't be read, so treat it like a frame that never showed up.
+      return 0;
+    }
+    image.copyTo(destination);
+    image.release();
+    
+    // (the first frame gets a timestamp of 1 instead of 0, since 0 means there was no frame)
+    return 1 + (long) ((nextImageIndex - 1) * 1e6 / framesPerSecond);
+  }
+  
+  @Override
+  public boolean hasMoreFrames() {
+    return nextImageIndex < imageFiles.length;
+  }
+  
+  /** @return The number of images in the folder. */
+  public int getNumOfFrames() {
+    return imageFiles.length;
+  }
+  
+  /** @return The file the most recent frame was read from, or null if no frames have been read yet. */
+  public File getCurrentFile() {
+    return (nextImageIndex > 0) ? imageFiles[nextImageIndex - 1] : null;
+  }
+}
@@ -1,38 +1,175 @@
 package org.usfirst.frc.team1787.robot.vision;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.function.BooleanSupplier;
+
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
-import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
+import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.imgproc.Moments;
+import org.usfirst.frc.team1787.robot.utils.TelemetryPublisher;
 
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import edu.wpi.first.wpilibj.Timer;
 
-public class ImageProcessor {
+public class ImageProcessor implements TargetSource {
   
   // A "Mat" is the dataformat that OpenCv stores images in.
   // Here 2 different Mats are used:
   // originalFrame stores the raw image from the camera
-  // (though sometimes it's drawn on to overlay information)
+  // (it's never drawn on, overlays go on copies of it, see drawContours() and Frames For Streaming)
   // processedFrame stores the filtered/processed image
-  private CameraController camController = CameraController.getInstance();
-  private Mat originalFrame = new Mat();
-  private Mat processedFrame = new Mat();
+  // (hsvFrame is just a place to store the HSV version of the originalFrame along the way)
+  // (contourFrame is where drawContours() draws, so the frames above are left alone)
+  // Frames come from the frameSource, which is the turretCam unless told otherwise (see setFrameSource()).
+  // (grabbedFrame is where the next frame is grabbed into, see runVisionProcessing())
+  private volatile FrameSource frameSource;
+  private Mat originalFrame = MatTracker.newMat("ImageProcessor.originalFrame");
+  private Mat grabbedFrame = MatTracker.newMat("ImageProcessor.grabbedFrame");
+  private Mat processedFrame = MatTracker.newMat("ImageProcessor.processedFrame");
+  private Mat hsvFrame = MatTracker.newMat("ImageProcessor.hsvFrame");
+  private Mat contourFrame = MatTracker.newMat("ImageProcessor.contourFrame");
+  
+  /* Buffers that get reused for every frame. Mats are stored in native (non-java) memory,
+   * which the garbage collector frees late or never, so making new ones every frame
+   * is a great way to run the RIO out of memory. Instead, these are made once and recycled. */
+  private ContourDescriptor scratchDescriptor = new ContourDescriptor();
+  private Point centroid = new Point();
+  private Point boxTopLeft = new Point();
+  private Point boxBottomRight = new Point();
 
   // HSV Bounds...................................new Scalar(H, S, V);
   public final Scalar DEFAULT_HSV_LOWER_BOUNDS = new Scalar(75, 200, 30);
   public final Scalar DEFAULT_HSV_UPPER_BOUNDS = new Scalar(90, 255, 150);
   
-  // Shape Filtering Parameters
-  private final double defaultMinArea = 50;
-  private final double defaultMinScore = 0.8;
-  private final double defaultMaxScore = 2.0;
+  /* The bounds actually used by the pipeline. They start out as the defaults, but can be replaced
+   * (i.e. by bounds found with the HsvSweepTuner, see loadHSVBounds()). The Scalars themselves are 
+   * never changed, they're swapped out for new ones, so the pipeline never sees half-changed bounds. */
+  private volatile Scalar hsvLowerBounds = DEFAULT_HSV_LOWER_BOUNDS;
+  private volatile Scalar hsvUpperBounds = DEFAULT_HSV_UPPER_BOUNDS;
+  
+  // where loadHSVBounds() looks for bounds when the robot starts up (copy the file from the HsvSweepTuner here)
+  public static final String HSV_BOUNDS_FILE_PATH = "/home/lvuser/hsvBounds.properties";
+  
+  /* Lookup Table Thresholding
+   * When enabled, the main pipeline uses a precomputed BGR -> pass/fail table (see HsvThresholdTable)
+   * instead of cvtColor() + inRange(). The results are identical, it's just a different way of getting there.
+   * getHSVFilter() always uses cvtColor() + inRange(), since it's used for tuning, and 
+   * the table would have to be rebuilt every time the bounds change. */
+  private volatile boolean lookupTableEnabled = false;
+  private HsvThresholdTable hsvThresholdTable;
+  
+  /* Candidate Extraction
+   * The blobs that might be the target are found either by tracing their contours (the default),
+   * or by labeling connected components, which gets most of the measurements in one pass over the frame
+   * (see ContourExtractor and ConnectedComponentsExtractor). Either way, the same measurements come out. */
+  private ContourExtractor contourExtractor = new ContourExtractor();
+  private ConnectedComponentsExtractor connectedComponentsExtractor = new ConnectedComponentsExtractor();
+  private volatile boolean connectedComponentsEnabled = false;
+  private Point noOffset = new Point(0, 0);
+  
+  // Shape Filtering Parameters (see setContourFilters(), and the ContourFilterOptimizer for finding good values)
+  private volatile double defaultMinArea = 50;
+  private volatile double defaultMinScore = 0.8;
+  private volatile double defaultMaxScore = 2.0;
+  
+  /* Region Of Interest (ROI) Tracking
+   * While we're locked onto the target, it won't move very far between frames, so there's no need 
+   * to filter and search the whole frame for it. Instead, only a "search window" around the target's 
+   * last bounding box is processed. If the target isn't found inside the window, the window grows
+   * for the next frame, and after a few misses in a row, the whole frame is searched again.
+   * Contours found in the window are shifted back into full-frame pixel coordinates,
+   * so none of the angle math in Target has to change. */
+  private volatile boolean roiTrackingEnabled = true;
+  private final double ROI_PADDING_RATIO = 1.0; // padding on each side of the box, as a multiple of the box's size.
+  private final int ROI_MIN_PADDING_PIXELS = 8;
+  private final double ROI_GROWTH_FACTOR = 2.0;
+  private final int ROI_MAX_MISSES = 3;
+  private final int ROI_GRID_PIXELS = 8; // (see setSearchWindow())
+  private Rect searchWindow = new Rect(); // a width of 0 means "search the full frame"
+  private volatile boolean searchingFullFrame = true; // (searchWindow's fields aren't safe to read from other threads)
+  private Point searchWindowOffset = new Point();
+  private MatWindow frameWindowView = new MatWindow("ImageProcessor.applyHSVFilter (submat)");
+  private MatWindow processedWindowView = new MatWindow("ImageProcessor.applyHSVFilter (submat)");
+  // true if everything in the processedFrame outside of the processedWindowView is black (see applyHSVFilter())
+  private boolean processedFrameBlankOutsideWindow = false;
+  private long processedFrameDataAddr = 0;
+  private int consecutiveMisses = 0;
+  
+  /* Skipping Redundant Frames
+   * Results are keyed by the frameTime of the frame they came from. If the frameSource hands over a frame
+   * that already has a result (same frameTime), that result is still correct, so the frame isn't processed again.
+   * 
+   * Frames that look the same as the last processed frame can also be skipped (see setStaticFrameSkipEnabled()),
+   * but only while the robot is standing still (see setStationaryCheck()), since that's the only time
+   * an unchanged picture means an unchanged target. Each frame is shrunk down to a tiny thumbnail and compared
+   * with the thumbnail of the last processed frame. If the average difference is below the threshold,
+   * the old target is handed out again with the new frame's timestamps. A frame is processed every so often
+   * no matter what, just in case something changed too slowly to notice. */
+  private volatile boolean staticFrameSkipEnabled = false;
+  private volatile BooleanSupplier stationaryCheck = () -> false;
+  private volatile double frameChangeThreshold = 3.0; // average difference per pixel per channel (out of 255)
+  private final Size THUMBNAIL_SIZE = new Size(20, 15);
+  private final int MAX_FRAMES_SKIPPED_IN_A_ROW = 15; // half a second at 30 fps
+  private Mat thumbnail = MatTracker.newMat("ImageProcessor.thumbnail");
+  private Mat lastProcessedThumbnail = MatTracker.newMat("ImageProcessor.lastProcessedThumbnail");
+  private int framesSkippedInARow = 0;
+  
+  /* Coarse-To-Fine (Pyramid) Search
+   * Bigger frames take longer to process, but small frames limit how precisely the target can be found
+   * (which matters most when it's far away, and only a few pixels tall). In pyramid mode, the turretCam sends
+   * bigger frames (see CameraController.PYRAMID_IMAGE_WIDTH_PIXELS), and the search for candidates happens on
+   * a copy that's shrunk down to the normal size (IMAGE_WIDTH_PIXELS x IMAGE_HEIGHT_PIXELS), so the filters and
+   * the search window work exactly like they normally do. Only the winner is measured again on the full sized
+   * frame, in a small window around it, which is where the extra precision comes from.
+   * detectionFrame is whichever frame the candidates are searched for in (the originalFrame or the coarseFrame). */
+  private volatile boolean pyramidEnabled = false;
+  private Mat detectionFrame = originalFrame;
+  private Mat coarseFrame = MatTracker.newMat("ImageProcessor.coarseFrame");
+  private final Size COARSE_SIZE = new Size(CameraController.IMAGE_WIDTH_PIXELS, CameraController.IMAGE_HEIGHT_PIXELS);
+  private final int REFINE_PADDING_PIXELS = 2; // padding around the winner's box (in coarse pixels)
+  private Mat refineMask = MatTracker.newMat("ImageProcessor.refineMask");
+  private Rect refineWindow = new Rect();
+  private Point refineWindowOffset = new Point();
+  private Rect overlayBox = new Rect();
+  // the refinement has its own extractors, since extracting reuses the list (and descriptors) from the last time.
+  private ContourExtractor refineContourExtractor = new ContourExtractor();
+  private ConnectedComponentsExtractor refineComponentsExtractor = new ConnectedComponentsExtractor();
+  
+  /* Sub-Pixel Centroid
+   * A contour's centroid only comes from its outline, and the outline only goes through the centers of pixels,
+   * so the centroid jumps by whole pixels as the edges of the target flicker in and out of the filter.
+   * At 160x120, one pixel is about a third of a degree. When enabled (see setSubPixelCentroidEnabled()),
+   * the winner's centroid is found again from the brightness of every pixel in the blob and just around it.
+   * Pixels on the edge that the target only partly covers are only partly bright, so they only partly count,
+   * which makes the centroid move smoothly instead of in steps. The brightness of the background 
+   * (the average of the ring of pixels just outside the blob) is subtracted first, so it doesn't count at all.
+   * Only the winner's bounding box is looked at, and boxes bigger than MAX_CENTROID_PIXELS are left alone,
+   * so the cost per frame has a limit. */
+  private volatile boolean subPixelCentroidEnabled = false;
+  private final int CENTROID_WEIGHT_CHANNEL = 1; // green (BGR), the color of the LED ring
+  private final int MAX_CENTROID_PIXELS = 6000; // about a 100x60 box
+  private Rect centroidWindow = new Rect();
+  private Rect detectionBounds = new Rect();
+  private Mat centroidIntensity = MatTracker.newMat("ImageProcessor.centroidIntensity");
+  private Mat centroidMask = MatTracker.newMat("ImageProcessor.centroidMask");
+  private Mat centroidRing = MatTracker.newMat("ImageProcessor.centroidRing");
+  private Mat centroidWeights = MatTracker.newMat("ImageProcessor.centroidWeights");
+  private Mat defaultKernel = new Mat(); // (an empty kernel means a 3x3 square)
+  private Scalar backgroundIntensity = new Scalar(0);
   
   // Colors used to draw contours..........new Scalar(B, G, R);
   public static final Scalar COLOR_BLACK = new Scalar(0, 0, 0);
@@ -46,8 +183,83 @@ public class ImageProcessor {
   private final Scalar[] COLORS = {COLOR_RED, COLOR_YELLOW, COLOR_CYAN, 
                                    COLOR_GREEN, COLOR_PURPLE, COLOR_BLUE};
   
-  // Current Target
-  private Target currentTarget = new Target(null);
+  /* Stages of the vision pipeline
+   * The time each stage took on the most recent frame is kept, so it's possible to see 
+   * where the time is going (for example, with the VisionReplay tool).
+   * Each stage's time is also fed into the stats, which keep the times of the last few hundred frames
+   * (see VisionStats). "processing" isn't a real stage, it's the total of every stage after the grab.
+   * On a frame where a stage didn't run (i.e. every stage after "change check" on a skipped frame), 
+   * its last time (getLastStageNanos()) is 0, but nothing is fed into its stats, so a stage's percentiles are 
+   * how long it takes when it runs. "processing" is recorded for every frame, skipped or not, 
+   * so its percentiles are what frames actually cost (skipped ones just cost a change check). */
+  public static final int STAGE_GRAB = 0;
+  public static final int STAGE_THRESHOLD = 1;
+  public static final int STAGE_CONTOURS = 2;
+  public static final int STAGE_SCORING = 3;
+  public static final int STAGE_STREAM_COPY = 4;
+  public static final int STAGE_PROCESSING = 5;
+  public static final int STAGE_CHANGE_CHECK = 6;
+  public static final int STAGE_REFINE = 7;
+  public static final int STAGE_CENTROID = 8;
+  public static final String[] STAGE_NAMES = {"grab", "threshold", "contours", "scoring", "stream copy", "processing",
+                                              "change check", "refine", "centroid"};
+  private long[] lastStageNanos = new long[STAGE_NAMES.length];
+  private final int STATS_WINDOW_SIZE = 256; // frames (about 8.5 seconds at 30 fps)
+  private final VisionStats stats = new VisionStats(STAGE_NAMES.length, STATS_WINDOW_SIZE, CameraController.FRAMES_PER_SECOND);
+  private final VisionStats.Snapshot dashboardSnapshot = new VisionStats.Snapshot(STAGE_NAMES.length);
+  /* publishDataToSmartDash() is called every loop, but the percentiles mean sorting every stage's window
+   * (while holding the lock the pipeline needs to record its next frame), and they don't change much in 20ms.
+   * So the dashboard's snapshot is only taken this often. */
+  private final double STATS_SNAPSHOT_PERIOD_SECONDS = 0.5;
+  private double lastStatsSnapshotTime = Double.NEGATIVE_INFINITY;
+  
+  /* Targets
+   * workingTarget is only ever touched by the thread running the pipeline (i.e. the VisionWorker).
+   * latestTarget is where finished results are handed off between threads (always lock it before using it!).
+   * Anyone who wants the target gets their own copy of latestTarget (see getCurrentTarget()).
+   * The same objects are reused forever, so no new Target has to be made each frame.
+   * (dashboardTarget is publishDataToSmartDash()'s copy) */
+  private Target workingTarget = new Target();
+  private final Target latestTarget = new Target();
+  private final Target dashboardTarget = new Target();
+  
+  /* Frames For Streaming
+   * The DashboardStreamer runs on its own thread, so it can't read the originalFrame or the processedFrame
+   * while the pipeline might be writing to them. Instead, the pipeline copies whichever frame the streamer
+   * last asked for (and only that one) into the streamFrame, which is guarded by its own lock.
+   * That lock is only ever held for the length of a copy, so neither thread waits on the other for long.
+   * 
+   * The overlay (the target's box and centroid) used to be drawn right on the originalFrame by the pipeline,
+   * on every frame, whether anyone was watching or not. Now the pipeline only saves where the overlay goes
+   * (a few numbers) along with its copy of the frame, and the overlay is drawn by whoever calls getStreamFrame(),
+   * on their own copy. So drawing happens on the DashboardStreamer's thread, at the stream's frame rate,
+   * and only when the overlay is actually being streamed. */
+  public static final int STREAM_FRAME_NONE = 0;
+  public static final int STREAM_FRAME_RAW = 1;       // the frame straight from the camera
+  public static final int STREAM_FRAME_OVERLAY = 2;   // the frame with the target drawn on it
+  public static final int STREAM_FRAME_PROCESSED = 3; // the result of the HSV filter
+  private volatile int requestedStreamFrame = STREAM_FRAME_NONE;
+  private final Mat streamFrame = MatTracker.newMat("ImageProcessor.streamFrame");
+  private int streamFrameType = STREAM_FRAME_NONE;
+  private long streamFrameTime = 0;
+  private boolean streamOverlayFound = false;
+  private final Rect streamOverlayBox = new Rect();
+  private final Point streamOverlayCentroid = new Point();
+  // only used by the thread calling getStreamFrame() (to draw the overlay outside of the lock)
+  private final Rect overlayBoxToDraw = new Rect();
+  private final Point overlayCentroidToDraw = new Point();
+  private final Point overlayTopLeft = new Point();
+  private final Point overlayBottomRight = new Point();
+  
+  /* Capture Timestamps
+   * The frameTime given by the CvSink is in microseconds, but it's measured on cscore's own clock, 
+   * not the FPGA clock that everything else on the robot uses. The difference between the two clocks
+   * is found by looking at (FPGA time when the grab returned - frameTime). Frames are sometimes handed 
+   * over late, but never early, so the smallest difference seen is the best guess of the true offset.
+   * The guess is allowed to creep up a little every frame, in case the two clocks drift apart. */
+  private double frameClockOffsetSeconds = Double.POSITIVE_INFINITY;
+  private long lastFrameTime = 0;
+  private final double FRAME_CLOCK_DRIFT_ALLOWANCE_SECONDS = 0.0001; // per frame
   
   // Singleton Instance
   private static final ImageProcessor instance = new ImageProcessor();
@@ -56,30 +268,389 @@ public class ImageProcessor {
     // initialization intentionally left blank.
   }
   
-  /** This is the main vision pipeline. Call this method periodically to run vision! Woot! */
+  /**
+   * This is the main vision pipeline. Call this method periodically to run vision! Woot!
+   * 
+   * Note that this method waits for a new frame from the turretCam, so it's normally run
+   * by the VisionWorker thread instead of being called from the main robot loop.
+   * It should only ever be run by one thread at a time.
+   * 
+   * The wait for the frame can be as long as a second, so the frame is grabbed (into the grabbedFrame) 
+   * without holding the ImageProcessor's lock. Otherwise, the main thread would be stuck waiting for the camera 
+   * too, any time it called one of the synchronized methods (i.e. getHSVFilter() or drawContours() while tuning).
+   * The lock is only held while the frame is processed, and the grabbedFrame is copied into the originalFrame.
+   * That's why the tuning code pauses the VisionWorker (which waits for this to return) before grabbing frames itself.
+   */
   public void runVisionProcessing() {
-    /* Perform an HSV filter on the originalFrame to get a binary image, which is stored in processedFrame */
-    getHSVFilter(DEFAULT_HSV_LOWER_BOUNDS, DEFAULT_HSV_UPPER_BOUNDS);
+    long grabStartTime = System.nanoTime();
+    long frameTime = getFrameSource().grabFrame(grabbedFrame);
+    double grabTimestamp = Timer.getFPGATimestamp();
+    long grabNanos = System.nanoTime() - grabStartTime;
+    synchronized (this) {
+      processFrame(frameTime, grabTimestamp, grabNanos);
+    }
+  }
+  
+  /**
+   * Everything runVisionProcessing() does after the grab.
+   * @param frameTime The timestamp the frameSource gave the grabbedFrame (0 if the grab timed out).
+   * @param grabTimestamp The FPGA timestamp (in seconds) of when the grab returned.
+   * @param grabNanos How long the grab took.
+   */
+  private void processFrame(long frameTime, double grabTimestamp, long grabNanos) {
+    Arrays.fill(lastStageNanos, 0);
+    recordStage(STAGE_GRAB, grabNanos);
+    long stageStartTime = System.nanoTime();
+    if (frameTime == 0) {
+      /* The grab timed out, so there's no new frame to process. The old target is left as is,
+       * and its age will keep growing until a new frame comes in. 
+       * (a recording that ran out of frames isn't counted as a timeout) */
+      if (getFrameSource().hasMoreFrames()) {
+        stats.recordGrabTimeout();
+      }
+      return;
+    }
+    if (frameTime == workingTarget.getFrameTime()) {
+      // this frame already has a result (the latest target), so there's nothing to do.
+      stats.recordRepeatedFrame();
+      return;
+    }
+    // copied instead of swapped, so the originalFrame's pixels stay in the same place, 
+    // and the search window's submat of it can be kept (see applyHSVFilter()). (it's a small copy at 160x120)
+    grabbedFrame.copyTo(originalFrame);
+    if (requestedStreamFrame == STREAM_FRAME_RAW) {
+      saveStreamFrame(STREAM_FRAME_RAW, originalFrame, frameTime);
+    }
+    double captureTimestamp = calculateCaptureTimestamp(frameTime, grabTimestamp);
+    long processingStartTime = stageStartTime;
     
-    /* Search that binary image for contours, and store the detected contours in a list 
-     * in OpenCv, contours are represented by the "MatOfPoint" type. */
-    ArrayList<MatOfPoint> contours = findContours(processedFrame);
+    if (staticFrameSkipEnabled) {
+      boolean unchanged = isUnchangedFrame();
+      stageStartTime = endStage(STAGE_CHANGE_CHECK, stageStartTime);
+      if (unchanged) {
+        // nothing moved, so the target is right where it was. Only its timestamps need to be updated.
+        workingTarget.setFrameInfo(frameTime, captureTimestamp);
+        synchronized (latestTarget) {
+          latestTarget.copyFrom(workingTarget);
+        }
+        stats.recordSkippedFrame(frameTime);
+        endStage(STAGE_PROCESSING, processingStartTime);
+        return;
+      }
+    }
+    stats.recordFrame(frameTime);
     
-    /* Sort through the list of contours, measuring different aspects of them to determine 
-     * which of them, if any, is most likely the target */
-    MatOfPoint bestCandidate = getStrongestCandidate(contours);
-    currentTarget = new Target(bestCandidate);
+    Scalar lowerBounds = hsvLowerBounds;
+    Scalar upperBounds = hsvUpperBounds;
+    if (lookupTableEnabled) {
+      if (hsvThresholdTable == null) {
+        hsvThresholdTable = new HsvThresholdTable();
+      }
+      hsvThresholdTable.setBounds(lowerBounds, upperBounds);
+    }
     
+    // in pyramid mode, the candidates are searched for in a shrunk down copy of the frame (see Pyramid Search above)
+    if (pyramidEnabled && originalFrame.cols() > COARSE_SIZE.width) {
+      Imgproc.resize(originalFrame, coarseFrame, COARSE_SIZE, 0, 0, Imgproc.INTER_AREA);
+      detectionFrame = coarseFrame;
+    } else {
+      detectionFrame = originalFrame;
+    }
     
+    if (searchWindow.x + searchWindow.width > detectionFrame.cols() 
+        || searchWindow.y + searchWindow.height > detectionFrame.rows()) {
+      // the frame shrank since the window was chosen (i.e. the resolution changed), so the window is no good.
+      searchWindow.width = 0;
+      searchingFullFrame = true;
+    }
     
-    // if a valid target is found, it will be drawn on the orgininalFrame in green
-    if (currentTarget.getHorizontalDistance() > 0) {
-      Rect box = Imgproc.boundingRect(bestCandidate);
-      drawBoundingBox(box, originalFrame, COLOR_GREEN);
+    /* Perform an HSV filter on the detectionFrame (or just the search window, if we're tracking the target)
+     * to get a binary image, which is stored in processedFrame.
+     * Then search that binary image for candidates (blobs that might be the target), 
+     * and measure different aspects of each one (all at once, so nothing has to be measured twice). */
+    CandidateExtractor extractor = connectedComponentsEnabled ? connectedComponentsExtractor : contourExtractor;
+    ArrayList<ContourDescriptor> candidates;
+    if (searchWindow.width <= 0) {
+      applyHSVFilter(detectionFrame, lowerBounds, upperBounds);
+      stageStartTime = endStage(STAGE_THRESHOLD, stageStartTime);
       
-      Point centroid = this.getContourCenter(bestCandidate);
-      drawPoint(centroid, originalFrame, COLOR_GREEN);
+      candidates = extractor.extract(processedFrame, noOffset);
+      stageStartTime = endStage(STAGE_CONTOURS, stageStartTime);
+    } else {
+      Mat processedWindow = applyHSVFilter(detectionFrame, lowerBounds, upperBounds, searchWindow);
+      stageStartTime = endStage(STAGE_THRESHOLD, stageStartTime);
+      
+      // the candidates are shifted by the position of the window, so they end up in full-frame coordinates.
+      searchWindowOffset.x = searchWindow.x;
+      searchWindowOffset.y = searchWindow.y;
+      candidates = extractor.extract(processedWindow, searchWindowOffset);
+      stageStartTime = endStage(STAGE_CONTOURS, stageStartTime);
+    }
+    
+    // sort through the measurements to determine which candidate, if any, is most likely the target
+    ContourDescriptor bestCandidate = getStrongestCandidate(candidates);
+    updateSearchWindow(bestCandidate);
+    stageStartTime = endStage(STAGE_SCORING, stageStartTime);
+    
+    // in pyramid mode, the winner is measured again on the full sized frame
+    ContourDescriptor measuredCandidate = bestCandidate;
+    Mat measuredFrame = detectionFrame;
+    if (bestCandidate != null && detectionFrame != originalFrame) {
+      ContourDescriptor refinedCandidate = refineCandidate(bestCandidate, lowerBounds, upperBounds);
+      if (refinedCandidate != null) {
+        measuredCandidate = refinedCandidate;
+        measuredFrame = originalFrame;
+      }
+      stageStartTime = endStage(STAGE_REFINE, stageStartTime);
+    }
+    if (subPixelCentroidEnabled && measuredCandidate != null) {
+      if (measuredFrame != detectionFrame) {
+        refineCentroid(measuredCandidate, originalFrame, refineMask, refineWindow);
+      } else {
+        detectionBounds.width = detectionFrame.cols();
+        detectionBounds.height = detectionFrame.rows();
+        refineCentroid(measuredCandidate, detectionFrame, processedFrame, detectionBounds);
+      }
+      stageStartTime = endStage(STAGE_CENTROID, stageStartTime);
+    }
+    workingTarget.set(measuredCandidate, frameTime, captureTimestamp, measuredFrame.cols(), measuredFrame.rows());
+    synchronized (latestTarget) {
+      latestTarget.copyFrom(workingTarget);
+    }
+    
+    // the overlay isn't drawn here, just saved with the frame (see Frames For Streaming above)
+    if (requestedStreamFrame == STREAM_FRAME_OVERLAY) {
+      if (workingTarget.isFound()) {
+        // (the box is from the detectionFrame, so it's scaled up to fit the originalFrame)
+        double scale = originalFrame.cols() / (double) detectionFrame.cols();
+        Rect box = bestCandidate.getBoundingBox();
+        overlayBox.x = (int) (box.x * scale);
+        overlayBox.y = (int) (box.y * scale);
+        overlayBox.width = (int) Math.ceil(box.width * scale);
+        overlayBox.height = (int) Math.ceil(box.height * scale);
+        centroid.x = measuredCandidate.getCenterX() * originalFrame.cols() / measuredFrame.cols();
+        centroid.y = measuredCandidate.getCenterY() * originalFrame.rows() / measuredFrame.rows();
+      }
+      saveStreamFrame(STREAM_FRAME_OVERLAY, originalFrame, frameTime, workingTarget.isFound());
+    } else if (requestedStreamFrame == STREAM_FRAME_PROCESSED) {
+      saveStreamFrame(STREAM_FRAME_PROCESSED, processedFrame, frameTime);
+    }
+    endStage(STAGE_STREAM_COPY, stageStartTime);
+    endStage(STAGE_PROCESSING, processingStartTime);
+  }
+  
+  /**
+   * Finds the given candidate again in the full sized originalFrame, in a window around where it was found
+   * in the coarseFrame, to measure it more precisely (see Pyramid Search above).
+   * @param coarseCandidate The winning candidate from the coarseFrame.
+   * @return The measurements of the candidate in originalFrame coordinates, or null if it couldn't be found again.
+   * If the window has more than one candidate in it (i.e. the target is split up), the biggest one is used.
+   */
+  private ContourDescriptor refineCandidate(ContourDescriptor coarseCandidate, Scalar lowerBounds, Scalar upperBounds) {
+    double scaleX = originalFrame.cols() / (double) coarseFrame.cols();
+    double scaleY = originalFrame.rows() / (double) coarseFrame.rows();
+    Rect box = coarseCandidate.getBoundingBox();
+    int left = Math.max(0, (int) Math.floor((box.x - REFINE_PADDING_PIXELS) * scaleX));
+    int top = Math.max(0, (int) Math.floor((box.y - REFINE_PADDING_PIXELS) * scaleY));
+    int right = Math.min(originalFrame.cols(), (int) Math.ceil((box.x + box.width + REFINE_PADDING_PIXELS) * scaleX));
+    int bottom = Math.min(originalFrame.rows(), (int) Math.ceil((box.y + box.height + REFINE_PADDING_PIXELS) * scaleY));
+    refineWindow.x = left;
+    refineWindow.y = top;
+    refineWindow.width = right - left;
+    refineWindow.height = bottom - top;
+    refineWindowOffset.x = left;
+    refineWindowOffset.y = top;
+    
+    // (the mask is only ever as big as the frame, and only the window is written to, so it's never cleared)
+    refineMask.create(originalFrame.rows(), originalFrame.cols(), CvType.CV_8UC1);
+    Mat originalWindow = MatTracker.trackPerFrame(originalFrame.submat(refineWindow), "ImageProcessor.refineCandidate (submat)");
+    Mat maskWindow = MatTracker.trackPerFrame(refineMask.submat(refineWindow), "ImageProcessor.refineCandidate (submat)");
+    filter(originalWindow, lowerBounds, upperBounds, maskWindow);
+    CandidateExtractor extractor = connectedComponentsEnabled ? refineComponentsExtractor : refineContourExtractor;
+    ArrayList<ContourDescriptor> refinedCandidates = extractor.extract(maskWindow, refineWindowOffset);
+    originalWindow.release();
+    maskWindow.release();
+    
+    ContourDescriptor biggest = null;
+    for (int i = 0; i < refinedCandidates.size(); i++) {
+      ContourDescriptor c = refinedCandidates.get(i);
+      if (biggest == null || c.getArea() > biggest.getArea()) {
+        biggest = c;
+      }
+    }
+    return biggest;
+  }
+  
+  /**
+   * Finds the centroid of the given candidate from the brightness of the pixels in and around it
+   * (see Sub-Pixel Centroid above), and replaces the candidate's center with it.
+   * @param candidate The candidate to find the centroid of.
+   * @param bgrFrame The frame the candidate was found in.
+   * @param mask The result of the HSV filter on that frame.
+   * @param limit The part of the mask that's valid (the candidate's neighborhood is kept inside of it).
+   */
+  private void refineCentroid(ContourDescriptor candidate, Mat bgrFrame, Mat mask, Rect limit) {
+    Rect box = candidate.getBoundingBox();
+    int left = Math.max(limit.x, box.x - 1);
+    int top = Math.max(limit.y, box.y - 1);
+    int right = Math.min(limit.x + limit.width, box.x + box.width + 1);
+    int bottom = Math.min(limit.y + limit.height, box.y + box.height + 1);
+    if (right <= left || bottom <= top || (right - left) * (bottom - top) > MAX_CENTROID_PIXELS) {
+      return;
+    }
+    centroidWindow.x = left;
+    centroidWindow.y = top;
+    centroidWindow.width = right - left;
+    centroidWindow.height = bottom - top;
+    
+    Mat bgrWindow = MatTracker.trackPerFrame(bgrFrame.submat(centroidWindow), "ImageProcessor.refineCentroid (submat)");
+    Mat maskWindow = MatTracker.trackPerFrame(mask.submat(centroidWindow), "ImageProcessor.refineCentroid (submat)");
+    Core.extractChannel(bgrWindow, centroidIntensity, CENTROID_WEIGHT_CHANNEL);
+    
+    // the blob, grown by a pixel on each side to catch the edge pixels that didn't quite pass the filter,
+    // and the ring of pixels just outside of the blob, which is where the background brightness comes from.
+    Imgproc.dilate(maskWindow, centroidMask, defaultKernel);
+    Core.subtract(centroidMask, maskWindow, centroidRing);
+    backgroundIntensity.val[0] = Core.mean(centroidIntensity, centroidRing).val[0];
+    
+    // weight = brightness above the background (8 bit subtraction stops at 0, so darker pixels don't count)
+    centroidWeights.create(centroidIntensity.rows(), centroidIntensity.cols(), CvType.CV_8UC1);
+    Core.bitwise_xor(centroidWeights, centroidWeights, centroidWeights); // (see drawContours() for why this makes it black)
+    Core.subtract(centroidIntensity, backgroundIntensity, centroidWeights, centroidMask);
+    
+    Moments moments = Imgproc.moments(centroidWeights, false);
+    if (moments.get_m00() > 0) {
+      candidate.setCenter(left + moments.get_m10() / moments.get_m00(), top + moments.get_m01() / moments.get_m00());
+    }
+    bgrWindow.release();
+    maskWindow.release();
+  }
+  
+  /**
+   * @return true if the robot is standing still and the originalFrame looks the same as the last processed frame.
+   * When it doesn't, the frame is about to be processed, so its thumbnail is kept to compare the next frames with.
+   */
+  private boolean isUnchangedFrame() {
+    Imgproc.resize(originalFrame, thumbnail, THUMBNAIL_SIZE, 0, 0, Imgproc.INTER_AREA);
+    boolean unchanged = false;
+    if (framesSkippedInARow < MAX_FRAMES_SKIPPED_IN_A_ROW && !lastProcessedThumbnail.empty()
+        && thumbnail.type() == lastProcessedThumbnail.type() && stationaryCheck.getAsBoolean()) {
+      double averageDifference = Core.norm(thumbnail, lastProcessedThumbnail, Core.NORM_L1) 
+                                 / (thumbnail.total() * thumbnail.channels());
+      unchanged = (averageDifference < frameChangeThreshold);
     }
+    
+    if (unchanged) {
+      framesSkippedInARow++;
+    } else {
+      framesSkippedInARow = 0;
+      // swapped instead of copied, since the old thumbnail isn't needed anymore.
+      Mat temp = lastProcessedThumbnail;
+      lastProcessedThumbnail = thumbnail;
+      thumbnail = temp;
+    }
+    return unchanged;
+  }
+  
+  private void saveStreamFrame(int type, Mat frame, long frameTime) {
+    saveStreamFrame(type, frame, frameTime, false);
+  }
+  
+  /** @param overlayFound true if the overlay (overlayBox and centroid) should be drawn on the frame when it's streamed. */
+  private void saveStreamFrame(int type, Mat frame, long frameTime, boolean overlayFound) {
+    synchronized (streamFrame) {
+      frame.copyTo(streamFrame);
+      streamFrameType = type;
+      streamFrameTime = frameTime;
+      streamOverlayFound = overlayFound;
+      if (overlayFound) {
+        streamOverlayBox.x = overlayBox.x;
+        streamOverlayBox.y = overlayBox.y;
+        streamOverlayBox.width = overlayBox.width;
+        streamOverlayBox.height = overlayBox.height;
+        streamOverlayCentroid.x = centroid.x;
+        streamOverlayCentroid.y = centroid.y;
+      }
+    }
+  }
+  
+  /**
+   * Gets a copy of one of the pipeline's frames, so it can be streamed to the dashboard from another thread.
+   * Asking for a frame tells the pipeline to start saving copies of that type of frame, 
+   * so the first call (or the first call after switching types) usually won't get anything.
+   * For STREAM_FRAME_OVERLAY, the overlay is drawn on the copy, by the thread calling this (see Frames For Streaming above).
+   * @param type Which frame to get (i.e. STREAM_FRAME_OVERLAY). STREAM_FRAME_NONE stops the pipeline from saving copies.
+   * @param destination Where to store the copy.
+   * @return The frameTime of the copied frame, or 0 if there's no frame of the given type yet.
+   */
+  public long getStreamFrame(int type, Mat destination) {
+    requestedStreamFrame = type;
+    long frameTime;
+    boolean drawOverlay;
+    synchronized (streamFrame) {
+      if (type == STREAM_FRAME_NONE || streamFrameType != type) {
+        return 0;
+      }
+      streamFrame.copyTo(destination);
+      frameTime = streamFrameTime;
+      drawOverlay = (type == STREAM_FRAME_OVERLAY && streamOverlayFound);
+      if (drawOverlay) {
+        overlayBoxToDraw.x = streamOverlayBox.x;
+        overlayBoxToDraw.y = streamOverlayBox.y;
+        overlayBoxToDraw.width = streamOverlayBox.width;
+        overlayBoxToDraw.height = streamOverlayBox.height;
+        overlayCentroidToDraw.x = streamOverlayCentroid.x;
+        overlayCentroidToDraw.y = streamOverlayCentroid.y;
+      }
+    }
+    
+    // the target is drawn in green (outside of the lock, so the pipeline never waits on the drawing)
+    if (drawOverlay) {
+      overlayTopLeft.x = overlayBoxToDraw.x;
+      overlayTopLeft.y = overlayBoxToDraw.y;
+      overlayBottomRight.x = overlayBoxToDraw.x + overlayBoxToDraw.width;
+      overlayBottomRight.y = overlayBoxToDraw.y + overlayBoxToDraw.height;
+      Imgproc.rectangle(destination, overlayTopLeft, overlayBottomRight, COLOR_GREEN, 1);
+      drawPoint(overlayCentroidToDraw, destination, COLOR_GREEN);
+    }
+    return frameTime;
+  }
+  
+  /**
+   * Converts the frameTime of a frame into the FPGA timestamp of when the frame was captured,
+   * so it can be matched up with other sensors (i.e. the turret's angle history).
+   * @param frameTime The timestamp (in microseconds) that the FrameSource gave the frame.
+   * @param grabTimestamp The FPGA timestamp (in seconds) of when the grab returned.
+   * @return The FPGA timestamp (in seconds) of when the frame was captured.
+   */
+  private double calculateCaptureTimestamp(long frameTime, double grabTimestamp) {
+    double frameTimeSeconds = frameTime / 1e6;
+    double offset = grabTimestamp - frameTimeSeconds;
+    if (frameTime < lastFrameTime) {
+      // time went backwards, so this must be a different source (or clock). Start over.
+      frameClockOffsetSeconds = offset;
+    } else {
+      frameClockOffsetSeconds = Math.min(offset, frameClockOffsetSeconds + FRAME_CLOCK_DRIFT_ALLOWANCE_SECONDS);
+    }
+    lastFrameTime = frameTime;
+    return frameTimeSeconds + frameClockOffsetSeconds - CameraController.TURRET_CAM_LATENCY_SECONDS;
+  }
+  
+  /**
+   * Records how long a stage of the pipeline took.
+   * @param stage Which stage just finished (i.e. STAGE_GRAB).
+   * @param stageStartTime The value of System.nanoTime() when the stage started.
+   * @return The current value of System.nanoTime(), which is also when the next stage starts.
+   */
+  private long endStage(int stage, long stageStartTime) {
+    long now = System.nanoTime();
+    recordStage(stage, now - stageStartTime);
+    return now;
+  }
+  
+  private void recordStage(int stage, long nanos) {
+    lastStageNanos[stage] = nanos;
+    stats.recordStage(stage, nanos);
   }
   
   
@@ -98,8 +669,8 @@ public class ImageProcessor {
    * of the actual target. What exactly "close enough" means is determined by minScore and maxScore.
    * Ultimately, what is returned is this: (minScore <= (contour aspect ratio / ideal aspect ratio) <= maxScore)
    */
-  public boolean passesShapeTest(MatOfPoint contour, double minScore, double maxScore) {
-    double aspectRatioScore = this.getEquivalentRectangleAspectRatio(contour) / Target.DESIRED_CONTOUR_ASPECT_RATIO;
+  public boolean passesShapeTest(ContourDescriptor contour, double minScore, double maxScore) {
+    double aspectRatioScore = contour.getEquivalentRectangleAspectRatio() / Target.DESIRED_CONTOUR_ASPECT_RATIO;
     return (minScore <= aspectRatioScore && aspectRatioScore <= maxScore);
   }
   
@@ -108,28 +679,46 @@ public class ImageProcessor {
    * @param minArea
    * @return if the area of the given contour is >= the given minimum
    */
-  public boolean passesAreaTest(MatOfPoint contour, double minArea) {
-    return (Imgproc.contourArea(contour) >= minArea);
+  public boolean passesAreaTest(ContourDescriptor contour, double minArea) {
+    return (contour.getArea() >= minArea);
+  }
+  
+  /** Same as passesShapeTest(ContourDescriptor, ...), but measures the contour first. */
+  public synchronized boolean passesShapeTest(MatOfPoint contour, double minScore, double maxScore) {
+    return passesShapeTest(scratchDescriptor.measure(contour), minScore, maxScore);
+  }
+  
+  /** Same as passesAreaTest(ContourDescriptor, ...), but measures the contour first. */
+  public synchronized boolean passesAreaTest(MatOfPoint contour, double minArea) {
+    return passesAreaTest(scratchDescriptor.measure(contour), minArea);
   }
   
   /**
    * This method runs all contour filters and finds the contour that's most likely the target.
    * It does not bother to remove contours that are not the target from the given list.
-   * @param listOfTargets
-   * @return
-   */
-  public MatOfPoint getStrongestCandidate(ArrayList<MatOfPoint> contours) {
-    MatOfPoint bestCandidate = null;
-    double maxArea = defaultMinArea;
-    
-    for (MatOfPoint c : contours) {
-      double area = Imgproc.contourArea(c);
-      // TODO:
-      // don't forget to also pass the area to the shape test, so it doesn't have to be
-      // recalculated when getting the equivalent rectangle of the contour.
-      if (area > maxArea && passesShapeTest(c, defaultMinScore, defaultMaxScore)) {
+   * @param candidates The measurements of each contour (see measureContours()).
+   * @return The measurements of the contour that's most likely the target, or null if none of them pass.
+   */
+  public ContourDescriptor getStrongestCandidate(ArrayList<ContourDescriptor> candidates) {
+    return getStrongestCandidate(candidates, defaultMinArea, defaultMinScore, defaultMaxScore);
+  }
+  
+  /**
+   * Same as getStrongestCandidate(candidates), but with the given filter parameters instead of the defaults.
+   * Of all the contours that pass the filters, the biggest one is chosen.
+   * This doesn't change anything in the ImageProcessor, so it's safe to call from any thread.
+   */
+  public ContourDescriptor getStrongestCandidate(ArrayList<ContourDescriptor> candidates, 
+                                                 double minArea, double minScore, double maxScore) {
+    ContourDescriptor bestCandidate = null;
+    double maxArea = minArea;
+    
+    for (int i = 0; i < candidates.size(); i++) {
+      ContourDescriptor c = candidates.get(i);
+      // the area is checked first, because it's the cheapest way to throw out a contour.
+      if (c.getArea() > maxArea && passesShapeTest(c, minScore, maxScore)) {
         bestCandidate = c;
-        maxArea = area;
+        maxArea = c.getArea();
       }
     }
     
@@ -144,16 +733,33 @@ public class ImageProcessor {
   // Methods For Finding & Measuring Contours!
   /* ----------------------------------------------------------- */
   
-  public ArrayList<MatOfPoint> findContours(Mat frame) {
-    ArrayList<MatOfPoint> listOfContours = new ArrayList<MatOfPoint>();
-    
-    // TODO: Add description of what each of these parts do.
-    Mat hierarchy = new Mat();
-    int mode = Imgproc.RETR_EXTERNAL;
-    int method = Imgproc.CHAIN_APPROX_SIMPLE;
-    Imgproc.findContours(frame, listOfContours, hierarchy, mode, method);
-    
-    return listOfContours;
+  /**
+   * Finds the contours in the given binary image.
+   * 
+   * Note that the returned list is reused! Every call releases the contours
+   * found by the previous call and refills the same list, so don't hold on to it
+   * (or any of the contours in it) past the next call to this method.
+   * If you need to filter the list, copy the contours you want into a list of your own
+   * instead of removing them from this one, otherwise they'll never get released.
+   * 
+   * @param frame The binary image to search for contours.
+   * @return The list of contours that were found.
+   */
+  public synchronized ArrayList<MatOfPoint> findContours(Mat frame) {
+    return contourExtractor.findContours(frame, noOffset);
+  }
+  
+  /**
+   * Measures every contour in the given list. Each contour is measured exactly once,
+   * and the measurements are shared by the filters, the scoring, and the Target.
+   * 
+   * Note that the returned list (and the descriptors in it) are reused by the next call to this method.
+   * 
+   * @param contours The contours to measure (normally the list returned by findContours()).
+   * @return A list of the measurements of each contour, in the same order as the given list.
+   */
+  public synchronized ArrayList<ContourDescriptor> measureContours(ArrayList<MatOfPoint> contours) {
+    return contourExtractor.measureContours(contours);
   }
   
   public Point getContourCenter(MatOfPoint contour) {
@@ -168,45 +774,6 @@ public class ImageProcessor {
     return new Point(centerX, centerY);
   }
   
-  private double getContourPerimeter(MatOfPoint contour) {
-    //MatOfPoint2f temp = new MatOfPoint2f(contour.toArray());
-    
-    // TODO: Add a bit more explanation for commented out part above.
-    MatOfPoint2f temp = new MatOfPoint2f();
-    contour.convertTo(temp, CvType.CV_32F);
-    /* The arcLength function requires a "MatOfPoint2f", not just a regular "MatOfPoint"
-     * Just from googling, the method above seems to be the best way to deal with this. */
-    
-    return Imgproc.arcLength(temp, true);
-  }
-  
-  // TODO: Add explanation for what this is, why it's here, and how it's used.
-  private double getEquivalentRectangleAspectRatio(MatOfPoint contour) {
-    /* Perimeter = 2*W + 2*H
-     * Area = W*H
-     * 
-     * Area / W = H
-     * Perimeter = 2*W + 2*(Area / W)
-     * Perimeter*W = 2*(W^2) + 2*Area
-     * 2*(W^2) - Perimeter*W + 2*Area = 0
-     */
-    
-    double a = 2;
-    double b = -1 * getContourPerimeter(contour);
-    double c = 2 * Imgproc.contourArea(contour);
-    
-    double discriminant = (b*b) - (4*a*c);
-    double largerResult = 0;
-    double smallerResult = 0;
-    if (discriminant >= 0) {
-      // Quadratic Formula
-      largerResult = (-b + Math.sqrt(discriminant)) / (2*a);
-      smallerResult = (-b - Math.sqrt(discriminant)) / (2*a);
-    }
-    
-    return (smallerResult > 0) ? (largerResult / smallerResult) : 0;
-  }
-  
   
   
   
@@ -233,17 +800,287 @@ public class ImageProcessor {
    * 
    * @return A Mat containing the result of the filter. Specifically, this is the "processedFrame"
    * Mat that is a member of the ImageProcessor.
+   * 
+   * This grabs from the same camera as runVisionProcessing(), so the VisionWorker should be disabled first.
    */
-  public Mat getHSVFilter(Scalar lowerBounds, Scalar upperBounds) {
-    camController.getTurretCamFrame(originalFrame);
+  public synchronized Mat getHSVFilter(Scalar lowerBounds, Scalar upperBounds) {
+    getFrameSource().grabFrame(originalFrame);
+    return applyHSVFilter(originalFrame, lowerBounds, upperBounds);
+  }
+  
+  /** Same as getHSVFilter(), but uses the given frame (i.e. the originalFrame) instead of grabbing a new one. */
+  private Mat applyHSVFilter(Mat frame, Scalar lowerBounds, Scalar upperBounds) {
+    filter(frame, lowerBounds, upperBounds, processedFrame);
+    processedFrameBlankOutsideWindow = false;
+    return processedFrame;
+  }
+  
+  /**
+   * Performs an HSV filter on the given BGR image, storing the result in the given destination.
+   * If the lookup table is enabled (and has been built for the given bounds), it's used instead of 
+   * cvtColor() + inRange(). Either way, the result is the same.
+   */
+  private void filter(Mat bgrImage, Scalar lowerBounds, Scalar upperBounds, Mat destination) {
+    if (lookupTableEnabled && hsvThresholdTable != null 
+        && hsvThresholdTable.isBuiltFor(lowerBounds, upperBounds)) {
+      hsvThresholdTable.apply(bgrImage, destination);
+      return;
+    }
     
     // Images directly from the turretCam are in BGR format, so they 
     // need to be converted to HSV format before the HSV filter is applied
-    Imgproc.cvtColor(originalFrame, processedFrame, Imgproc.COLOR_BGR2HSV);
+    // (the HSV image is kept in its own Mat, so processedFrame doesn't 
+    // have to be reallocated every time it switches between 3 channels and 1)
+    Imgproc.cvtColor(bgrImage, hsvFrame, Imgproc.COLOR_BGR2HSV);
     
     // This is the HSV filter
-    Core.inRange(processedFrame, lowerBounds, upperBounds, processedFrame);
-    return processedFrame;
+    Core.inRange(hsvFrame, lowerBounds, upperBounds, destination);
+  }
+  
+  /**
+   * Same as applyHSVFilter(frame, lowerBounds, upperBounds), except only the pixels inside 
+   * the given window are filtered (everything outside the window is left black).
+   * 
+   * Blanking the whole processedFrame every frame would cost about as much as filtering all of it, 
+   * which is what the window is supposed to avoid. So the rest of the processedFrame is only blanked when
+   * something else could've been written there (the last frame was searched in full, or the processedFrame
+   * was reallocated). Otherwise, only the last window is blanked, and only if the window moved.
+   * @return A submat of the processedFrame that covers just the window. It's kept until the window moves, 
+   * so don't release it!
+   */
+  private Mat applyHSVFilter(Mat frame, Scalar lowerBounds, Scalar upperBounds, Rect window) {
+    processedFrame.create(frame.rows(), frame.cols(), CvType.CV_8UC1);
+    if (!processedFrameBlankOutsideWindow || processedFrame.dataAddr() != processedFrameDataAddr) {
+      Core.bitwise_xor(processedFrame, processedFrame, processedFrame); // (see drawContours() for why this makes the frame black)
+      processedFrameDataAddr = processedFrame.dataAddr();
+      processedFrameBlankOutsideWindow = true;
+    } else if (!processedWindowView.isOf(processedFrame, window)) {
+      // (the view is still of the last window here)
+      Mat lastWindow = processedWindowView.get(processedFrame, processedWindowView.getWindow());
+      Core.bitwise_xor(lastWindow, lastWindow, lastWindow);
+    }
+    
+    /* A "submat" is a Mat that points to part of a bigger Mat instead of having its own copy of the data.
+     * Anything written to processedWindow is actually written into the processedFrame. */
+    Mat originalWindow = frameWindowView.get(frame, window);
+    Mat processedWindow = processedWindowView.get(processedFrame, window);
+    
+    filter(originalWindow, lowerBounds, upperBounds, processedWindow);
+    return processedWindow;
+  }
+  
+  /**
+   * Decides where to look for the target in the next frame.
+   * @param bestCandidate The contour that was chosen as the target in this frame, or null if none was.
+   */
+  private void updateSearchWindow(ContourDescriptor bestCandidate) {
+    if (!roiTrackingEnabled) {
+      searchWindow.width = 0;
+      searchingFullFrame = true;
+      return;
+    }
+    
+    if (bestCandidate != null) {
+      // found it! Center a window around the target for the next frame.
+      consecutiveMisses = 0;
+      Rect box = bestCandidate.getBoundingBox();
+      int paddingX = Math.max(ROI_MIN_PADDING_PIXELS, (int) (box.width * ROI_PADDING_RATIO));
+      int paddingY = Math.max(ROI_MIN_PADDING_PIXELS, (int) (box.height * ROI_PADDING_RATIO));
+      setSearchWindow(box.x - paddingX, box.y - paddingY, box.width + 2*paddingX, box.height + 2*paddingY);
+    } else if (searchWindow.width > 0) {
+      // missed it. Grow the window around its current center, or give up and search the full frame.
+      consecutiveMisses++;
+      if (consecutiveMisses >= ROI_MAX_MISSES) {
+        searchWindow.width = 0;
+      } else {
+        int newWidth = (int) (searchWindow.width * ROI_GROWTH_FACTOR);
+        int newHeight = (int) (searchWindow.height * ROI_GROWTH_FACTOR);
+        int newX = searchWindow.x - (newWidth - searchWindow.width) / 2;
+        int newY = searchWindow.y - (newHeight - searchWindow.height) / 2;
+        setSearchWindow(newX, newY, newWidth, newHeight);
+      }
+    }
+    searchingFullFrame = searchWindow.width <= 0;
+  }
+  
+  /**
+   * Sets the search window, making sure it stays inside of the frame.
+   * The edges are snapped out to a grid of ROI_GRID_PIXELS, so the window (and its submats) only
+   * changes when the target moves across a grid line, not every time it moves a pixel.
+   */
+  private void setSearchWindow(int x, int y, int width, int height) {
+    int left = Math.max(0, Math.floorDiv(x, ROI_GRID_PIXELS) * ROI_GRID_PIXELS);
+    int top = Math.max(0, Math.floorDiv(y, ROI_GRID_PIXELS) * ROI_GRID_PIXELS);
+    int right = Math.min(detectionFrame.cols(), -Math.floorDiv(-(x + width), ROI_GRID_PIXELS) * ROI_GRID_PIXELS);
+    int bottom = Math.min(detectionFrame.rows(), -Math.floorDiv(-(y + height), ROI_GRID_PIXELS) * ROI_GRID_PIXELS);
+    
+    if (left == 0 && top == 0 && right == detectionFrame.cols() && bottom == detectionFrame.rows()) {
+      // there's no point in using a window that covers the whole frame.
+      searchWindow.width = 0;
+    } else {
+      searchWindow.x = left;
+      searchWindow.y = top;
+      searchWindow.width = right - left;
+      searchWindow.height = bottom - top;
+    }
+  }
+  
+  /**
+   * Changes the parameters getStrongestCandidate() uses to filter contours (starting with the next frame).
+   * @param minArea The smallest area (in pixels) a contour can have and still be the target.
+   * @param minScore The lowest shape score a contour can have and still be the target (see passesShapeTest()).
+   * @param maxScore The highest shape score a contour can have and still be the target.
+   */
+  public void setContourFilters(double minArea, double minScore, double maxScore) {
+    defaultMinArea = minArea;
+    defaultMinScore = minScore;
+    defaultMaxScore = maxScore;
+  }
+  
+  public double getMinArea() {
+    return defaultMinArea;
+  }
+  
+  public double getMinShapeScore() {
+    return defaultMinScore;
+  }
+  
+  public double getMaxShapeScore() {
+    return defaultMaxScore;
+  }
+  
+  /**
+   * Changes the HSV bounds used by the main pipeline (starting with the next frame).
+   * @param lowerBounds The minimum values of H, S, and V that pass through the filter
+   * @param upperBounds The maximum values of H, S, and V that pass through the filter
+   */
+  public void setHSVBounds(Scalar lowerBounds, Scalar upperBounds) {
+    hsvLowerBounds = lowerBounds.clone();
+    hsvUpperBounds = upperBounds.clone();
+  }
+  
+  public Scalar getHSVLowerBounds() {
+    return hsvLowerBounds;
+  }
+  
+  public Scalar getHSVUpperBounds() {
+    return hsvUpperBounds;
+  }
+  
+  /**
+   * Loads HSV bounds from the given file (see saveHSVBounds() for the format), and starts using them.
+   * If the file can't be read, the bounds are left as they are.
+   * @return true if the bounds were loaded, false otherwise.
+   */
+  public boolean loadHSVBounds(File file) {
+    if (!file.isFile()) {
+      return false;
+    }
+    Properties properties = new Properties();
+    try (InputStream in = new FileInputStream(file)) {
+      properties.load(in);
+      Scalar lowerBounds = new Scalar(Double.parseDouble(properties.getProperty("hMin")),
+                                      Double.parseDouble(properties.getProperty("sMin")),
+                                      Double.parseDouble(properties.getProperty("vMin")));
+      Scalar upperBounds = new Scalar(Double.parseDouble(properties.getProperty("hMax")),
+                                      Double.parseDouble(properties.getProperty("sMax")),
+                                      Double.parseDouble(properties.getProperty("vMax")));
+      setHSVBounds(lowerBounds, upperBounds);
+      return true;
+    } catch (IOException | NumberFormatException | NullPointerException e) {
+      System.out.println("Couldn't load HSV bounds from " + file + ": " + e);
+      return false;
+    }
+  }
+  
+  /**
+   * Saves the given HSV bounds to a file that loadHSVBounds() can read.
+   * The keys are the same ones used for tuning the HSV filter through the Preferences (hMin, sMin, ... vMax).
+   */
+  public static void saveHSVBounds(File file, Scalar lowerBounds, Scalar upperBounds, String comment) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty("hMin", Double.toString(lowerBounds.val[0]));
+    properties.setProperty("sMin", Double.toString(lowerBounds.val[1]));
+    properties.setProperty("vMin", Double.toString(lowerBounds.val[2]));
+    properties.setProperty("hMax", Double.toString(upperBounds.val[0]));
+    properties.setProperty("sMax", Double.toString(upperBounds.val[1]));
+    properties.setProperty("vMax", Double.toString(upperBounds.val[2]));
+    try (OutputStream out = new FileOutputStream(file)) {
+      properties.store(out, comment);
+    }
+  }
+  
+  /**
+   * @param enabled true to have the main pipeline find candidates with connected components
+   * (see ConnectedComponentsExtractor), false to use contours (see ContourExtractor).
+   */
+  public void setConnectedComponentsEnabled(boolean enabled) {
+    connectedComponentsEnabled = enabled;
+  }
+  
+  /**
+   * @param enabled true to have the main pipeline filter frames with a precomputed lookup table
+   * (see HsvThresholdTable), false to use cvtColor() + inRange(). Note that the table takes
+   * a fraction of a second to build the first time it's used.
+   */
+  public void setLookupTableEnabled(boolean enabled) {
+    lookupTableEnabled = enabled;
+  }
+  
+  /**
+   * @param enabled true to search for candidates in a shrunk down copy of each frame, and then measure the winner
+   * on the full sized frame (see Pyramid Search above), false to do everything on the full sized frame.
+   * This only makes a difference when the frames are bigger than IMAGE_WIDTH_PIXELS x IMAGE_HEIGHT_PIXELS,
+   * so the turretCam's resolution should be raised too (see CameraController.setTurretCamResolution()).
+   */
+  public void setPyramidEnabled(boolean enabled) {
+    pyramidEnabled = enabled;
+  }
+  
+  /**
+   * @param enabled true to find the target's centroid from the brightness of the pixels in and around it
+   * (see Sub-Pixel Centroid above), false to use the centroid of its contour.
+   */
+  public void setSubPixelCentroidEnabled(boolean enabled) {
+    subPixelCentroidEnabled = enabled;
+  }
+  
+  /**
+   * @param enabled true to skip frames that look the same as the last processed frame while the robot is
+   * standing still (see setStationaryCheck()), false to process every new frame.
+   */
+  public void setStaticFrameSkipEnabled(boolean enabled) {
+    staticFrameSkipEnabled = enabled;
+  }
+  
+  /**
+   * @param stationaryCheck Tells the pipeline whether the robot (and the turretCam on it) is standing still.
+   * It's called from the vision thread, so it should only read sensors. Until this is set, the robot is
+   * assumed to be moving, so no frames are skipped for looking the same.
+   */
+  public void setStationaryCheck(BooleanSupplier stationaryCheck) {
+    this.stationaryCheck = stationaryCheck;
+  }
+  
+  /**
+   * @param threshold How different (on average, per pixel and color channel, out of 255) a frame has to be
+   * from the last processed frame before it's processed (when skipping unchanged frames is enabled).
+   */
+  public void setFrameChangeThreshold(double threshold) {
+    frameChangeThreshold = threshold;
+  }
+  
+  /** @return true if the next frame will be searched in full, false if only the search window will be searched. */
+  public boolean isSearchingFullFrame() {
+    return searchingFullFrame;
+  }
+  
+  /**
+   * @param enabled true to only search a window around the last known position of the target
+   * (when there is one), false to always search the full frame.
+   */
+  public void setROITrackingEnabled(boolean enabled) {
+    roiTrackingEnabled = enabled;
   }
   
   
@@ -255,16 +1092,18 @@ public class ImageProcessor {
   /* ----------------------------------------------------------- */
   
   /**
-   * Draws the given list of contours on the originalFrame
+   * Draws the given list of contours on a copy of the originalFrame
+   * (the originalFrame itself isn't touched, so it can still be streamed or processed as it came from the camera).
    * @param overlay
-   * if true: draw contours directly on top of the originalFrame.
+   * if true: draw contours on top of the originalFrame.
    * if false: draw contours on a black image.
    * @param listOfContours
-   * @return The image with contours drawn on it.
+   * @return The image with contours drawn on it. The same Mat is reused every time this is called.
    */
-  public Mat drawContours(boolean overlay, ArrayList<MatOfPoint> listOfContours) {
+  public synchronized Mat drawContours(boolean overlay, ArrayList<MatOfPoint> listOfContours) {
+    originalFrame.copyTo(contourFrame);
     if (!overlay) {
-      Core.bitwise_xor(originalFrame, originalFrame, originalFrame);
+      Core.bitwise_xor(contourFrame, contourFrame, contourFrame);
       /* Comparing the image to itself using a bitwise exclusive or operator
        * results in a completely black image. Originally, we used
        * "frame.setTo(Constants.COLOR_BLACK);", but that was deemed too
@@ -273,17 +1112,19 @@ public class ImageProcessor {
     }
     
     for (int i = listOfContours.size()-1; i >= 0; i--) {
-      Imgproc.drawContours(originalFrame, listOfContours, i, COLORS[i % COLORS.length]);
+      Imgproc.drawContours(contourFrame, listOfContours, i, COLORS[i % COLORS.length]);
     }
     
-    return originalFrame;
+    return contourFrame;
   }
   
   public void drawBoundingBox(Rect box, Mat frame, Scalar color) {
-    Point topLeft = new Point(box.x, box.y);
-    Point bottomRight = new Point(box.x + box.width, box.y + box.height);
+    boxTopLeft.x = box.x;
+    boxTopLeft.y = box.y;
+    boxBottomRight.x = box.x + box.width;
+    boxBottomRight.y = box.y + box.height;
     int thickness = 1;
-    Imgproc.rectangle(frame, topLeft, bottomRight, color, thickness);
+    Imgproc.rectangle(frame, boxTopLeft, boxBottomRight, color, thickness);
   }
   
   public void drawPoint(Point point, Mat frame, Scalar color) {
@@ -301,18 +1142,77 @@ public class ImageProcessor {
   /* ----------------------------------------------------------- */
   
   public void publishDataToSmartDash() {
-    if (currentTarget.getHorizontalDistance() > 0) {
-      SmartDashboard.putBoolean("Target Aquired", true);
-    } else {
-      SmartDashboard.putBoolean("Target Aquired", false);
+    TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
+    Target target = getCurrentTarget(dashboardTarget);
+    telemetry.putBoolean("Target Aquired", target.isFound());
+    telemetry.putNumber("Distance", target.getHorizontalDistance());
+    telemetry.putNumber("targetErrorX", target.getErrorInDegreesX());
+    telemetry.putNumber("targetErrorY", target.getErrorInDegreesY());
+    telemetry.putNumber("Target Age (seconds)", target.getAge());
+    telemetry.putBoolean("Vision Searching Full Frame", isSearchingFullFrame());
+    
+    double now = Timer.getFPGATimestamp();
+    if (now - lastStatsSnapshotTime >= STATS_SNAPSHOT_PERIOD_SECONDS) {
+      stats.getSnapshot(dashboardSnapshot);
+      lastStatsSnapshotTime = now;
+    }
+    telemetry.putNumber("Vision Frames Processed", dashboardSnapshot.getFramesProcessed());
+    telemetry.putNumber("Vision Frames Dropped", dashboardSnapshot.getFramesDropped());
+    telemetry.putNumber("Vision Frames Skipped (unchanged)", dashboardSnapshot.getFramesSkipped());
+    telemetry.putNumber("Vision Grab Timeouts", dashboardSnapshot.getGrabTimeouts());
+    telemetry.putNumber("Vision Processing p50 (ms)", dashboardSnapshot.getP50Nanos(STAGE_PROCESSING) / 1e6);
+    telemetry.putNumber("Vision Processing p99 (ms)", dashboardSnapshot.getP99Nanos(STAGE_PROCESSING) / 1e6);
+    telemetry.putNumber("Vision Processing max (ms)", dashboardSnapshot.getMaxNanos(STAGE_PROCESSING) / 1e6);
+  }
+  
+  /**
+   * @return How long (in nanoseconds) the given stage of the pipeline took on the most recent frame.
+   * @param stage One of the STAGE constants (i.e. STAGE_GRAB).
+   */
+  public long getLastStageNanos(int stage) {
+    return lastStageNanos[stage];
+  }
+  
+  /**
+   * @return The stats of the pipeline (stage times, frame counts, etc.). 
+   * Use getSnapshot() on it to read them from any thread.
+   */
+  public VisionStats getStats() {
+    return stats;
+  }
+  
+  /**
+   * Changes where the pipeline gets its frames from (the turretCam is used by default).
+   * This is how recorded frames are played back through the pipeline (see VisionReplay).
+   */
+  public synchronized void setFrameSource(FrameSource frameSource) {
+    this.frameSource = frameSource;
+    // frames from the new source have nothing to do with the old results
+    workingTarget.set(null, 0, 0);
+    lastProcessedThumbnail.release();
+  }
+  
+  private FrameSource getFrameSource() {
+    // (read once, since it can be changed by another thread while the vision thread is using it)
+    FrameSource source = frameSource;
+    if (source == null) {
+      source = CameraController.getInstance().getTurretCamFrameSource();
+      frameSource = source;
     }
-    SmartDashboard.putNumber("Distance", currentTarget.getHorizontalDistance());
-    SmartDashboard.putNumber("targetErrorX", currentTarget.getErrorInDegreesX());
-    SmartDashboard.putNumber("targetErrorY", currentTarget.getErrorInDegreesY());
+    return source;
   }
   
-  public Target getCurrentTarget() {
-    return currentTarget;
+  /**
+   * Copies the target found in the most recently processed frame into the given Target.
+   * This never waits on the camera (just on the copy into latestTarget, if one is happening right then),
+   * so it's safe to call from the main robot loop, or from any other thread.
+   */
+  @Override
+  public Target getCurrentTarget(Target destination) {
+    synchronized (latestTarget) {
+      destination.copyFrom(latestTarget);
+    }
+    return destination;
   }
   
   public Mat getOriginalFrame() {
@@ -326,4 +1226,50 @@ public class ImageProcessor {
   public static ImageProcessor getInstance() {
     return instance;
   }
+  
+  /**
+   * A submat of some Mat that's kept from frame to frame, and only made again when the window moves,
+   * or the Mat it's a window into changes (a different Mat, or the same one after it was reallocated,
+   * in which case the old submat would still be pointing at the old pixels).
+   */
+  private static class MatWindow {
+    private final String site;
+    private Mat view;
+    private Mat parent;
+    private long parentDataAddr;
+    private final Rect window = new Rect();
+    
+    MatWindow(String site) {
+      this.site = site;
+    }
+    
+    /** @return true if the submat get() would return right now is already the given window of the given Mat. */
+    boolean isOf(Mat parent, Rect window) {
+      return view != null && parent == this.parent && parent.dataAddr() == parentDataAddr
+             && window.x == this.window.x && window.y == this.window.y 
+             && window.width == this.window.width && window.height == this.window.height;
+    }
+    
+    /** @return The window the submat covers (only meaningful once get() has been called). */
+    Rect getWindow() {
+      return window;
+    }
+    
+    /** @return A submat of the given Mat that covers the given window. Don't release it, it's reused! */
+    Mat get(Mat parent, Rect window) {
+      if (!isOf(parent, window)) {
+        if (view != null) {
+          view.release();
+        }
+        view = MatTracker.trackPerFrame(parent.submat(window), site);
+        this.parent = parent;
+        parentDataAddr = parent.dataAddr();
+        this.window.x = window.x;
+        this.window.y = window.y;
+        this.window.width = window.width;
+        this.window.height = window.height;
+      }
+      return view;
+    }
+  }
 }
@@ -0,0 +1,287 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.opencv.core.Mat;
+import org.usfirst.frc.team1787.robot.utils.TelemetryPublisher;
+
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Keeps count of the OpenCV Mats we make, and how much native memory they're holding on to,
+ * by where they were made (their "site", i.e. "ImageProcessor.originalFrame").
+ *
+ * The pixels of a Mat aren't stored in java memory, so the garbage collector has no idea how big a Mat really is.
+ * A Mat that's thrown away without being released keeps its pixels until the garbage collector
+ * gets around to it, which can be never (this is how we ran the RIO out of memory, see drawContours()).
+ * Even a released Mat keeps a small native "header" until it's collected. So every Mat that's made should be
+ * handed to track() (or made with newMat()), and then this can tell us, for each site:
+ *
+ * live = tracked Mats that still have pixels (haven't been released, and haven't been collected)
+ * bytes = how much native memory the live Mats' pixels take up (submats are views into another Mat's pixels,
+ *         so they don't count towards this)
+ * empty = Mats that have no pixels (they were released, or haven't been filled in yet)
+ *         but haven't been collected, so their headers are still around
+ * tracked = how many Mats were made at this site, ever
+ *
+ * Buffers that are made once and reused (like most of the ImageProcessor's) should stay at the same
+ * live count forever. Anything made every frame (submats, contours, etc.) should keep getting released,
+ * and its empty count should keep dropping back down as the garbage collector catches up.
+ * If live or bytes keep going up over a long run, something is leaking (see VisionReplay --leak-check).
+ *
+ * Tracking a Mat means taking a lock (the same one reading the numbers takes) and making a WeakReference for it.
+ * That's nothing for the buffers that are made once, but for Mats that are made every frame, it's per-frame
+ * work (and garbage) that only matters when we're looking for a leak. So those are handed to trackPerFrame() instead,
+ * which ignores them unless per-frame tracking is turned on (see setPerFrameTrackingEnabled(), which the
+ * VisionReplay --leak-check and the VisionSoakTest do). On the robot, only the buffers are counted.
+ *
+ * Tracked Mats are only held by weak references, so tracking a Mat never keeps it alive.
+ * Reading the numbers asks every live Mat how big it is, which isn't synchronized with the threads
+ * using them, so the bytes are only approximate while the pipeline is running (they're exact when it's stopped).
+ */
+public class MatTracker {
+
+  // cleared references are cleaned out of a site's list every time it grows by this many
+  private static final int PURGE_INTERVAL = 64;
+
+  private static volatile boolean enabled = true;
+  private static volatile boolean perFrameTrackingEnabled = false;
+  // the dashboard's numbers are only updated this often, since it means asking every tracked Mat how big it is
+  private static final double DASHBOARD_SNAPSHOT_PERIOD_SECONDS = 1.0;
+  private static double lastDashboardSnapshotTime = Double.NEGATIVE_INFINITY;
+  private static final ArrayList<Site> sites = new ArrayList<Site>(); // (lock it before using it!)
+  private static final Snapshot dashboardSnapshot = new Snapshot();
+
+  private static class Site {
+    final String name;
+    final ArrayList<WeakReference<Mat>> mats = new ArrayList<WeakReference<Mat>>();
+    long tracked = 0;
+    int trackedSincePurge = 0;
+
+    Site(String name) {
+      this.name = name;
+    }
+  }
+
+  private MatTracker() {
+    // everything is static
+  }
+
+  /**
+   * Starts keeping track of the given Mat.
+   * @param mat The Mat that was just made (or handed to us by OpenCV).
+   * @param site Where it was made. Use the same name for every Mat made in the same place.
+   * @return The same Mat, so this can wrap a "new Mat()".
+   */
+  public static <T extends Mat> T track(T mat, String site) {
+    if (!enabled) {
+      return mat;
+    }
+    synchronized (sites) {
+      Site s = getSite(site);
+      s.mats.add(new WeakReference<Mat>(mat));
+      s.tracked++;
+      s.trackedSincePurge++;
+      if (s.trackedSincePurge >= PURGE_INTERVAL) {
+        s.trackedSincePurge = 0;
+        purge(s);
+      }
+    }
+    return mat;
+  }
+
+  /**
+   * Same as track(), but for Mats that are made every frame (submats, contours, etc.),
+   * which are only tracked while per-frame tracking is on (see the class comment).
+   */
+  public static <T extends Mat> T trackPerFrame(T mat, String site) {
+    if (!perFrameTrackingEnabled) {
+      return mat;
+    }
+    return track(mat, site);
+  }
+
+  /** @return A new, empty Mat that's being tracked under the given site. */
+  public static Mat newMat(String site) {
+    return track(new Mat(), site);
+  }
+
+  /**
+   * Takes the references to Mats that have been collected out of the given site's list.
+   * (ArrayList.removeIf() would be simpler, but it makes a new BitSet every time, and this runs every loop.)
+   */
+  private static void purge(Site site) {
+    int numKept = 0;
+    for (int i = 0; i < site.mats.size(); i++) {
+      WeakReference<Mat> ref = site.mats.get(i);
+      if (ref.get() != null) {
+        site.mats.set(numKept++, ref);
+      }
+    }
+    while (site.mats.size() > numKept) {
+      site.mats.remove(site.mats.size() - 1);
+    }
+  }
+
+  private static Site getSite(String name) {
+    // (there are only a few dozen sites, and they're almost always found near the start)
+    for (int i = 0; i < sites.size(); i++) {
+      if (sites.get(i).name.equals(name)) {
+        return sites.get(i);
+      }
+    }
+    Site site = new Site(name);
+    sites.add(site);
+    return site;
+  }
+
+  /**
+   * @param enabled false to stop tracking new Mats (track() just hands back the Mat).
+   * Mats that are already being tracked still are.
+   */
+  public static void setEnabled(boolean enabled) {
+    MatTracker.enabled = enabled;
+  }
+
+  /**
+   * @param enabled true to also track the Mats handed to trackPerFrame() (i.e. when looking for a leak).
+   * Off by default.
+   */
+  public static void setPerFrameTrackingEnabled(boolean enabled) {
+    perFrameTrackingEnabled = enabled;
+  }
+
+  /** Copies the current numbers for every site into the given snapshot (see the class comment for what they mean). */
+  public static void getSnapshot(Snapshot snapshot) {
+    synchronized (sites) {
+      snapshot.resize(sites.size());
+      snapshot.totalLive = 0;
+      snapshot.totalBytes = 0;
+      snapshot.totalEmpty = 0;
+      for (int i = 0; i < sites.size(); i++) {
+        Site site = sites.get(i);
+        purge(site);
+        site.trackedSincePurge = 0;
+
+        int live = 0;
+        int empty = 0;
+        long bytes = 0;
+        for (int j = 0; j < site.mats.size(); j++) {
+          Mat mat = site.mats.get(j).get();
+          if (mat == null) {
+            continue;
+          }
+          if (mat.empty()) {
+            empty++;
+          } else {
+            live++;
+            if (!mat.isSubmatrix()) {
+              bytes += mat.total() * mat.elemSize();
+            }
+          }
+        }
+        snapshot.siteNames[i] = site.name;
+        snapshot.live[i] = live;
+        snapshot.empty[i] = empty;
+        snapshot.bytes[i] = bytes;
+        snapshot.tracked[i] = site.tracked;
+        snapshot.totalLive += live;
+        snapshot.totalBytes += bytes;
+        snapshot.totalEmpty += empty;
+      }
+    }
+  }
+
+  /** Meant to be called every loop, but only takes a new snapshot every DASHBOARD_SNAPSHOT_PERIOD_SECONDS. */
+  public static void publishDataToSmartDash() {
+    TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
+    double now = Timer.getFPGATimestamp();
+    if (now - lastDashboardSnapshotTime >= DASHBOARD_SNAPSHOT_PERIOD_SECONDS) {
+      getSnapshot(dashboardSnapshot);
+      lastDashboardSnapshotTime = now;
+    }
+    telemetry.putNumber("Native Mats Live", dashboardSnapshot.getTotalLive());
+    telemetry.putNumber("Native Mat Memory (KB)", dashboardSnapshot.getTotalBytes() / 1024.0);
+    telemetry.putNumber("Native Mats Empty (waiting for GC)", dashboardSnapshot.getTotalEmpty());
+  }
+
+  /**
+   * The numbers for every site at one point in time. Reuse the same snapshot to avoid making new arrays every time.
+   * Sites are never forgotten, and new ones are only added at the end, so site i is the same site in every snapshot.
+   */
+  public static class Snapshot {
+    private String[] siteNames = new String[0];
+    private int[] live = new int[0];
+    private int[] empty = new int[0];
+    private long[] bytes = new long[0];
+    private long[] tracked = new long[0];
+    private int numOfSites = 0;
+    private int totalLive = 0;
+    private long totalBytes = 0;
+    private int totalEmpty = 0;
+
+    private void resize(int numOfSites) {
+      if (siteNames.length < numOfSites) {
+        int capacity = Math.max(16, 2 * numOfSites);
+        siteNames = Arrays.copyOf(siteNames, capacity);
+        live = new int[capacity];
+        empty = new int[capacity];
+        bytes = new long[capacity];
+        tracked = new long[capacity];
+      }
+      this.numOfSites = numOfSites;
+    }
+
+    public int getNumOfSites() {
+      return numOfSites;
+    }
+
+    public String getSiteName(int site) {
+      return siteNames[site];
+    }
+
+    public int getLive(int site) {
+      return live[site];
+    }
+
+    public int getEmpty(int site) {
+      return empty[site];
+    }
+
+    public long getBytes(int site) {
+      return bytes[site];
+    }
+
+    public long getTracked(int site) {
+      return tracked[site];
+    }
+
+    public int getTotalLive() {
+      return totalLive;
+    }
+
+    public long getTotalBytes() {
+      return totalBytes;
+    }
+
+    public int getTotalEmpty() {
+      return totalEmpty;
+    }
+
+    /** Prints a table of every site (and the change since the given earlier snapshot, if it isn't null). */
+    public void print(PrintStream out, Snapshot earlier) {
+      out.printf("  %-44s %6s %10s %9s %10s%n", "site", "live", "bytes", "empty", "tracked");
+      for (int i = 0; i < numOfSites; i++) {
+        out.printf("  %-44s %6d %10d %9d %10d", siteNames[i], live[i], bytes[i], empty[i], tracked[i]);
+        if (earlier != null && i < earlier.numOfSites) {
+          out.printf("   (live %+d, bytes %+d)", live[i] - earlier.live[i], bytes[i] - earlier.bytes[i]);
+        }
+        out.println();
+      }
+      out.printf("  %-44s %6d %10d %9d%n", "total", totalLive, totalBytes, totalEmpty);
+    }
+  }
+}
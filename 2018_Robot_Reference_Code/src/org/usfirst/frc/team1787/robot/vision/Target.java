@@ -2,82 +2,154 @@ package org.usfirst.frc.team1787.robot.vision;
 
 import org.usfirst.frc.team1787.robot.utils.UnitConverter;
 
-import org.opencv.core.MatOfPoint;
-import org.opencv.core.Point;
+import edu.wpi.first.wpilibj.Timer;
 
 public class Target {
-  private static CameraController camController = CameraController.getInstance();
-  
   // known geometry of the target
   // (measurements are in SI units and made to the center of the target unless specified otherwise).
   public static final double TARGET_HEIGHT_FROM_FLOOR = UnitConverter.inchesToMeters((7 * 12) + 2);
   public static final double CAM_TO_TARGET_VERTICAL_DISTANCE = TARGET_HEIGHT_FROM_FLOOR
-                                                               - camController.TURRET_CAM_HEIGHT_FROM_FLOOR;
+                                                               - CameraController.TURRET_CAM_HEIGHT_FROM_FLOOR;
   public static final double TURRET_TO_TARGET_VERTICAL_DISTANCE = TARGET_HEIGHT_FROM_FLOOR;
   // 4 inch tall target wrapped around 15 inch diameter cylinder = 15/4 aspect ratio when viewed head on.
   public static final double DESIRED_CONTOUR_ASPECT_RATIO = 15/4.0;
   
   // known geometry of the image
   // The true center of the image isn't at width/2 or height/2 because of 0 indexing.
-  private static final double CENTER_PIXEL_X = (camController.IMAGE_WIDTH_PIXELS - 1) / 2.0;
-  private static final double CENTER_PIXEL_Y = (camController.IMAGE_HEIGHT_PIXELS - 1) / 2.0;
+  private static final double CENTER_PIXEL_X = (CameraController.IMAGE_WIDTH_PIXELS - 1) / 2.0;
+  private static final double CENTER_PIXEL_Y = (CameraController.IMAGE_HEIGHT_PIXELS - 1) / 2.0;
   
   // used to toggle between 2 different methods of calculating error.
-  // pinhole camera model is more correct, but requires that the FOV of the turret cam be known.
+  // the camera model (see CameraModel) is more correct, but requires that the turretCam's lens be known.
   private static boolean usePinholeCameraModel = true;
 
   // member variables
   private double errorInDegreesX = 0;
   private double errorInDegreesY = 0;
   private double distance = 0;
+  private boolean found = false;
   
-  public Target(MatOfPoint contour) {
-    if (contour != null) {
-      Point centroid = ImageProcessor.getInstance().getContourCenter(contour);
-      calculateErrorInDegreesX(centroid.x);
-      calculateErrorInDegreesY(centroid.y);
-      calculateDistance(errorInDegreesY);
-    }
+  // info about the frame this target was found in
+  private long frameTime = 0;
+  private double captureTimestamp = 0;
+  
+  // where the target is in the image (in pixels)
+  private double centerX = 0;
+  private double centerY = 0;
+  
+  /** Creates an empty target (i.e. one that represents no target being found). */
+  public Target() {
+    // initialization intentionally left blank.
   }
   
-  /** @return How many degrees off from the center the target is from the turretCam (horizontal). */
-  private void calculateErrorInDegreesX(double contourCenterX) {
-    double errorInPixels = contourCenterX - CENTER_PIXEL_X;
-      
-    if (usePinholeCameraModel) {
-      errorInDegreesX = Math.toDegrees(Math.atan(errorInPixels / camController.FOCAL_LENGTH_PIXELS_X));
-    } else {
-      errorInDegreesX = errorInPixels * camController.DEGREES_PER_PIXEL_X;
-    }
+  public Target(ContourDescriptor contour) {
+    set(contour, 0, 0);
+  }
+  
+  /**
+   * Updates this target in place, so a new Target doesn't have to be made for every frame.
+   * @param contour The measurements of the contour that's most likely the target (or null if no target was found).
+   * @param frameTime The timestamp that the CvSink gave the frame the contour was found in.
+   * @param captureTimestamp The FPGA timestamp (in seconds) of when that frame was captured by the camera.
+   */
+  public void set(ContourDescriptor contour, long frameTime, double captureTimestamp) {
+    set(contour, frameTime, captureTimestamp, CameraController.IMAGE_WIDTH_PIXELS, CameraController.IMAGE_HEIGHT_PIXELS);
   }
   
-  /** @return How many degrees off from the center the target is from the turretCam (vertical). */
-  private void calculateErrorInDegreesY(double contourCenterY) {
-    double errorInPixels = CENTER_PIXEL_Y - contourCenterY;
-    
-    if (usePinholeCameraModel) {
-      errorInDegreesY = Math.toDegrees(Math.atan(errorInPixels / camController.FOCAL_LENGTH_PIXELS_Y));
-    } else {
-      errorInDegreesY = errorInPixels * camController.DEGREES_PER_PIXEL_Y;
+  /**
+   * Same as set(contour, frameTime, captureTimestamp), but for a contour found in a frame of any size
+   * (i.e. a full sized frame in pyramid mode). The center is converted to the normal image size
+   * (IMAGE_WIDTH_PIXELS x IMAGE_HEIGHT_PIXELS) before the angles are looked up, so the fractions of a pixel
+   * from the bigger frame aren't lost. getCenterX() and getCenterY() are still in the given frame's pixels.
+   * @param frameWidth The width (in pixels) of the frame the contour was found in.
+   * @param frameHeight The height (in pixels) of the frame the contour was found in.
+   */
+  public void set(ContourDescriptor contour, long frameTime, double captureTimestamp, int frameWidth, int frameHeight) {
+    this.frameTime = frameTime;
+    this.captureTimestamp = captureTimestamp;
+    errorInDegreesX = 0;
+    errorInDegreesY = 0;
+    distance = 0;
+    centerX = 0;
+    centerY = 0;
+    found = (contour != null);
+    if (found) {
+      // the centroid was already found when the contour was measured, so there's no need to recalculate it.
+      centerX = contour.getCenterX();
+      centerY = contour.getCenterY();
+      // (+ 0.5 and - 0.5, since pixel coordinates are measured to the center of a pixel, not its corner)
+      double x = (centerX + 0.5) * CameraController.IMAGE_WIDTH_PIXELS / frameWidth - 0.5;
+      double y = (centerY + 0.5) * CameraController.IMAGE_HEIGHT_PIXELS / frameHeight - 0.5;
+      if (usePinholeCameraModel) {
+        // all the trig was done ahead of time, for every pixel (see CameraModel)
+        CameraModel model = CameraController.getTurretCamModel();
+        errorInDegreesX = model.getBearingDegrees(x, y);
+        errorInDegreesY = model.getElevationDegrees(x, y) - CameraController.TURRET_CAM_ANGLE_FROM_FLOOR_DEGREES;
+        distance = model.getHorizontalDistance(x, y);
+      } else {
+        errorInDegreesX = (x - CENTER_PIXEL_X) * CameraController.DEGREES_PER_PIXEL_X;
+        errorInDegreesY = (CENTER_PIXEL_Y - y) * CameraController.DEGREES_PER_PIXEL_Y;
+        calculateDistance(errorInDegreesY);
+      }
     }
   }
   
+  /**
+   * Moves this target to a newer frame without changing anything else about it
+   * (for when nothing changed between the frames, so the target is still in the same place).
+   */
+  public void setFrameInfo(long frameTime, double captureTimestamp) {
+    this.frameTime = frameTime;
+    this.captureTimestamp = captureTimestamp;
+  }
+  
+  /**
+   * Sets everything about this target directly, for targets that were found somewhere else
+   * (i.e. on the coprocessor, see TargetPacket) so there's no contour to measure.
+   */
+  public void set(long frameTime, double captureTimestamp, boolean found, double errorInDegreesX,
+                  double errorInDegreesY, double distance, double centerX, double centerY) {
+    this.frameTime = frameTime;
+    this.captureTimestamp = captureTimestamp;
+    this.found = found;
+    this.errorInDegreesX = errorInDegreesX;
+    this.errorInDegreesY = errorInDegreesY;
+    this.distance = distance;
+    this.centerX = centerX;
+    this.centerY = centerY;
+  }
+  
+  /** Makes this target an exact copy of the given target. */
+  public void copyFrom(Target other) {
+    errorInDegreesX = other.errorInDegreesX;
+    errorInDegreesY = other.errorInDegreesY;
+    distance = other.distance;
+    frameTime = other.frameTime;
+    captureTimestamp = other.captureTimestamp;
+    found = other.found;
+    centerX = other.centerX;
+    centerY = other.centerY;
+  }
+  
   /**
    * Calculates the horizontal distance between the turretCam and the target
    * (i.e. the distance from the cam to the target, as measured parallel to the floor).
    * @return the distance in meters
    */
   private void calculateDistance(double errorY) {
-    if (distance == -1) {
-      double angleFromHorizontal = errorY + camController.TURRET_CAM_ANGLE_FROM_FLOOR_DEGREES;
-      distance = CAM_TO_TARGET_VERTICAL_DISTANCE / Math.tan(Math.toRadians(angleFromHorizontal));
-    }
+    double angleFromHorizontal = errorY + CameraController.TURRET_CAM_ANGLE_FROM_FLOOR_DEGREES;
+    distance = CAM_TO_TARGET_VERTICAL_DISTANCE / Math.tan(Math.toRadians(angleFromHorizontal));
   }
   
+  /**
+   * @return How many degrees off from the center the target is from the turretCam, as seen from above
+   * (positive is to the right).
+   */
   public double getErrorInDegreesX() {
     return errorInDegreesX;
   }
   
+  /** @return How many degrees above the center of the turretCam's view the target is (negative is below). */
   public double getErrorInDegreesY() {
     return errorInDegreesY;
   }
@@ -85,4 +157,34 @@ public class Target {
   public double getHorizontalDistance() {
     return distance;
   }
+  
+  /** @return true if a target was actually found, false otherwise. */
+  public boolean isFound() {
+    return found;
+  }
+  
+  /** @return The x coordinate of the target's centroid in the image (in pixels). */
+  public double getCenterX() {
+    return centerX;
+  }
+  
+  /** @return The y coordinate of the target's centroid in the image (in pixels). */
+  public double getCenterY() {
+    return centerY;
+  }
+  
+  /** @return The timestamp that the CvSink gave the frame this target was found in (0 if there was no frame). */
+  public long getFrameTime() {
+    return frameTime;
+  }
+  
+  /** @return The FPGA timestamp (in seconds) of when the frame this target was found in was captured. */
+  public double getCaptureTimestamp() {
+    return captureTimestamp;
+  }
+  
+  /** @return How long ago (in seconds) the frame this target was found in was captured. */
+  public double getAge() {
+    return Timer.getFPGATimestamp() - captureTimestamp;
+  }
 }
@@ -0,0 +1,199 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import org.usfirst.frc.team1787.robot.utils.TelemetryPublisher;
+
+/**
+ * Smooths out the targets found by vision over many frames, instead of trusting each frame on its own.
+ * 
+ * Every Target is found from a single contour in a single frame, so one bad frame (i.e. part of the tape 
+ * blocked by a ball, or a reflection that happens to pass the filters) makes the angle and distance jump,
+ * and that jump goes straight into the turret and flywheel setpoints. This class keeps a running estimate
+ * of where the target is and how fast it's moving, and nudges that estimate towards each new measurement
+ * (this is called an "alpha-beta filter", a simpler cousin of the Kalman filter):
+ * 
+ * predicted = estimate + rate * (time since the last estimate)
+ * estimate = predicted + alpha * (measured - predicted)
+ * rate = rate + (beta / time since the last estimate) * (measured - predicted)
+ * 
+ * alpha is how much of each new measurement to believe, and beta is how much to let the rate change.
+ * Measurements that are way off from the prediction are ignored, unless enough of them show up in a row
+ * (in which case the target really did move, and the estimate starts over from the new measurements).
+ * 
+ * Between frames (and for a short time when the target isn't found), the estimate keeps
+ * moving at the estimated rate (this is "coasting"). If nothing is seen for too long, the target is lost.
+ * 
+ * Instead of the target's error from the center of the image (which changes as soon as the turret moves),
+ * the estimate is of the target's "bearing": the turret angle (as read by the gyro) that points right at the target.
+ * That way, the turret moving doesn't look like the target moving.
+ * 
+ * Only primitives are used, so nothing is allocated no matter how often update() is called.
+ */
+public class TargetEstimator {
+  
+  // how much of each measurement to believe (see the class comment)
+  private final double BEARING_ALPHA = 0.5;
+  private final double BEARING_BETA = 0.1;
+  private final double DISTANCE_ALPHA = 0.3;
+  private final double DISTANCE_BETA = 0.05;
+  
+  // measurements further than this from the prediction are considered bad frames.
+  private final double BEARING_GATE_DEGREES = 8;
+  private final double DISTANCE_GATE_METERS = 1.0;
+  private final int MAX_REJECTIONS_IN_A_ROW = 3;
+  
+  // how long to keep predicting without any measurements before giving up on the target.
+  private final double MAX_COAST_SECONDS = 0.5;
+  
+  // how many good measurements (since the target was found) it takes to be fully confident.
+  private final int MEASUREMENTS_FOR_FULL_CONFIDENCE = 5;
+  
+  // the estimate
+  private boolean tracking = false;
+  private double bearingDegrees = 0;
+  private double bearingRateDegreesPerSecond = 0;
+  private double distanceMeters = 0;
+  private double distanceRateMetersPerSecond = 0;
+  private double estimateTimestamp = 0; // when the estimate was last updated by a measurement
+  
+  private long lastFrameTime = 0;
+  private int goodMeasurements = 0;
+  private int rejectionsInARow = 0;
+  
+  /**
+   * Gives the estimator the latest target from vision. This is safe to call more than once with the same target
+   * (i.e. once every loop, even though new frames don't come in that often), since each frame is only used once.
+   * 
+   * @param target The most recent target (i.e. from ImageProcessor.getCurrentTarget()).
+   * @param turretAngleWhenCaptured The turret's angle (in degrees) at the time the target's frame was captured
+   * (see Turret.getAngleAt()).
+   * @param now The current FPGA timestamp (in seconds).
+   */
+  public void update(Target target, double turretAngleWhenCaptured, double now) {
+    if (target.getFrameTime() != lastFrameTime) {
+      lastFrameTime = target.getFrameTime();
+      if (target.isFound()) {
+        addMeasurement(turretAngleWhenCaptured + target.getErrorInDegreesX(), 
+                       target.getHorizontalDistance(), target.getCaptureTimestamp());
+      }
+      // (frames without the target don't count against it, the estimate just coasts until it's seen again)
+    }
+    
+    if (tracking && now - estimateTimestamp > MAX_COAST_SECONDS) {
+      reset();
+    }
+  }
+  
+  private void addMeasurement(double measuredBearing, double measuredDistance, double timestamp) {
+    if (!tracking) {
+      startOver(measuredBearing, measuredDistance, timestamp);
+      return;
+    }
+    
+    double dt = timestamp - estimateTimestamp;
+    double bearingResidual = measuredBearing - (bearingDegrees + bearingRateDegreesPerSecond * dt);
+    double distanceResidual = measuredDistance - (distanceMeters + distanceRateMetersPerSecond * dt);
+    
+    boolean isOutlier = Math.abs(bearingResidual) > BEARING_GATE_DEGREES 
+                        || Math.abs(distanceResidual) > DISTANCE_GATE_METERS;
+    if (isOutlier) {
+      rejectionsInARow++;
+      // (a single bad frame only knocks the confidence down a notch, otherwise every glitch would
+      // keep the shooter from firing until MEASUREMENTS_FOR_FULL_CONFIDENCE more good frames came in)
+      goodMeasurements = Math.max(0, goodMeasurements - 1);
+      if (rejectionsInARow >= MAX_REJECTIONS_IN_A_ROW) {
+        // it's not a bad frame if it keeps happening, the target must have actually moved.
+        startOver(measuredBearing, measuredDistance, timestamp);
+      }
+      return;
+    }
+    rejectionsInARow = 0;
+    goodMeasurements++;
+    
+    if (dt <= 0) {
+      // (can't find a rate without time passing, so just blend in the measurement)
+      bearingDegrees += BEARING_ALPHA * (measuredBearing - bearingDegrees);
+      distanceMeters += DISTANCE_ALPHA * (measuredDistance - distanceMeters);
+      return;
+    }
+    
+    bearingDegrees += bearingRateDegreesPerSecond * dt + BEARING_ALPHA * bearingResidual;
+    bearingRateDegreesPerSecond += (BEARING_BETA / dt) * bearingResidual;
+    distanceMeters += distanceRateMetersPerSecond * dt + DISTANCE_ALPHA * distanceResidual;
+    distanceRateMetersPerSecond += (DISTANCE_BETA / dt) * distanceResidual;
+    estimateTimestamp = timestamp;
+  }
+  
+  private void startOver(double measuredBearing, double measuredDistance, double timestamp) {
+    tracking = true;
+    bearingDegrees = measuredBearing;
+    bearingRateDegreesPerSecond = 0;
+    distanceMeters = measuredDistance;
+    distanceRateMetersPerSecond = 0;
+    estimateTimestamp = timestamp;
+    goodMeasurements = 1;
+    rejectionsInARow = 0;
+  }
+  
+  /**
+   * Forgets the target (i.e. after the turret's gyro was zeroed, which changes what every bearing means).
+   * The bearing and distance go back to 0, so nothing keeps aiming at a target that's gone
+   * (but check isTracking() before using them anyways).
+   */
+  public void reset() {
+    tracking = false;
+    goodMeasurements = 0;
+    rejectionsInARow = 0;
+    bearingDegrees = 0;
+    bearingRateDegreesPerSecond = 0;
+    distanceMeters = 0;
+    distanceRateMetersPerSecond = 0;
+  }
+  
+  /** @return true if there's a target being tracked (even if it's just coasting), false if the target is lost. */
+  public boolean isTracking() {
+    return tracking;
+  }
+  
+  /**
+   * @param now The current FPGA timestamp (in seconds).
+   * @return The turret angle (in degrees) that would point right at the target at the given time.
+   */
+  public double getBearing(double now) {
+    return bearingDegrees + bearingRateDegreesPerSecond * getTimeSinceEstimate(now);
+  }
+  
+  /**
+   * @param now The current FPGA timestamp (in seconds).
+   * @return The horizontal distance (in meters) to the target at the given time.
+   */
+  public double getDistance(double now) {
+    return distanceMeters + distanceRateMetersPerSecond * getTimeSinceEstimate(now);
+  }
+  
+  private double getTimeSinceEstimate(double now) {
+    // (predictions are never made further out than the longest we'd coast for)
+    return Math.max(0, Math.min(MAX_COAST_SECONDS, now - estimateTimestamp));
+  }
+  
+  /**
+   * @param now The current FPGA timestamp (in seconds).
+   * @return How much the estimate can be trusted, from 0 (not at all / no target) to 1 (completely).
+   * Confidence builds up with each good measurement, and fades away while coasting.
+   */
+  public double getConfidence(double now) {
+    if (!tracking) {
+      return 0;
+    }
+    double measurementConfidence = Math.min(1.0, goodMeasurements / (double) MEASUREMENTS_FOR_FULL_CONFIDENCE);
+    double freshness = Math.max(0, 1.0 - (now - estimateTimestamp) / MAX_COAST_SECONDS);
+    return measurementConfidence * freshness;
+  }
+  
+  public void publishDataToSmartDash(double now) {
+    TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
+    telemetry.putBoolean("Target Tracking", tracking);
+    telemetry.putNumber("Target Confidence", getConfidence(now));
+    telemetry.putNumber("Target Bearing", getBearing(now));
+    telemetry.putNumber("Target Estimated Distance", getDistance(now));
+  }
+}
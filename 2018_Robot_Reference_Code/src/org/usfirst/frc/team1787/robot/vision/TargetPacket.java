@@ -0,0 +1,156 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Target, packed into a small fixed-size chunk of bytes so it can be sent from the coprocessor to the robot
+ * (see TargetPublisher and CoprocessorTargetClient).
+ *
+ * Every packet is exactly SIZE_BYTES long, and laid out like this (big endian, which is what ByteBuffer uses):
+ *
+ * offset  type   what
+ *  0      int    MAGIC (so random junk sent to the port isn't mistaken for a target)
+ *  4      short  VERSION
+ *  6      short  flags (FLAG_FOUND = a target was found)
+ *  8      int    sequence number (goes up by 1 for every packet, so lost packets can be counted)
+ * 12      long   frameTime (from the coprocessor's camera, only used to tell frames apart)
+ * 20      int    age of the frame when the packet was sent (in microseconds)
+ * 24      float  errorInDegreesX
+ * 28      float  errorInDegreesY
+ * 32      float  horizontal distance (in meters)
+ * 36      float  confidence (0 to 1, see TargetPublisher)
+ * 40      float  centerX (in pixels)
+ * 44      float  centerY (in pixels)
+ * 48      int    boot ID (picked at random when the coprocessor's TargetPublisher is made, see below)
+ *
+ * The coprocessor and the RIO have different clocks, so the capture time can't be sent as a timestamp.
+ * Instead, the packet says how old the frame was when it was sent, and the robot subtracts that from
+ * the time it got the packet (the network adds well under a millisecond on the robot's own network).
+ *
+ * The sequence number starts over at 0 when the coprocessor restarts, which would make its packets look older
+ * than the ones from before the restart. The boot ID tells the robot when that happened, so it can start counting again.
+ *
+ * One packet is reused over and over (read() and write() just copy fields in and out of a buffer),
+ * so nothing is allocated for each target sent or received.
+ */
+public class TargetPacket {
+
+  public static final int SIZE_BYTES = 52;
+  public static final int MAGIC = 0x17870000;
+  public static final short VERSION = 2;
+  private static final short FLAG_FOUND = 1;
+
+  private int bootId = 0;
+  private int sequence = 0;
+  private long frameTime = 0;
+  private double ageSeconds = 0;
+  private boolean found = false;
+  private double errorInDegreesX = 0;
+  private double errorInDegreesY = 0;
+  private double distance = 0;
+  private double confidence = 0;
+  private double centerX = 0;
+  private double centerY = 0;
+
+  /**
+   * Fills in this packet from a target found on this machine.
+   * @param target The target to send.
+   * @param confidence How much the target can be trusted (0 to 1).
+   * @param bootId The sender's boot ID (see the class comment).
+   * @param sequence The number of this packet.
+   * @param now The current time (on the same clock as the target's capture timestamp).
+   */
+  public void set(Target target, double confidence, int bootId, int sequence, double now) {
+    this.bootId = bootId;
+    this.sequence = sequence;
+    frameTime = target.getFrameTime();
+    ageSeconds = Math.max(0, now - target.getCaptureTimestamp());
+    found = target.isFound();
+    errorInDegreesX = target.getErrorInDegreesX();
+    errorInDegreesY = target.getErrorInDegreesY();
+    distance = target.getHorizontalDistance();
+    this.confidence = confidence;
+    centerX = target.getCenterX();
+    centerY = target.getCenterY();
+  }
+
+  /**
+   * Copies this packet into the given target.
+   * @param target The target to fill in.
+   * @param receiveTimestamp The FPGA timestamp (in seconds) of when this packet was received.
+   * The target's capture timestamp is worked out from it (see the class comment).
+   */
+  public void copyTo(Target target, double receiveTimestamp) {
+    target.set(frameTime, receiveTimestamp - ageSeconds, found, errorInDegreesX, errorInDegreesY,
+               distance, centerX, centerY);
+  }
+
+  /** Writes this packet at the buffer's current position (moving the position forward by SIZE_BYTES). */
+  public void write(ByteBuffer buffer) {
+    buffer.putInt(MAGIC);
+    buffer.putShort(VERSION);
+    buffer.putShort(found ? FLAG_FOUND : 0);
+    buffer.putInt(sequence);
+    buffer.putLong(frameTime);
+    buffer.putInt((int) Math.min(Integer.MAX_VALUE, ageSeconds * 1e6));
+    buffer.putFloat((float) errorInDegreesX);
+    buffer.putFloat((float) errorInDegreesY);
+    buffer.putFloat((float) distance);
+    buffer.putFloat((float) confidence);
+    buffer.putFloat((float) centerX);
+    buffer.putFloat((float) centerY);
+    buffer.putInt(bootId);
+  }
+
+  /**
+   * Reads a packet from the buffer's current position.
+   * @return false if there isn't a whole packet there, or it isn't one of ours (in which case this packet isn't changed).
+   */
+  public boolean read(ByteBuffer buffer) {
+    if (buffer.remaining() < SIZE_BYTES) {
+      return false;
+    }
+    int start = buffer.position();
+    if (buffer.getInt(start) != MAGIC || buffer.getShort(start + 4) != VERSION) {
+      return false;
+    }
+    found = (buffer.getShort(start + 6) & FLAG_FOUND) != 0;
+    sequence = buffer.getInt(start + 8);
+    frameTime = buffer.getLong(start + 12);
+    ageSeconds = buffer.getInt(start + 20) / 1e6;
+    errorInDegreesX = buffer.getFloat(start + 24);
+    errorInDegreesY = buffer.getFloat(start + 28);
+    distance = buffer.getFloat(start + 32);
+    confidence = buffer.getFloat(start + 36);
+    centerX = buffer.getFloat(start + 40);
+    centerY = buffer.getFloat(start + 44);
+    bootId = buffer.getInt(start + 48);
+    buffer.position(start + SIZE_BYTES);
+    return true;
+  }
+
+  public int getBootId() {
+    return bootId;
+  }
+
+  public int getSequence() {
+    return sequence;
+  }
+
+  public long getFrameTime() {
+    return frameTime;
+  }
+
+  /** @return How old (in seconds) the frame was when the packet was sent. */
+  public double getAgeSeconds() {
+    return ageSeconds;
+  }
+
+  public boolean isFound() {
+    return found;
+  }
+
+  public double getConfidence() {
+    return confidence;
+  }
+}
@@ -0,0 +1,148 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Sends the targets found on the coprocessor to the robot, where a CoprocessorTargetClient picks them up.
+ *
+ * There are 2 ways to send them:
+ *
+ * UDP: each target is sent in its own packet (see TargetPacket). UDP doesn't wait for anything or resend
+ * anything, which is what we want: if a packet gets lost, the next frame's target is only 33ms behind it anyway.
+ *
+ * Shared file: the target is written into a small memory-mapped file (i.e. in /dev/shm, which lives in RAM),
+ * which the client maps too. This only works when both ends are on the same machine, so it's
+ * for testing the whole setup on one computer without a network in between.
+ * The file holds a write count followed by the packet. The count is made odd before the packet is written,
+ * and even again after, so the client can tell if it read the packet halfway through a write
+ * (and try again). This is called a "seqlock".
+ * Note that it's ONLY for testing on a desktop. A MappedByteBuffer doesn't promise anything about the order
+ * other processes see its writes in (there's no way to add memory fences to it in Java 8). An x86 processor happens
+ * to keep them in order, so the seqlock works there, but on ARM (the RIO, and most coprocessors) the count and
+ * the packet could be seen out of order, and a half written packet could be read as a good one. Use UDP on the robot.
+ *
+ * The packet also carries a "confidence", which is how many of the last few frames had the target in them.
+ * A target that flickers in and out (i.e. a reflection) gets a low confidence.
+ */
+public class TargetPublisher implements Closeable {
+
+  // layout of the shared file (see the class comment)
+  public static final int SHARED_FILE_WRITE_COUNT_OFFSET = 0;
+  public static final int SHARED_FILE_PACKET_OFFSET = 8;
+  public static final int SHARED_FILE_SIZE_BYTES = SHARED_FILE_PACKET_OFFSET + TargetPacket.SIZE_BYTES;
+
+  private static final int CONFIDENCE_WINDOW_FRAMES = 10;
+
+  private final TargetPacket packet = new TargetPacket();
+  // (random, so a restarted coprocessor can be told apart from the one before it, see TargetPacket)
+  private final int bootId = new Random().nextInt();
+  private int sequence = 0;
+
+  // UDP
+  private DatagramChannel channel;
+  private InetSocketAddress destination;
+  private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(TargetPacket.SIZE_BYTES);
+  private int sendErrors = 0;
+
+  // shared file
+  private RandomAccessFile file;
+  private MappedByteBuffer sharedFile;
+
+  // whether the target was found in each of the last few frames (a ring buffer)
+  private final boolean[] recentlyFound = new boolean[CONFIDENCE_WINDOW_FRAMES];
+  private int recentlyFoundIndex = 0;
+  private int recentlyFoundCount = 0;
+  private long lastFrameTime = 0;
+
+  private TargetPublisher() {
+    // use overUdp() or overSharedFile()
+  }
+
+  /**
+   * @param host The robot's address (i.e. "10.17.87.2", or "localhost" for testing).
+   * @param port The port the CoprocessorTargetClient is listening on.
+   */
+  public static TargetPublisher overUdp(String host, int port) throws IOException {
+    TargetPublisher publisher = new TargetPublisher();
+    publisher.destination = new InetSocketAddress(host, port);
+    publisher.channel = DatagramChannel.open();
+    return publisher;
+  }
+
+  /** @param file The file to write the target to (see the class comment). It's made if it doesn't exist. */
+  public static TargetPublisher overSharedFile(File file) throws IOException {
+    TargetPublisher publisher = new TargetPublisher();
+    publisher.file = new RandomAccessFile(file, "rw");
+    publisher.sharedFile = publisher.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SHARED_FILE_SIZE_BYTES);
+    return publisher;
+  }
+
+  /**
+   * Sends the given target. Call this after every frame (the same frame can be sent more than once,
+   * it just won't count twice towards the confidence).
+   * @param target The target to send.
+   * @param now The current time, on the same clock as the target's capture timestamp.
+   */
+  public void publish(Target target, double now) {
+    if (target.getFrameTime() != lastFrameTime) {
+      lastFrameTime = target.getFrameTime();
+      if (recentlyFound[recentlyFoundIndex]) {
+        recentlyFoundCount--;
+      }
+      recentlyFound[recentlyFoundIndex] = target.isFound();
+      if (target.isFound()) {
+        recentlyFoundCount++;
+      }
+      recentlyFoundIndex = (recentlyFoundIndex + 1) % CONFIDENCE_WINDOW_FRAMES;
+    }
+    double confidence = target.isFound() ? recentlyFoundCount / (double) CONFIDENCE_WINDOW_FRAMES : 0;
+
+    packet.set(target, confidence, bootId, sequence++, now);
+    if (channel != null) {
+      sendBuffer.clear();
+      packet.write(sendBuffer);
+      sendBuffer.flip();
+      try {
+        channel.send(sendBuffer, destination);
+      } catch (IOException e) {
+        // (i.e. the robot isn't on the network yet) the next frame will try again
+        sendErrors++;
+      }
+    } else {
+      int writeCount = sharedFile.getInt(SHARED_FILE_WRITE_COUNT_OFFSET);
+      sharedFile.putInt(SHARED_FILE_WRITE_COUNT_OFFSET, writeCount + 1); // odd = being written
+      sharedFile.position(SHARED_FILE_PACKET_OFFSET);
+      packet.write(sharedFile);
+      sharedFile.putInt(SHARED_FILE_WRITE_COUNT_OFFSET, writeCount + 2); // even = done
+    }
+  }
+
+  /** @return How many packets have been published. */
+  public int getPacketsSent() {
+    return sequence;
+  }
+
+  /** @return How many UDP packets couldn't be sent. */
+  public int getSendErrors() {
+    return sendErrors;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+    if (file != null) {
+      file.close();
+    }
+  }
+}
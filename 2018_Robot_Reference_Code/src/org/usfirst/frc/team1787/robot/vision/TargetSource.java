@@ -0,0 +1,27 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+/**
+ * Anything the robot can get the latest Target from.
+ * 
+ * Normally that's the ImageProcessor, running the pipeline on the RIO itself (see VisionWorker).
+ * When vision is moved onto a coprocessor, it's a CoprocessorTargetClient instead,
+ * which just receives the targets the coprocessor found. Code that aims at the target (i.e. the Shooter)
+ * shouldn't care which one it's given.
+ */
+public interface TargetSource {
+  
+  /**
+   * Copies the target found in the most recent frame into the given Target. This must never wait on a camera
+   * or the network, since it's called from the main robot loop. The copy is made all at once (while the
+   * thread finding targets is kept out), so it's never half of one frame's target and half of the next one's.
+   * After that, the copy belongs to the caller, and the TargetSource never changes it.
+   * @param destination Where to copy the target (reuse the same one every loop, so nothing gets allocated).
+   * @return The given destination.
+   */
+  public Target getCurrentTarget(Target destination);
+  
+  /** Same as getCurrentTarget(destination), but the copy is a new Target, so it's better not to call it every loop. */
+  public default Target getCurrentTarget() {
+    return getCurrentTarget(new Target());
+  }
+}
@@ -0,0 +1,46 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/**
+ * Plays back a recorded video file as if it came from a camera.
+ * The timestamp of each frame is its position in the video.
+ */
+public class VideoFileFrameSource implements FrameSource {
+  
+  private VideoCapture video;
+  private boolean finished = false;
+  
+  /** @param path The video file to play back. */
+  public VideoFileFrameSource(String path) {
+    video = new VideoCapture(path);
+    if (!video.isOpened()) {
+      throw new IllegalArgumentException("Couldn't open the video " + path);
+    }
+  }
+  
+  @Override
+  public long grabFrame(Mat destination) {
+    if (finished) {
+      return 0;
+    }
+    
+    double positionMillis = video.get(Videoio.CAP_PROP_POS_MSEC);
+    if (!video.read(destination)) {
+      // we've reached the end of the video
+      finished = true;
+      video.release();
+      return 0;
+    }
+    
+    // (the first frame gets a timestamp of 1 instead of 0, since 0 means there was no frame)
+    return 1 + (long) (positionMillis * 1000);
+  }
+  
+  @Override
+  public boolean hasMoreFrames() {
+    return !finished;
+  }
+}
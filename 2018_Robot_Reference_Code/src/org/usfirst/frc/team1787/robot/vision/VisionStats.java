@@ -0,0 +1,186 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import org.usfirst.frc.team1787.robot.utils.RollingHistogram;
+
+/**
+ * Keeps track of how the vision pipeline is performing:
+ * how long each stage takes (see ImageProcessor.STAGE_NAMES), how many frames have been processed,
+ * how many frames the camera sent that we never got to (dropped frames), how many frames were skipped
+ * because nothing had changed (or because they'd already been processed), and how many times
+ * grabbing a frame timed out.
+ * 
+ * The stage times are kept in RollingHistograms, so the typical (p50), the bad (p95, p99),
+ * and the worst (max) times over the last few seconds can all be seen, not just an average
+ * that hides the occasional slow frame.
+ * 
+ * The pipeline thread records into this, and anyone else (the dashboard, the VisionReplay tool)
+ * reads it through getSnapshot().
+ */
+public class VisionStats {
+  
+  private final RollingHistogram[] stageHistograms;
+  
+  // only ever changed by the pipeline thread, but read by others.
+  private volatile long framesProcessed = 0;
+  private volatile long framesDropped = 0;
+  private volatile long framesSkipped = 0;
+  private volatile long framesRepeated = 0;
+  private volatile long grabTimeouts = 0;
+  
+  // frameTimes are in microseconds (see FrameSource.grabFrame())
+  private final double expectedFramePeriodMicros;
+  private long lastFrameTime = 0;
+  
+  /**
+   * @param numOfStages How many stages the pipeline has.
+   * @param windowSize How many of the most recent frames the stage times are kept for.
+   * @param expectedFramesPerSecond The rate the camera sends frames at. This is used to figure
+   * out how many frames were dropped when there's a gap between two frames.
+   */
+  public VisionStats(int numOfStages, int windowSize, double expectedFramesPerSecond) {
+    stageHistograms = new RollingHistogram[numOfStages];
+    for (int i = 0; i < numOfStages; i++) {
+      stageHistograms[i] = new RollingHistogram(windowSize);
+    }
+    expectedFramePeriodMicros = 1e6 / expectedFramesPerSecond;
+  }
+  
+  /** Records how long (in nanoseconds) the given stage took on the current frame. */
+  public void recordStage(int stage, long nanos) {
+    stageHistograms[stage].record(nanos);
+  }
+  
+  /**
+   * Records that a frame was processed.
+   * @param frameTime The time the frame was captured (in microseconds), as given by the FrameSource.
+   */
+  public void recordFrame(long frameTime) {
+    countDroppedFrames(frameTime);
+    framesProcessed++;
+  }
+  
+  /**
+   * Records that a new frame was skipped, since it looked the same as the last processed frame.
+   * @param frameTime The time the frame was captured (in microseconds), as given by the FrameSource.
+   */
+  public void recordSkippedFrame(long frameTime) {
+    countDroppedFrames(frameTime);
+    framesSkipped++;
+  }
+  
+  /** Records that the FrameSource handed over a frame that had already been processed (same frameTime). */
+  public void recordRepeatedFrame() {
+    framesRepeated++;
+  }
+  
+  private void countDroppedFrames(long frameTime) {
+    if (lastFrameTime != 0 && frameTime > lastFrameTime) {
+      /* If the gap since the last frame is much bigger than the time between frames,
+       * the camera sent frames that were replaced before we got to them.
+       * (the gap is rounded, so a little bit of jitter isn't counted as a drop) */
+      long framesInGap = Math.round((frameTime - lastFrameTime) / expectedFramePeriodMicros);
+      if (framesInGap > 1) {
+        framesDropped += framesInGap - 1;
+      }
+    }
+    lastFrameTime = frameTime;
+  }
+  
+  /** Records that grabbing a frame timed out. */
+  public void recordGrabTimeout() {
+    grabTimeouts++;
+  }
+  
+  /** Throws away everything recorded so far. Only call this from the pipeline thread! */
+  public void reset() {
+    for (int i = 0; i < stageHistograms.length; i++) {
+      stageHistograms[i].clear();
+    }
+    framesProcessed = 0;
+    framesDropped = 0;
+    framesSkipped = 0;
+    framesRepeated = 0;
+    grabTimeouts = 0;
+    lastFrameTime = 0;
+  }
+  
+  /**
+   * Copies the current stats into the given snapshot, so they can be read
+   * without worrying about the pipeline changing them in the middle of reading.
+   * Nothing is allocated, so the same snapshot can be reused over and over again.
+   * @param snapshot Where to store the stats. It must have been made for the same number of stages.
+   */
+  public void getSnapshot(Snapshot snapshot) {
+    snapshot.framesProcessed = framesProcessed;
+    snapshot.framesDropped = framesDropped;
+    snapshot.framesSkipped = framesSkipped;
+    snapshot.framesRepeated = framesRepeated;
+    snapshot.grabTimeouts = grabTimeouts;
+    for (int i = 0; i < stageHistograms.length; i++) {
+      RollingHistogram histogram = stageHistograms[i];
+      snapshot.p50Nanos[i] = histogram.getPercentile(50);
+      snapshot.p95Nanos[i] = histogram.getPercentile(95);
+      snapshot.p99Nanos[i] = histogram.getPercentile(99);
+      snapshot.maxNanos[i] = histogram.getMax();
+    }
+  }
+  
+  /** The stats of the vision pipeline at a single point in time (see getSnapshot()). */
+  public static class Snapshot {
+    private long framesProcessed = 0;
+    private long framesDropped = 0;
+    private long framesSkipped = 0;
+    private long framesRepeated = 0;
+    private long grabTimeouts = 0;
+    private final long[] p50Nanos;
+    private final long[] p95Nanos;
+    private final long[] p99Nanos;
+    private final long[] maxNanos;
+    
+    public Snapshot(int numOfStages) {
+      p50Nanos = new long[numOfStages];
+      p95Nanos = new long[numOfStages];
+      p99Nanos = new long[numOfStages];
+      maxNanos = new long[numOfStages];
+    }
+    
+    public long getFramesProcessed() {
+      return framesProcessed;
+    }
+    
+    public long getFramesDropped() {
+      return framesDropped;
+    }
+    
+    /** @return How many new frames weren't processed, since they looked the same as the last processed frame. */
+    public long getFramesSkipped() {
+      return framesSkipped;
+    }
+    
+    /** @return How many times a frame that had already been processed was handed over again. */
+    public long getFramesRepeated() {
+      return framesRepeated;
+    }
+    
+    public long getGrabTimeouts() {
+      return grabTimeouts;
+    }
+    
+    /** @return The median time (in nanoseconds) the given stage took. */
+    public long getP50Nanos(int stage) {
+      return p50Nanos[stage];
+    }
+    
+    public long getP95Nanos(int stage) {
+      return p95Nanos[stage];
+    }
+    
+    public long getP99Nanos(int stage) {
+      return p99Nanos[stage];
+    }
+    
+    public long getMaxNanos(int stage) {
+      return maxNanos[stage];
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package org.usfirst.frc.team1787.robot.vision;
+
+import org.usfirst.frc.team1787.robot.utils.TelemetryPublisher;
+
+/**
+ * Runs the vision pipeline on its own thread.
+ *
+ * Grabbing a frame from the turretCam can block for up to a full second
+ * if the camera is slow to deliver, which is way longer than the 20ms we get
+ * for each loop of teleopPeriodic(). By letting this thread do all of the waiting,
+ * the main loop can just read the most recent Target from the ImageProcessor
+ * and keep driving, climbing, etc. without any hiccups.
+ *
+ * Because grabFrame() waits for a new frame, this thread naturally runs at
+ * the frame rate of the camera, so there's no need to sleep between passes.
+ *
+ * If a pass throws (i.e. a CvException from a bad ROI), the error is printed,
+ * counted, and the thread just moves on to the next frame, so one bad frame
+ * can't take vision down for the rest of the match.
+ */
+public class VisionWorker implements Runnable {
+
+  private ImageProcessor imgProcessor = ImageProcessor.getInstance();
+  private volatile Thread thread;
+
+  // when disabled, the thread idles so the main thread can use the ImageProcessor directly (i.e. for tuning)
+  private volatile boolean enabled = true;
+  private final long IDLE_SLEEP_MILLIS = 20;
+
+  // held for each pass, so setEnabled(false) can wait for the one in flight to finish
+  private final Object passLock = new Object();
+
+  // how many passes have thrown, and the last error printed (so the same error every frame only gets printed once)
+  private volatile int errorCount = 0;
+  private String lastReportedError = null;
+
+  // Singleton Instance
+  private static final VisionWorker instance = new VisionWorker();
+
+  private VisionWorker() {
+    // initialization intentionally left blank.
+  }
+
+  /** Starts the vision thread. Calling this more than once has no effect. */
+  public synchronized void start() {
+    if (thread == null) {
+      thread = new Thread(this, "Vision Worker");
+      // a daemon thread won't keep the JVM alive when the robot program exits.
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  @Override
+  public void run() {
+    while (!Thread.currentThread().isInterrupted()) {
+      boolean failed = false;
+      synchronized (passLock) {
+        // (checked under the lock, so no new pass starts once setEnabled(false) has returned)
+        if (enabled) {
+          try {
+            imgProcessor.runVisionProcessing();
+          } catch (RuntimeException e) {
+            reportError(e);
+            failed = true;
+          }
+        } else {
+          failed = true;
+        }
+      }
+      // idle (or back off after an error) outside the lock, so setEnabled() never has to wait on a sleep
+      if (failed) {
+        try {
+          Thread.sleep(IDLE_SLEEP_MILLIS);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+
+  private void reportError(RuntimeException e) {
+    errorCount++;
+    String error = e.toString();
+    if (!error.equals(lastReportedError)) {
+      System.out.println("Vision Worker: frame failed, skipping it (" + errorCount + " so far): " + error);
+      lastReportedError = error;
+    }
+  }
+
+  /**
+   * @param enabled true to let the thread continuously process frames,
+   * false to have it sit idle. When set to false, this waits for the frame
+   * currently being processed (if any) to finish before returning, so once it
+   * returns the main thread has the ImageProcessor (and the turretCam) all to itself.
+   * That can take as long as a grab timeout the first time, but it's free once the thread is idle.
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    if (!enabled) {
+      synchronized (passLock) {
+        // nothing to do, just waiting for the thread to let go of the lock.
+      }
+    }
+  }
+
+  /** @return true if the thread has been started and is still running. */
+  public boolean isAlive() {
+    Thread t = thread;
+    return t != null && t.isAlive();
+  }
+
+  /** @return How many passes have thrown an exception since the robot program started. */
+  public int getErrorCount() {
+    return errorCount;
+  }
+
+  public void publishDataToSmartDash() {
+    TelemetryPublisher telemetry = TelemetryPublisher.getInstance();
+    telemetry.putBoolean("Vision Worker Alive", isAlive());
+    telemetry.putNumber("Vision Worker Errors", errorCount);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public static VisionWorker getInstance() {
+    return instance;
+  }
+}